@@ -1,6 +1,7 @@
 package top.kloping.core.ai;
 
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -81,11 +82,12 @@ public class AiModelAutoConfiguration {
         ChatContext chatContext = new ChatContext();
         chatContext.setModel(properties.getModel());
         chatContext.setMax(properties.getMax());
+        chatContext.setMaxTokens(properties.getMax_input_tokens());
         
         // 使用连接池管理器或创建默认客户端
         final OkHttpClient client = httpClientPoolManager != null 
-                ? httpClientPoolManager.getHttpClient()
-                : createDefaultHttpClient();
+                ? httpClientPoolManager.getHttpClient(properties.getMaxRequests())
+                : createDefaultHttpClient(properties);
                 
         String finalUrl = buildFinalUrl(properties);
         
@@ -99,8 +101,13 @@ public class AiModelAutoConfiguration {
     /**
      * 创建默认HTTP客户端（在没有连接池管理器时使用）
      */
-    private OkHttpClient createDefaultHttpClient() {
+    private OkHttpClient createDefaultHttpClient(AiModelProperties properties) {
+        // 默认调度器每个主机仅允许5个并发异步请求
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(properties.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(properties.getMaxRequests());
         return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
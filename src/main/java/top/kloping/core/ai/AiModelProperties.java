@@ -4,6 +4,11 @@ import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import top.kloping.core.ai.validation.ConfigurationValidator;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * AI模型配置属性类
  * 包含所有AI模型相关的配置项
@@ -39,6 +44,14 @@ public class AiModelProperties {
      * 请求接口
      */
     private String path = "/v1/chat/completions";
+    /**
+     * 异步请求的最大并发数 同时作用于单个服务地址
+     */
+    private Integer maxRequests = 256;
+    /**
+     * 是否合并并发的相同请求 模型、参数、系统消息、消息与工具完全相同的非流式请求共享一次上游调用
+     */
+    private Boolean coalesce = false;
     /**
      * 最大记忆长度
      */
@@ -76,4 +89,449 @@ public class AiModelProperties {
      * 取值范围：0到231−1。
      */
     private Integer seed;
-}
\ No newline at end of file
+
+    /**
+     * 多会话配置
+     */
+    private Session session = new Session();
+
+    @Data
+    public static class Session {
+        /**
+         * 最大会话数 超出时淘汰最久未访问的会话
+         * 总内存约为 maxSessions * max 条消息
+         */
+        private Integer maxSessions = 10000;
+        /**
+         * 会话空闲超时时间 单位秒
+         */
+        private Integer idleTimeout = 1800;
+        /**
+         * 全部会话消息的估算令牌总数上限 超出时淘汰最久未访问的会话 为空不限制
+         * 用于限制单个会话消息较长时的总内存
+         */
+        private Long maxTotalTokens;
+    }
+
+    /**
+     * 工具调用配置
+     */
+    private Tool tool = new Tool();
+
+    @Data
+    public static class Tool {
+        /**
+         * 同一轮中多个工具调用的最大并发数
+         */
+        private Integer parallelism = 8;
+        /**
+         * 单个工具调用超时时间 单位秒
+         */
+        private Integer timeout = 60;
+    }
+
+    /**
+     * 工具调用循环配置
+     */
+    private Loop loop = new Loop();
+
+    @Data
+    public static class Loop {
+        /**
+         * 一次对话最多请求模型的轮数 达到后不再执行工具 额外请求一轮不提供工具的回答
+         */
+        private Integer maxRounds = 10;
+        /**
+         * 一次对话最多消耗的令牌数 为空不限制
+         */
+        private Integer maxTokens;
+        /**
+         * 一次对话的最长耗时 单位秒 为空不限制
+         */
+        private Integer timeout = 300;
+    }
+
+    /**
+     * 多个上游节点 配置后请求在这些节点间负载均衡
+     * 未配置时仅使用 server/path/token
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    @Data
+    public static class Endpoint {
+        /**
+         * 节点名称 用于日志
+         */
+        private String name;
+        /**
+         * 模型API地址
+         */
+        private String server;
+        /**
+         * 请求接口 为空时使用主配置的 path
+         */
+        private String path;
+        /**
+         * 请求凭证 为空时使用主配置的 token
+         */
+        private String token;
+        /**
+         * 权重 越大分配的请求越多
+         */
+        private Integer weight = 1;
+        /**
+         * 该节点每分钟请求数上限 为空不限制
+         */
+        private Integer rpm;
+        /**
+         * 该节点每分钟令牌数上限 为空不限制
+         */
+        private Integer tpm;
+    }
+
+    /**
+     * 负载均衡配置
+     */
+    private LoadBalance loadBalance = new LoadBalance();
+
+    @Data
+    public static class LoadBalance {
+        /**
+         * 连续失败多少次后摘除节点
+         */
+        private Integer failureThreshold = 3;
+        /**
+         * 节点被摘除的时长 单位秒
+         */
+        private Integer ejectTime = 30;
+    }
+
+    /**
+     * 客户端限流配置
+     * 按模型限制每分钟请求数与令牌数 节点级别的限制见 {@link Endpoint}
+     */
+    private RateLimit rateLimit = new RateLimit();
+
+    @Data
+    public static class RateLimit {
+        /**
+         * 每个模型每分钟请求数上限 为空不限制
+         */
+        private Integer rpm;
+        /**
+         * 每个模型每分钟令牌数上限 为空不限制
+         */
+        private Integer tpm;
+        /**
+         * 额度不足时最长排队等待时间 单位秒 为0时立即拒绝
+         */
+        private Integer maxWait = 10;
+        /**
+         * 按模型名称单独设置的额度 覆盖上面的默认值
+         */
+        private Map<String, Quota> models = new HashMap<>();
+    }
+
+    @Data
+    public static class Quota {
+        /**
+         * 每分钟请求数上限 为空不限制
+         */
+        private Integer rpm;
+        /**
+         * 每分钟令牌数上限 为空不限制
+         */
+        private Integer tpm;
+    }
+
+    /**
+     * 模型请求重试配置
+     */
+    private Retry retry = new Retry();
+
+    @Data
+    public static class Retry {
+        /**
+         * 最大尝试次数 包含首次请求 为1时不重试
+         */
+        private Integer maxAttempts = 3;
+        /**
+         * 首次重试的退避上限 之后按2倍增长 单位毫秒
+         */
+        private Integer initialBackoff = 500;
+        /**
+         * 最大退避时间 单位毫秒 服务端 Retry-After 超过该值时不再重试
+         */
+        private Integer maxBackoff = 10000;
+        /**
+         * 重试预算 重试次数与请求数的最大比例
+         */
+        private Double budgetRatio = 0.2;
+        /**
+         * 每秒保底可重试次数
+         */
+        private Integer minRetriesPerSecond = 1;
+    }
+
+    /**
+     * 请求对冲配置
+     */
+    private Hedge hedge = new Hedge();
+
+    @Data
+    public static class Hedge {
+        /**
+         * 是否启用 默认关闭
+         */
+        private Boolean enabled = false;
+        /**
+         * 首字节等待超过近期首字节延迟的该分位数时发送对冲请求
+         */
+        private Double percentile = 95d;
+        /**
+         * 最短对冲等待时间 单位毫秒
+         */
+        private Integer minDelay = 100;
+        /**
+         * 对冲请求占全部请求的最大百分比
+         */
+        private Integer maxPercent = 10;
+    }
+
+    /**
+     * 每个上游节点的熔断器配置
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    @Data
+    public static class CircuitBreaker {
+        /**
+         * 是否启用
+         */
+        private Boolean enabled = true;
+        /**
+         * 统计最近多少次调用
+         */
+        private Integer windowSize = 50;
+        /**
+         * 至少多少次调用后才计算失败率
+         */
+        private Integer minCalls = 10;
+        /**
+         * 失败率阈值 百分比
+         */
+        private Integer failureRateThreshold = 50;
+        /**
+         * 慢调用率阈值 百分比
+         */
+        private Integer slowCallRateThreshold = 80;
+        /**
+         * 首字节耗时超过该值视为慢调用 单位秒
+         */
+        private Integer slowCallDuration = 30;
+        /**
+         * 打开后多久进入半开状态 单位秒
+         */
+        private Integer openTime = 30;
+        /**
+         * 半开状态下放行的探测请求数
+         */
+        private Integer halfOpenCalls = 3;
+    }
+
+    /**
+     * 响应缓存配置
+     * 仅在设置了 seed 且 temperature 不高于 maxTemperature 时生效 此时相同请求的回答是确定的
+     */
+    private ResponseCache responseCache = new ResponseCache();
+
+    @Data
+    public static class ResponseCache {
+        /**
+         * 是否启用 默认关闭
+         */
+        private Boolean enabled = false;
+        /**
+         * 允许缓存的最高 temperature
+         */
+        private Float maxTemperature = 0.3f;
+        /**
+         * 缓存有效期 单位秒
+         */
+        private Integer ttl = 600;
+        /**
+         * 缓存响应的最大总字节数
+         */
+        private Long maxWeight = 64L * 1024 * 1024;
+    }
+
+    /**
+     * 批量对话配置
+     */
+    private Batch batch = new Batch();
+
+    @Data
+    public static class Batch {
+        /**
+         * 默认并发数
+         */
+        private Integer parallelism = 8;
+    }
+
+    /**
+     * 上游请求调度配置
+     */
+    private Scheduler scheduler = new Scheduler();
+
+    @Data
+    public static class Scheduler {
+        /**
+         * 同时发往上游的最大请求数 为空时使用 maxRequests
+         */
+        private Integer maxConcurrent;
+        /**
+         * 排队请求数上限
+         */
+        private Integer queueCapacity = 1000;
+    }
+
+    /**
+     * 每个上游节点的自适应并发限制配置
+     * 根据首字节延迟与失败情况动态调整节点允许的在途请求数
+     */
+    private AdaptiveConcurrency adaptiveConcurrency = new AdaptiveConcurrency();
+
+    @Data
+    public static class AdaptiveConcurrency {
+        /**
+         * 是否启用 默认关闭
+         */
+        private Boolean enabled = false;
+        /**
+         * 初始并发限制
+         */
+        private Integer initialLimit = 20;
+        /**
+         * 并发限制下限
+         */
+        private Integer minLimit = 1;
+        /**
+         * 并发限制上限
+         */
+        private Integer maxLimit = 200;
+        /**
+         * 近期延迟超过长期平均延迟的该倍数时开始收缩
+         */
+        private Double tolerance = 1.5;
+        /**
+         * 超出限制时排队请求数上限 为0时直接拒绝
+         */
+        private Integer queueSize = 100;
+    }
+
+    /**
+     * 对话准入控制配置
+     */
+    private Admission admission = new Admission();
+
+    @Data
+    public static class Admission {
+        /**
+         * 是否启用 默认关闭
+         */
+        private Boolean enabled = false;
+        /**
+         * 同时进行的对话数上限 一次对话包含多轮模型请求与工具调用
+         */
+        private Integer maxInflight = 256;
+        /**
+         * 等待准入的对话数上限 超出时立即拒绝
+         */
+        private Integer queueSize = 256;
+        /**
+         * 最长等待准入时间 单位秒
+         */
+        private Integer maxWait = 10;
+        /**
+         * 近期对话因上游过载失败的比例超过该百分比时开始降级 收缩准入数并拒绝低优先级对话
+         */
+        private Integer shedThreshold = 30;
+    }
+
+    /**
+     * 上下文压缩配置
+     * 会话上下文接近上限时 在后台用模型将早期对话总结为一条摘要消息 不阻塞对话
+     */
+    private Compaction compaction = new Compaction();
+
+    @Data
+    public static class Compaction {
+        /**
+         * 是否启用 默认关闭
+         */
+        private Boolean enabled = false;
+        /**
+         * 用于总结的模型 为空时使用主模型 建议配置更便宜的模型
+         */
+        private String model;
+        /**
+         * 消息数或令牌数达到上限的该比例时触发
+         */
+        private Double triggerRatio = 0.8;
+        /**
+         * 保留不参与总结的最近消息数
+         */
+        private Integer keepRecent = 10;
+        /**
+         * 摘要最多生成的令牌数
+         */
+        private Integer maxSummaryTokens = 512;
+        /**
+         * 总结请求的超时时间 单位秒
+         */
+        private Integer timeout = 60;
+        /**
+         * 总结使用的系统提示词
+         */
+        private String prompt = "请将以下对话总结为简洁的摘要 保留用户的身份、诉求、已确认的事实、做出的决定与未完成的事项 "
+                + "省略寒暄与重复内容 直接输出摘要正文";
+    }
+
+    /**
+     * 会话持久化配置
+     * 会话消息以追加日志的形式写入本地磁盘 重启后首次访问会话时再从日志恢复
+     */
+    private Journal journal = new Journal();
+
+    @Data
+    public static class Journal {
+        /**
+         * 是否启用 默认关闭
+         */
+        private Boolean enabled = false;
+        /**
+         * 日志目录
+         */
+        private String dir = "data/ai-sessions";
+        /**
+         * 刷盘间隔 期间所有会话的写入合并为一次刷盘 宕机时最多丢失该时长内的消息 单位毫秒 为0时每批写入后立即刷盘
+         */
+        private Integer fsyncInterval = 200;
+        /**
+         * 每追加多少条消息写一次快照 快照开启新的日志段 旧段随之删除 恢复时只需读取最新一段
+         */
+        private Integer snapshotInterval = 200;
+        /**
+         * 单个日志段的最大字节数 超出时提前写快照
+         */
+        private Long segmentSize = 4L * 1024 * 1024;
+        /**
+         * 同时打开的日志文件数上限
+         */
+        private Integer maxOpenFiles = 256;
+        /**
+         * 会话日志的保留时间 超过该时长未写入的会话被删除 单位秒 为空永久保留
+         */
+        private Integer retention = 7 * 24 * 3600;
+    }
+}
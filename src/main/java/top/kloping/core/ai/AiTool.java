@@ -29,4 +29,10 @@ public @interface AiTool {
      * 工具返回描述
      */
     String ret() default "";
+
+    /**
+     * 工具是否有副作用 如写入数据、发送消息
+     * 携带有副作用工具的请求不会被对冲发送
+     */
+    boolean sideEffect() default false;
 }
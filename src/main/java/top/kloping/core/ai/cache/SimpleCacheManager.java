@@ -3,11 +3,17 @@ package top.kloping.core.ai.cache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 简单的内存缓存管理器
  * 提供基本的缓存功能和TTL支持
+ * 可限制缓存项的总权重 超出时优先淘汰最早过期的缓存项
  *
  * @author github kloping
  * @since 2025/9/21
@@ -16,7 +22,17 @@ import java.util.concurrent.*;
 @Component
 public class SimpleCacheManager {
     
+    /**
+     * 超出总权重时额外淘汰的比例 避免每次写入都扫描全部缓存
+     */
+    private static final double EVICT_RATIO = 0.1;
+
     private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final long maxWeight;
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, r -> {
         Thread t = new Thread(r, "cache-cleanup");
         t.setDaemon(true);
@@ -24,6 +40,14 @@ public class SimpleCacheManager {
     });
     
     public SimpleCacheManager() {
+        this(Long.MAX_VALUE);
+    }
+    
+    /**
+     * @param maxWeight 缓存项的最大总权重
+     */
+    public SimpleCacheManager(long maxWeight) {
+        this.maxWeight = maxWeight;
         // 定期清理过期缓存
         scheduler.scheduleAtFixedRate(this::cleanupExpiredEntries, 60, 60, TimeUnit.SECONDS);
     }
@@ -34,10 +58,12 @@ public class SimpleCacheManager {
     private static class CacheEntry {
         private final Object value;
         private final long expireTime;
+        private final long weight;
         
-        public CacheEntry(Object value, long ttlMs) {
+        public CacheEntry(Object value, long ttlMs, long weight) {
             this.value = value;
             this.expireTime = System.currentTimeMillis() + ttlMs;
+            this.weight = weight;
         }
         
         public boolean isExpired() {
@@ -53,11 +79,22 @@ public class SimpleCacheManager {
      * 添加缓存项
      */
     public void put(String key, Object value, long ttlMs) {
-        if (key == null || value == null) {
+        put(key, value, ttlMs, 1);
+    }
+    
+    /**
+     * 添加带权重的缓存项 单项权重超过上限时不缓存
+     */
+    public void put(String key, Object value, long ttlMs, long weight) {
+        if (key == null || value == null || weight > maxWeight) {
             return;
         }
-        cache.put(key, new CacheEntry(value, ttlMs));
-        log.debug("Cached item with key: {}, TTL: {}ms", key, ttlMs);
+        CacheEntry old = cache.put(key, new CacheEntry(value, ttlMs, weight));
+        long total = totalWeight.addAndGet(weight - (old == null ? 0 : old.weight));
+        log.debug("Cached item with key: {}, TTL: {}ms, weight: {}", key, ttlMs, weight);
+        if (total > maxWeight) {
+            evictOverweight();
+        }
     }
     
     /**
@@ -78,15 +115,18 @@ public class SimpleCacheManager {
         
         CacheEntry entry = cache.get(key);
         if (entry == null) {
+            misses.incrementAndGet();
             return null;
         }
         
         if (entry.isExpired()) {
-            cache.remove(key);
+            removeEntry(key, entry);
+            misses.incrementAndGet();
             log.debug("Removed expired cache entry: {}", key);
             return null;
         }
         
+        hits.incrementAndGet();
         try {
             return type.cast(entry.getValue());
         } catch (ClassCastException e) {
@@ -108,7 +148,10 @@ public class SimpleCacheManager {
      */
     public void remove(String key) {
         if (key != null) {
-            cache.remove(key);
+            CacheEntry entry = cache.remove(key);
+            if (entry != null) {
+                totalWeight.addAndGet(-entry.weight);
+            }
             log.debug("Removed cache entry: {}", key);
         }
     }
@@ -127,7 +170,7 @@ public class SimpleCacheManager {
         }
         
         if (entry.isExpired()) {
-            cache.remove(key);
+            removeEntry(key, entry);
             return false;
         }
         
@@ -140,6 +183,7 @@ public class SimpleCacheManager {
     public void clear() {
         int size = cache.size();
         cache.clear();
+        totalWeight.set(0);
         log.info("Cleared {} cache entries", size);
     }
     
@@ -155,10 +199,8 @@ public class SimpleCacheManager {
      */
     private void cleanupExpiredEntries() {
         int expiredCount = 0;
-        for (String key : cache.keySet()) {
-            CacheEntry entry = cache.get(key);
-            if (entry != null && entry.isExpired()) {
-                cache.remove(key);
+        for (Map.Entry<String, CacheEntry> entry : cache.entrySet()) {
+            if (entry.getValue().isExpired() && removeEntry(entry.getKey(), entry.getValue())) {
                 expiredCount++;
             }
         }
@@ -167,11 +209,62 @@ public class SimpleCacheManager {
         }
     }
     
+    private boolean removeEntry(String key, CacheEntry entry) {
+        if (cache.remove(key, entry)) {
+            totalWeight.addAndGet(-entry.weight);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 总权重超出上限时 按过期时间从早到晚淘汰 直到回落到上限的 90%
+     */
+    private synchronized void evictOverweight() {
+        if (totalWeight.get() <= maxWeight) {
+            return;
+        }
+        long target = (long) (maxWeight * (1 - EVICT_RATIO));
+        List<Map.Entry<String, CacheEntry>> entries = new ArrayList<>(cache.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().expireTime));
+        int evicted = 0;
+        for (Map.Entry<String, CacheEntry> entry : entries) {
+            if (totalWeight.get() <= target) {
+                break;
+            }
+            if (removeEntry(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        evictions.addAndGet(evicted);
+        log.debug("Evicted {} cache entries, total weight {}", evicted, totalWeight.get());
+    }
+    
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    public long getTotalWeight() {
+        return totalWeight.get();
+    }
+    
     /**
      * 获取缓存统计信息
      */
     public String getCacheStats() {
-        return String.format("Cache stats - Size: %d entries", cache.size());
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return String.format("Cache stats - Size: %d entries, weight: %d, hits: %d, misses: %d, " +
+                        "hit rate: %.2f%%, evictions: %d", cache.size(), totalWeight.get(), hitCount, misses.get(),
+                total == 0 ? 0d : hitCount * 100d / total, evictions.get());
     }
     
     /**
@@ -0,0 +1,144 @@
+package top.kloping.core.ai.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同键的并发请求
+ * 同一键在执行期间只发起一次 其余调用共享同一结果 执行结束后立即移除 不做缓存
+ * 每个调用方拿到各自的 future 调用方取消自己的 future 只是退出等待 全部调用方都取消后才取消共享的执行
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class SingleFlight<V> {
+    private final ConcurrentMap<String, Flight> inflight = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * 执行或加入正在执行的相同请求
+     *
+     * @param supplier 没有相同请求在执行时调用 返回的 future 在全部调用方取消后被取消
+     * @return 该调用方独有的 future 可单独取消
+     */
+    public CompletableFuture<V> execute(String key, Supplier<CompletableFuture<V>> supplier) {
+        while (true) {
+            Flight created = new Flight(key);
+            Flight existing = inflight.putIfAbsent(key, created);
+            if (existing != null) {
+                CompletableFuture<V> waiter = existing.join();
+                if (waiter == null) {
+                    // 已被全部调用方放弃 正在移除
+                    inflight.remove(key, existing);
+                    continue;
+                }
+                shared.incrementAndGet();
+                return waiter;
+            }
+            executions.incrementAndGet();
+            CompletableFuture<V> waiter = created.join();
+            CompletableFuture<V> source;
+            try {
+                source = supplier.get();
+            } catch (RuntimeException e) {
+                source = CompletableFuture.failedFuture(e);
+            }
+            created.start(source);
+            return waiter;
+        }
+    }
+
+    /**
+     * 正在执行的请求数
+     */
+    public int size() {
+        return inflight.size();
+    }
+
+    public String getStats() {
+        return String.format("SingleFlight stats - executions: %d, shared: %d, abandoned: %d, inflight: %d",
+                executions.get(), shared.get(), abandoned.get(), inflight.size());
+    }
+
+    /**
+     * 一次共享的执行 记录仍在等待的调用方数
+     */
+    private class Flight {
+        private final String key;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletableFuture<V> source;
+        private int waiters;
+        private boolean cancelled;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        void start(CompletableFuture<V> source) {
+            boolean cancel;
+            synchronized (this) {
+                this.source = source;
+                cancel = cancelled;
+            }
+            source.whenComplete((value, throwable) -> {
+                inflight.remove(key, this);
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            });
+            if (cancel) {
+                source.cancel(false);
+            }
+        }
+
+        /**
+         * 加入等待
+         *
+         * @return 已被放弃时返回null
+         */
+        synchronized CompletableFuture<V> join() {
+            if (cancelled) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<V> waiter = new CompletableFuture<>();
+            result.whenComplete((value, throwable) -> {
+                if (throwable != null) {
+                    waiter.completeExceptionally(throwable);
+                } else {
+                    waiter.complete(value);
+                }
+            });
+            waiter.whenComplete((value, throwable) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        private void leave() {
+            CompletableFuture<V> cancel;
+            synchronized (this) {
+                if (--waiters > 0 || result.isDone() || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                cancel = source;
+            }
+            inflight.remove(key, this);
+            abandoned.incrementAndGet();
+            // 执行尚未开始时由 start 取消
+            if (cancel != null) {
+                cancel.cancel(false);
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -26,12 +27,42 @@ public class AssistantMessage extends Message<String> {
     @Setter
     private List<ToolCall> tool_calls;
 
+    /**
+     * 复制消息及其工具调用 副本与原消息互不影响
+     */
+    public AssistantMessage copyOf() {
+        AssistantMessage copy = new AssistantMessage();
+        copy.setContent(content);
+        if (tool_calls != null) {
+            List<ToolCall> calls = new ArrayList<>(tool_calls.size());
+            for (ToolCall toolCall : tool_calls) {
+                calls.add(toolCall == null ? null : toolCall.copyOf());
+            }
+            copy.setTool_calls(calls);
+        }
+        return copy;
+    }
+
     @Data
     public static class ToolCall {
         private String id;
         private String type;
         private ToolCallFunction function;
         private Integer index;
+
+        public ToolCall copyOf() {
+            ToolCall copy = new ToolCall();
+            copy.setId(id);
+            copy.setType(type);
+            copy.setIndex(index);
+            if (function != null) {
+                ToolCallFunction f = new ToolCallFunction();
+                f.setName(function.getName());
+                f.setArguments(function.getArguments());
+                copy.setFunction(f);
+            }
+            return copy;
+        }
     }
 
     @Data
@@ -0,0 +1,19 @@
+package top.kloping.core.ai.dto;
+
+import lombok.EqualsAndHashCode;
+
+/**
+ * 压缩上下文时生成的摘要消息
+ * 以系统消息发送 替代被总结的早期对话
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@EqualsAndHashCode(callSuper = true)
+public class SummaryMessage extends SystemMessage {
+    public static final String PREFIX = "以下是之前对话的摘要:\n";
+
+    public SummaryMessage(String summary) {
+        super(PREFIX + summary);
+    }
+}
@@ -13,6 +13,7 @@ import lombok.Getter;
 @EqualsAndHashCode(callSuper = true)
 public class ToolMessage extends Message<String> {
     public static final String TYPE = "tool";
+    @Getter
     private final String tool_call_id;
 
     public ToolMessage(String content, String tool_call_id) {
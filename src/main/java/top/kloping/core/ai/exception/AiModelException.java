@@ -42,7 +42,14 @@ public class AiModelException extends RuntimeException {
         MCP_CONNECTION_ERROR("MCP连接错误"),
         THREAD_INTERRUPTED("线程被中断"),
         TIMEOUT_ERROR("请求超时"),
-        AUTHENTICATION_ERROR("认证失败");
+        AUTHENTICATION_ERROR("认证失败"),
+        RATE_LIMITED("超出请求频率限制"),
+        CIRCUIT_OPEN("熔断器已打开 服务暂不可用"),
+        DEADLINE_EXCEEDED("请求已超过截止时间"),
+        QUEUE_FULL("请求队列已满"),
+        CONCURRENCY_LIMITED("节点并发已达上限"),
+        OVERLOADED("服务过载 请求被拒绝"),
+        CANCELLED("请求已取消");
         
         private final String message;
         
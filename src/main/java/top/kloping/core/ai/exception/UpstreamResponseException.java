@@ -0,0 +1,32 @@
+package top.kloping.core.ai.exception;
+
+/**
+ * 上游返回非成功状态码时的异常
+ * 保留HTTP状态码与 Retry-After 以便重试策略判断
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class UpstreamResponseException extends AiModelException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    /**
+     * @param retryAfterMillis 响应头 Retry-After 折算的毫秒数 未提供时为-1
+     */
+    public UpstreamResponseException(ErrorCode errorCode, String message, int statusCode, long retryAfterMillis) {
+        super(errorCode, message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
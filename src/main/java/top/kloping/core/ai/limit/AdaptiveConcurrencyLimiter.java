@@ -0,0 +1,231 @@
+package top.kloping.core.ai.limit;
+
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应并发限制器
+ * 按梯度方式调整允许的在途请求数: 以长期平均延迟与近期延迟之比作为梯度
+ * 近期延迟明显升高时按比例收缩 延迟平稳且并发已用满时按平方根幅度增长
+ * 请求失败(限流、服务端错误、超时)时直接乘性减小
+ * 超出限制的请求进入有界等待队列 队列已满时拒绝 取消或到达截止时间的请求离开队列
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+    /**
+     * 近期延迟的平滑系数
+     */
+    private static final double SHORT_ALPHA = 0.2;
+    /**
+     * 长期延迟的平滑系数
+     */
+    private static final double LONG_ALPHA = 0.01;
+    /**
+     * 新旧限制值的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+    /**
+     * 失败时的收缩比例
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final int maxQueue;
+
+    private double limit;
+    private double shortRtt;
+    private double longRtt;
+    private int inflight;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final AtomicLong shed = new AtomicLong();
+
+    public AdaptiveConcurrencyLimiter(String name, AiModelProperties.AdaptiveConcurrency properties) {
+        AiModelProperties.AdaptiveConcurrency config = properties != null
+                ? properties : new AiModelProperties.AdaptiveConcurrency();
+        this.name = name;
+        this.minLimit = config.getMinLimit();
+        this.maxLimit = config.getMaxLimit();
+        this.tolerance = config.getTolerance();
+        this.maxQueue = config.getQueueSize();
+        this.limit = Math.max(minLimit, Math.min(maxLimit, config.getInitialLimit()));
+    }
+
+    /**
+     * 申请一个在途名额 已满时排队
+     *
+     * @return 获得名额时完成 结束后必须调用 {@link #release()}
+     */
+    public CompletableFuture<Void> acquire() {
+        return acquire(Long.MAX_VALUE);
+    }
+
+    /**
+     * 申请一个在途名额 已满时排队至截止时间
+     *
+     * @param deadline 毫秒时间戳 {@link Long#MAX_VALUE} 表示不限
+     * @return 获得名额时完成 结束后必须调用 {@link #release()} 到达截止时间仍未获得时以 DEADLINE_EXCEEDED 失败
+     */
+    public CompletableFuture<Void> acquire(long deadline) {
+        Waiter waiter = null;
+        synchronized (this) {
+            if (inflight < (int) limit && waiters.isEmpty()) {
+                inflight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (deadline <= System.currentTimeMillis()) {
+                return CompletableFuture.failedFuture(deadlineExceeded());
+            }
+            if (waiters.size() < maxQueue) {
+                waiter = new Waiter();
+                waiters.addLast(waiter);
+            }
+        }
+        if (waiter == null) {
+            shed.incrementAndGet();
+            return CompletableFuture.failedFuture(new AiModelException(AiModelException.ErrorCode.CONCURRENCY_LIMITED,
+                    String.format("节点 %s 并发已达上限 %d 且等待队列已满", name, getLimit())));
+        }
+        Waiter queued = waiter;
+        queued.timeout = DeadlineTimer.at(deadline, () -> {
+            if (remove(queued)) {
+                queued.future.completeExceptionally(deadlineExceeded());
+            }
+        });
+        queued.future.whenComplete((v, t) -> {
+            if (queued.future.isCancelled()) {
+                remove(queued);
+            }
+        });
+        return queued.future;
+    }
+
+    private boolean remove(Waiter waiter) {
+        DeadlineTimer.cancel(waiter.timeout);
+        synchronized (this) {
+            return waiters.remove(waiter);
+        }
+    }
+
+    private AiModelException deadlineExceeded() {
+        return new AiModelException(AiModelException.ErrorCode.DEADLINE_EXCEEDED,
+                String.format("节点 %s 并发已满 排队超过截止时间", name));
+    }
+
+    /**
+     * 归还名额 并唤醒等待中的请求
+     */
+    public void release() {
+        synchronized (this) {
+            inflight--;
+        }
+        drain();
+    }
+
+    /**
+     * 记录一次成功调用的延迟并调整限制
+     *
+     * @param rttMillis 首字节延迟
+     */
+    public synchronized void onSample(long rttMillis) {
+        double rtt = Math.max(1, rttMillis);
+        if (longRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+            return;
+        }
+        shortRtt += SHORT_ALPHA * (rtt - shortRtt);
+        longRtt += LONG_ALPHA * (rtt - longRtt);
+        if (longRtt / shortRtt > 2) {
+            // 长期延迟明显偏高时向近期值靠拢 使延迟恢复后限制能尽快回升
+            longRtt *= 0.95;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (inflight < limit / 2) {
+            // 并发未用满时延迟不能说明容量 不再增长
+            newLimit = Math.min(newLimit, limit);
+        }
+        update(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+    }
+
+    /**
+     * 记录一次失败调用 乘性减小限制
+     */
+    public synchronized void onDrop() {
+        update(limit * BACKOFF_RATIO);
+    }
+
+    private void update(double newLimit) {
+        int before = (int) limit;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if ((int) limit != before) {
+            log.debug("concurrency limit of {} changed {} -> {}", name, before, (int) limit);
+        }
+        if ((int) limit > before) {
+            CompletableFuture.runAsync(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Waiter waiter;
+            synchronized (this) {
+                if (inflight >= (int) limit || waiters.isEmpty()) {
+                    return;
+                }
+                waiter = waiters.pollFirst();
+                if (waiter.future.isDone()) {
+                    continue;
+                }
+                inflight++;
+            }
+            DeadlineTimer.cancel(waiter.timeout);
+            if (!waiter.future.complete(null)) {
+                // 等待方已取消
+                synchronized (this) {
+                    inflight--;
+                }
+            }
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInflight() {
+        return inflight;
+    }
+
+    public synchronized int getQueueDepth() {
+        return waiters.size();
+    }
+
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    private static class Waiter {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("limit=%d, inflight=%d, queued=%d, shed=%d, rtt=%.0f/%.0fms",
+                (int) limit, inflight, waiters.size(), shed.get(), shortRtt, longRtt);
+    }
+}
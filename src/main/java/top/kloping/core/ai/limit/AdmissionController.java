@@ -0,0 +1,221 @@
+package top.kloping.core.ai.limit;
+
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+import top.kloping.core.ai.exception.UpstreamResponseException;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对话准入控制器
+ * 限制同时进行的对话数 超出时进入有界等待队列 队列已满或等待超时立即拒绝
+ * 对话因上游过载(上游限流、服务端错误、响应超时)失败时计入过载信号
+ * 过载率超过阈值后按比例收缩允许的对话数 并直接拒绝低优先级对话
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class AdmissionController {
+    /**
+     * 过载率滑动平均的权重
+     */
+    private static final double ALPHA = 0.05;
+
+    private final int maxInflight;
+    private final int queueSize;
+    private final long maxWaitMillis;
+    private final double shedThreshold;
+
+    private final Deque<CompletableFuture<Ticket>> waiters = new ArrayDeque<>();
+    private int running;
+    private double overloadRate;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    public AdmissionController(AiModelProperties.Admission config) {
+        this.maxInflight = Math.max(1, config.getMaxInflight());
+        this.queueSize = Math.max(0, config.getQueueSize());
+        this.maxWaitMillis = TimeUnit.SECONDS.toMillis(config.getMaxWait());
+        this.shedThreshold = config.getShedThreshold() / 100.0;
+    }
+
+    /**
+     * 申请开始一次对话
+     *
+     * @param priority 优先级 为null时视为 {@link Priority#NORMAL}
+     * @return 准入时完成 对话结束后必须调用 {@link Ticket#release(Throwable)}
+     */
+    public CompletableFuture<Ticket> acquire(Priority priority) {
+        CompletableFuture<Ticket> waiter;
+        synchronized (this) {
+            boolean shedding = overloadRate > shedThreshold;
+            if (shedding && priority == Priority.LOW) {
+                shed.incrementAndGet();
+                return CompletableFuture.failedFuture(overloaded("上游过载 拒绝低优先级对话"));
+            }
+            if (running < limit() && waiters.isEmpty()) {
+                running++;
+                admitted.incrementAndGet();
+                return CompletableFuture.completedFuture(new Ticket());
+            }
+            if (waiters.size() >= queueSize) {
+                rejected.incrementAndGet();
+                return CompletableFuture.failedFuture(overloaded(
+                        String.format("同时进行的对话已达上限 %d 且等待队列已满(%d)", limit(), queueSize)));
+            }
+            waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+        }
+        waiter.whenComplete((ticket, throwable) -> {
+            if (waiter.isCancelled()) {
+                // 等待方取消 立即让出队列位置
+                synchronized (this) {
+                    waiters.remove(waiter);
+                }
+            }
+        });
+        if (maxWaitMillis > 0) {
+            CompletableFuture.delayedExecutor(maxWaitMillis, TimeUnit.MILLISECONDS).execute(() -> expire(waiter));
+        } else {
+            expire(waiter);
+        }
+        return waiter;
+    }
+
+    /**
+     * 当前允许同时进行的对话数 过载时按过载率收缩
+     */
+    private int limit() {
+        if (overloadRate <= shedThreshold) {
+            return maxInflight;
+        }
+        return Math.max(1, (int) (maxInflight * (1 - overloadRate)));
+    }
+
+    private void expire(CompletableFuture<Ticket> waiter) {
+        boolean removed;
+        synchronized (this) {
+            removed = waiters.remove(waiter);
+        }
+        if (removed) {
+            rejected.incrementAndGet();
+            waiter.completeExceptionally(overloaded("等待准入超时"));
+        }
+    }
+
+    private void release(Throwable error) {
+        synchronized (this) {
+            running--;
+            Boolean overload = isOverload(error);
+            if (overload != null) {
+                overloadRate += ALPHA * ((overload ? 1 : 0) - overloadRate);
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            CompletableFuture<Ticket> waiter;
+            synchronized (this) {
+                if (running >= limit() || waiters.isEmpty()) {
+                    return;
+                }
+                waiter = waiters.pollFirst();
+                if (waiter.isDone()) {
+                    continue;
+                }
+                running++;
+            }
+            if (waiter.complete(new Ticket())) {
+                admitted.incrementAndGet();
+            } else {
+                // 等待方已取消
+                synchronized (this) {
+                    running--;
+                }
+            }
+        }
+    }
+
+    /**
+     * 判断对话结果是否说明上游过载
+     * 只有上游返回限流或服务端错误、上游响应超时才计入 本端的截止时间、取消、对冲取代及本地限流熔断均不计入
+     *
+     * @return 成功返回false 过载类失败返回true 与负载无关的失败返回null 不计入
+     */
+    static Boolean isOverload(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UpstreamResponseException) {
+                int code = ((UpstreamResponseException) cause).getStatusCode();
+                return code == 429 || code >= 500 ? true : null;
+            }
+            if (cause instanceof AiModelException
+                    && ((AiModelException) cause).getErrorCode() == AiModelException.ErrorCode.TIMEOUT_ERROR) {
+                return true;
+            }
+            if (cause instanceof InterruptedIOException) {
+                // 连接或读取超时
+                return true;
+            }
+        }
+        return null;
+    }
+
+    private static AiModelException overloaded(String message) {
+        return new AiModelException(AiModelException.ErrorCode.OVERLOADED, message);
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    /**
+     * 近期对话中因上游过载失败的比例
+     */
+    public synchronized double getOverloadRate() {
+        return overloadRate;
+    }
+
+    public String getStats() {
+        synchronized (this) {
+            return String.format("Admission stats - running: %d/%d, queued: %d/%d, overload: %.1f%%, "
+                            + "admitted: %d, rejected: %d, shed: %d",
+                    running, limit(), waiters.size(), queueSize, overloadRate * 100,
+                    admitted.get(), rejected.get(), shed.get());
+        }
+    }
+
+    /**
+     * 准入凭证 只能归还一次
+     */
+    public class Ticket {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * @param error 对话失败的原因 成功时为null
+         */
+        public void release(Throwable error) {
+            if (released.compareAndSet(false, true)) {
+                AdmissionController.this.release(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package top.kloping.core.ai.limit;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排队截止时间的共享定时器
+ * 出队时取消对应任务 已取消的任务立即从定时器中移除
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+final class DeadlineTimer {
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "limit-deadline-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private DeadlineTimer() {
+    }
+
+    /**
+     * 在截止时间执行任务
+     *
+     * @param deadline 毫秒时间戳 {@link Long#MAX_VALUE} 表示不限 此时返回null
+     */
+    static ScheduledFuture<?> at(long deadline, Runnable task) {
+        if (deadline == Long.MAX_VALUE) {
+            return null;
+        }
+        long delay = Math.max(0, deadline - System.currentTimeMillis());
+        return TIMER.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取消任务 为null时忽略
+     */
+    static void cancel(ScheduledFuture<?> task) {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+}
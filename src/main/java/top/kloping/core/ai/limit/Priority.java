@@ -0,0 +1,23 @@
+package top.kloping.core.ai.limit;
+
+/**
+ * 请求优先级
+ * 排队时高优先级的请求先被发送 队列已满时优先丢弃低优先级的请求
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public enum Priority {
+    /**
+     * 交互式请求 如在线用户的对话
+     */
+    HIGH,
+    /**
+     * 默认优先级
+     */
+    NORMAL,
+    /**
+     * 后台请求 如批量任务 批量对话未指定优先级时使用
+     */
+    LOW
+}
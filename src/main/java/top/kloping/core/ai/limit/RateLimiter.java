@@ -0,0 +1,105 @@
+package top.kloping.core.ai.limit;
+
+/**
+ * 每分钟请求数(RPM)与每分钟令牌数(TPM)限流器
+ * 两个令牌桶按每分钟额度连续补充 预约时先扣除额度 不足部分折算为需要等待的时间
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class RateLimiter {
+    private static final double MILLIS_PER_MINUTE = 60_000d;
+
+    private final double requestCapacity;
+    private final double tokenCapacity;
+    private double requests;
+    private double tokens;
+    private long lastRefill = System.currentTimeMillis();
+
+    /**
+     * @param rpm 每分钟请求数 为空或不大于0时不限制
+     * @param tpm 每分钟令牌数 为空或不大于0时不限制
+     */
+    public RateLimiter(Integer rpm, Integer tpm) {
+        this.requestCapacity = rpm == null || rpm <= 0 ? 0 : rpm;
+        this.tokenCapacity = tpm == null || tpm <= 0 ? 0 : tpm;
+        this.requests = requestCapacity;
+        this.tokens = tokenCapacity;
+    }
+
+    /**
+     * 是否不做任何限制
+     */
+    public boolean isUnlimited() {
+        return requestCapacity == 0 && tokenCapacity == 0;
+    }
+
+    /**
+     * 预约一次请求
+     *
+     * @param tokenCount   预估令牌数
+     * @param maxWaitMillis 最长可等待时间
+     * @return 需要等待的毫秒数 超过最长等待时间时返回-1且不扣除额度
+     */
+    public synchronized long reserve(int tokenCount, long maxWaitMillis) {
+        refill();
+        double requestsAfter = requests - 1;
+        double tokensAfter = tokens - tokenCount;
+        long wait = Math.max(waitMillis(requestsAfter, requestCapacity), waitMillis(tokensAfter, tokenCapacity));
+        if (wait > maxWaitMillis) {
+            return -1;
+        }
+        if (requestCapacity > 0) {
+            requests = requestsAfter;
+        }
+        if (tokenCapacity > 0) {
+            tokens = tokensAfter;
+        }
+        return wait;
+    }
+
+    /**
+     * 撤销一次预约
+     */
+    public synchronized void cancel(int tokenCount) {
+        if (requestCapacity > 0) {
+            requests = Math.min(requestCapacity, requests + 1);
+        }
+        adjust(-tokenCount);
+    }
+
+    /**
+     * 按实际消耗修正令牌额度
+     *
+     * @param delta 实际令牌数与预估值之差 为负时返还额度
+     */
+    public synchronized void adjust(int delta) {
+        if (tokenCapacity > 0) {
+            tokens = Math.min(tokenCapacity, tokens - delta);
+        }
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) {
+            return;
+        }
+        lastRefill = now;
+        requests = Math.min(requestCapacity, requests + elapsed * requestCapacity / MILLIS_PER_MINUTE);
+        tokens = Math.min(tokenCapacity, tokens + elapsed * tokenCapacity / MILLIS_PER_MINUTE);
+    }
+
+    private static long waitMillis(double balance, double capacity) {
+        if (capacity == 0 || balance >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-balance * MILLIS_PER_MINUTE / capacity);
+    }
+
+    public synchronized String getStats() {
+        refill();
+        return String.format("rpm available %.0f/%.0f, tpm available %.0f/%.0f",
+                requests, requestCapacity, tokens, tokenCapacity);
+    }
+}
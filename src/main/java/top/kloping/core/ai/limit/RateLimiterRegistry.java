@@ -0,0 +1,126 @@
+package top.kloping.core.ai.limit;
+
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流器注册表
+ * 按模型名称懒创建 {@link RateLimiter} 并将模型与节点两级额度合并为一次预约
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class RateLimiterRegistry {
+    private final AiModelProperties.RateLimit config;
+    private final long maxWaitMillis;
+    private final Map<String, RateLimiter> modelLimiters = new ConcurrentHashMap<>();
+
+    public RateLimiterRegistry(AiModelProperties.RateLimit properties) {
+        this.config = properties != null ? properties : new AiModelProperties.RateLimit();
+        this.maxWaitMillis = TimeUnit.SECONDS.toMillis(config.getMaxWait() == null ? 0 : config.getMaxWait());
+    }
+
+    /**
+     * 获取模型的限流器
+     */
+    public RateLimiter forModel(String model) {
+        return modelLimiters.computeIfAbsent(model == null ? "" : model, name -> {
+            AiModelProperties.Quota quota = config.getModels() == null ? null : config.getModels().get(name);
+            return quota != null ? new RateLimiter(quota.getRpm(), quota.getTpm())
+                    : new RateLimiter(config.getRpm(), config.getTpm());
+        });
+    }
+
+    /**
+     * 同时向多个限流器预约一次请求
+     * 任一限流器需要等待的时间超过上限时撤销已完成的预约并拒绝
+     *
+     * @param tokens   预估令牌数
+     * @param limiters 限流器 可包含null
+     * @throws AiModelException 额度不足且无法在最长等待时间内恢复
+     */
+    public Reservation reserve(int tokens, RateLimiter... limiters) {
+        List<RateLimiter> reserved = new ArrayList<>(limiters.length);
+        long wait = 0;
+        for (RateLimiter limiter : limiters) {
+            if (limiter == null || limiter.isUnlimited()) {
+                continue;
+            }
+            long w = limiter.reserve(tokens, maxWaitMillis);
+            if (w < 0) {
+                for (RateLimiter r : reserved) {
+                    r.cancel(tokens);
+                }
+                log.warn("rate limited: {} estimated tokens, {}", tokens, limiter.getStats());
+                throw new AiModelException(AiModelException.ErrorCode.RATE_LIMITED,
+                        String.format("超出请求频率限制 预估令牌数 %d, %s", tokens, limiter.getStats()));
+            }
+            reserved.add(limiter);
+            wait = Math.max(wait, w);
+        }
+        return new Reservation(reserved, tokens, wait);
+    }
+
+    /**
+     * 一次已生效的预约
+     */
+    public static class Reservation {
+        private final List<RateLimiter> limiters;
+        private final int estimatedTokens;
+        private final long waitMillis;
+        private boolean settled;
+
+        Reservation(List<RateLimiter> limiters, int estimatedTokens, long waitMillis) {
+            this.limiters = limiters;
+            this.estimatedTokens = estimatedTokens;
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * 发出请求前需要等待的毫秒数
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        /**
+         * 按响应中的实际用量修正额度 只生效一次
+         *
+         * @param actualTokens 实际令牌数 为null时保留预估值
+         */
+        public synchronized void settle(Integer actualTokens) {
+            if (settled) {
+                return;
+            }
+            settled = true;
+            if (actualTokens == null) {
+                return;
+            }
+            int delta = actualTokens - estimatedTokens;
+            for (RateLimiter limiter : limiters) {
+                limiter.adjust(delta);
+            }
+        }
+
+        /**
+         * 请求未发出时撤销预约 同时退还请求数与预估令牌数 已结算时无效
+         */
+        public synchronized void cancel() {
+            if (settled) {
+                return;
+            }
+            settled = true;
+            for (RateLimiter limiter : limiters) {
+                limiter.cancel(estimatedTokens);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package top.kloping.core.ai.limit;
+
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上游请求调度器
+ * 限制同时发往上游的请求数 超出时进入有界优先队列 按优先级、截止时间、到达顺序依次放行
+ * 排队期间到达截止时间的请求直接失败 不再发送 队列已满时丢弃优先级最低的请求
+ * 排队中被取消的请求立即出队 不再占用队列容量
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class RequestScheduler {
+    private static final Comparator<Ticket> ORDER = Comparator
+            .comparing((Ticket t) -> t.priority)
+            .thenComparingLong(t -> t.deadline)
+            .thenComparingLong(t -> t.seq);
+
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(ORDER);
+    private int running;
+    private long seq;
+
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public RequestScheduler(int maxConcurrent, int queueCapacity) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.queueCapacity = Math.max(0, queueCapacity);
+    }
+
+    public RequestScheduler(AiModelProperties.Scheduler properties, int defaultMaxConcurrent) {
+        this(properties != null && properties.getMaxConcurrent() != null
+                        ? properties.getMaxConcurrent() : defaultMaxConcurrent,
+                properties != null ? properties.getQueueCapacity() : new AiModelProperties.Scheduler().getQueueCapacity());
+    }
+
+    /**
+     * 申请发送一个请求
+     *
+     * @param priority 优先级 为null时视为 {@link Priority#NORMAL}
+     * @param deadline 截止时间 毫秒时间戳 {@link Long#MAX_VALUE} 表示不限
+     * @return 获得许可时完成 请求结束后必须调用 {@link Permit#release()}
+     */
+    public CompletableFuture<Permit> acquire(Priority priority, long deadline) {
+        if (deadline <= System.currentTimeMillis()) {
+            expired.incrementAndGet();
+            return CompletableFuture.failedFuture(deadlineExceeded());
+        }
+        Ticket ticket = new Ticket(priority == null ? Priority.NORMAL : priority, deadline);
+        Ticket dropped = null;
+        synchronized (this) {
+            if (running < maxConcurrent && queue.isEmpty()) {
+                running++;
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            if (queue.size() >= queueCapacity) {
+                Ticket lowest = lowest();
+                if (lowest == null || ORDER.compare(ticket, lowest) >= 0) {
+                    rejected.incrementAndGet();
+                    return CompletableFuture.failedFuture(queueFull(ticket.priority));
+                }
+                queue.remove(lowest);
+                dropped = lowest;
+            }
+            ticket.seq = seq++;
+            queue.offer(ticket);
+        }
+        if (dropped != null) {
+            rejected.incrementAndGet();
+            dropped.dequeued();
+            dropped.future.completeExceptionally(queueFull(dropped.priority));
+        }
+        ticket.timeout = DeadlineTimer.at(deadline, () -> expire(ticket));
+        ticket.future.whenComplete((permit, throwable) -> {
+            if (ticket.future.isCancelled()) {
+                cancel(ticket);
+            }
+        });
+        return ticket.future;
+    }
+
+    /**
+     * 队列中最后被放行的请求
+     */
+    private Ticket lowest() {
+        Ticket lowest = null;
+        for (Ticket t : queue) {
+            if (lowest == null || ORDER.compare(t, lowest) > 0) {
+                lowest = t;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * 等待方取消 从队列中移除
+     */
+    private void cancel(Ticket ticket) {
+        synchronized (this) {
+            queue.remove(ticket);
+        }
+        ticket.dequeued();
+    }
+
+    private void expire(Ticket ticket) {
+        boolean removed;
+        synchronized (this) {
+            removed = queue.remove(ticket);
+        }
+        if (removed) {
+            expired.incrementAndGet();
+            ticket.future.completeExceptionally(deadlineExceeded());
+        }
+    }
+
+    /**
+     * 归还许可 队列非空时直接转交给下一个未过期的请求
+     */
+    private void release() {
+        while (true) {
+            Ticket next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            next.dequeued();
+            if (next.deadline <= System.currentTimeMillis()) {
+                if (next.future.completeExceptionally(deadlineExceeded())) {
+                    expired.incrementAndGet();
+                }
+                continue;
+            }
+            if (next.future.complete(new Permit())) {
+                return;
+            }
+            // 等待方已取消 继续转交
+        }
+    }
+
+    private static AiModelException deadlineExceeded() {
+        return new AiModelException(AiModelException.ErrorCode.DEADLINE_EXCEEDED, "请求在排队期间超过截止时间");
+    }
+
+    private AiModelException queueFull(Priority priority) {
+        return new AiModelException(AiModelException.ErrorCode.QUEUE_FULL,
+                String.format("请求队列已满(%d) 丢弃 %s 优先级请求", queueCapacity, priority));
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public String getStats() {
+        synchronized (this) {
+            return String.format("Scheduler stats - running: %d/%d, queued: %d/%d, expired: %d, rejected: %d",
+                    running, maxConcurrent, queue.size(), queueCapacity, expired.get(), rejected.get());
+        }
+    }
+
+    private static class Ticket {
+        private final Priority priority;
+        private final long deadline;
+        private long seq;
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout;
+
+        private Ticket(Priority priority, long deadline) {
+            this.priority = priority;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 已出队 取消截止时间任务
+         */
+        private void dequeued() {
+            DeadlineTimer.cancel(timeout);
+        }
+    }
+
+    /**
+     * 发送许可 只能归还一次
+     */
+    public class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                RequestScheduler.this.release();
+            }
+        }
+    }
+}
@@ -9,11 +9,14 @@ import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import top.kloping.core.ai.dto.AssistantMessage;
 import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.exception.AiModelException;
 import top.kloping.core.ai.mcp.dto.*;
+import top.kloping.core.ai.resilience.CircuitBreaker;
 import top.kloping.core.ai.service.RequestTool;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -48,6 +51,7 @@ public class McpClient {
         this.clientVersion = properties.getClientVersion() != null ? properties.getClientVersion() : this.clientVersion;
         this.protocolVersion = properties.getProtocolVersion() != null ? properties.getProtocolVersion() : this.protocolVersion;
         this.heartbeat = properties.getHeartbeat();
+        this.circuitBreaker = new CircuitBreaker("mcp:" + properties.getServer(), properties.getCircuitBreaker());
     }
 
     private ReconnectType reconnectType = ReconnectType.RECONNECT_USE;
@@ -60,6 +64,7 @@ public class McpClient {
     private String clientVersion = "0.1.0";
     private String protocolVersion = "2025-05-05";
     private int heartbeat;
+    private CircuitBreaker circuitBreaker;
 
     final OkHttpClient client = new OkHttpClient.Builder()
             .connectTimeout(30, TimeUnit.SECONDS)
@@ -192,7 +197,22 @@ public class McpClient {
         this.tool.put(tool.getName(), tool);
     }
 
-    private ToolMessage toolCall(AssistantMessage.ToolCall toolCall, ToolCallRequest request) {
+    /**
+     * 等待时长 取心跳间隔与距截止时间的剩余时间中较短者 单位毫秒
+     */
+    private long waitMillis(long deadline) {
+        long wait = TimeUnit.SECONDS.toMillis(heartbeat);
+        return deadline == Long.MAX_VALUE ? wait : Math.min(wait, deadline - System.currentTimeMillis());
+    }
+
+    private ToolMessage toolCall(AssistantMessage.ToolCall toolCall, ToolCallRequest request, long deadline) {
+        if (waitMillis(deadline) <= 0) {
+            return new ToolMessage("MCP调用超过截止时间 未执行", toolCall.getId());
+        }
+        if (circuitBreaker != null && !circuitBreaker.isCallPermitted()) {
+            // 熔断中直接返回 不等待重连或响应
+            return new ToolMessage("MCP服务暂不可用: " + server, toolCall.getId());
+        }
         if (_over) {
             executor.execute(() -> {
                 try {
@@ -202,9 +222,17 @@ public class McpClient {
                 }
             });
             try {
-                cdl.await();
+                if (!cdl.await(waitMillis(deadline), TimeUnit.MILLISECONDS)) {
+                    // 重连超时计为一次失败 连续超时将打开熔断器
+                    if (circuitBreaker != null) {
+                        circuitBreaker.onFailure();
+                    }
+                    return new ToolMessage("MCP服务重连超时: " + server, toolCall.getId());
+                }
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                // 调用方已取消 不再发送请求
+                Thread.currentThread().interrupt();
+                return new ToolMessage("MCP调用已取消", toolCall.getId());
             }
         }
         int id = request.getId();
@@ -218,15 +246,38 @@ public class McpClient {
                 toolMessage.set(new ToolMessage(content.toString(), toolCall.getId()));
                 cdl.countDown();
             });
-            doReqBody(JSON.toJSONString(request));
-            cdl.await(heartbeat, TimeUnit.SECONDS);
+            doReqBody(JSON.toJSONString(request), deadline);
+            if (!cdl.await(waitMillis(deadline), TimeUnit.MILLISECONDS)) {
+                // 请求已发出但未等到结果 同样计为一次失败
+                if (circuitBreaker != null) {
+                    circuitBreaker.onFailure();
+                }
+                return new ToolMessage("MCP调用等待结果超时: " + server, toolCall.getId());
+            }
+        } catch (AiModelException e) {
+            log.warn(e.getMessage());
+            return new ToolMessage("MCP服务暂不可用: " + server, toolCall.getId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ToolMessage("MCP调用已取消", toolCall.getId());
         } catch (Exception e) {
             log.error(e.getMessage(), e);
+        } finally {
+            id2runnable.remove(id);
         }
         return toolMessage.get();
     }
 
     public ToolMessage toolCall(AssistantMessage.ToolCall toolCall) {
+        return toolCall(toolCall, Long.MAX_VALUE);
+    }
+
+    /**
+     * 调用MCP工具 发送请求与等待响应都不超过截止时间
+     *
+     * @param deadline 截止时间 毫秒时间戳 {@link Long#MAX_VALUE} 表示不限
+     */
+    public ToolMessage toolCall(AssistantMessage.ToolCall toolCall, long deadline) {
         String name = toolCall.getFunction().getName();
         String arguments = toolCall.getFunction().getArguments();
         JSONObject jsonObject = JSONObject.parseObject(arguments);
@@ -234,7 +285,7 @@ public class McpClient {
         params.setName(name);
         params.setArguments(jsonObject);
         ToolCallRequest request = new ToolCallRequest(_id.getAndIncrement(), params);
-        return toolCall(toolCall, request);
+        return toolCall(toolCall, request, deadline);
     }
 
     public List<ToolMessage> toolCall(List<AssistantMessage.ToolCall> toolCalls) {
@@ -249,6 +300,9 @@ public class McpClient {
         List<RequestTool> requestTools = new ArrayList<>();
         tool.forEach((k, v) -> {
             RequestTool requestTool = new RequestTool();
+            // 未声明只读的MCP工具视为有副作用
+            requestTool.setSideEffect(v.getAnnotations() == null
+                    || !Boolean.TRUE.equals(v.getAnnotations().getReadOnlyHint()));
             RequestTool.Function function = new RequestTool.Function();
             function.setName(v.getName());
             function.setDescription(v.getDescription());
@@ -279,11 +333,55 @@ public class McpClient {
 
     public static final Executor executor = Executors.newSingleThreadExecutor();
 
+    /**
+     * 发送请求 经过熔断器 熔断中抛出 {@link AiModelException.ErrorCode#CIRCUIT_OPEN}
+     */
     private void doReqBody(String reqBody) throws IOException {
+        doReqBody(reqBody, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param deadline 截止时间 设置后以剩余时间作为本次调用的超时
+     */
+    private void doReqBody(String reqBody, long deadline) throws IOException {
         log.debug("mcp client {} send: {}", clientName, reqBody);
         Request request = new Request.Builder().url(server + _endpoint)
                 .addHeader("Authorization", "Bearer " + token)
                 .post(RequestBody.create(MediaType.parse("application/json"), reqBody)).build();
-        client.newCall(request).execute();
+        Call call = client.newCall(request);
+        if (deadline != Long.MAX_VALUE) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new InterruptedIOException("MCP请求超过截止时间");
+            }
+            call.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.acquire();
+        }
+        long start = System.currentTimeMillis();
+        int code;
+        try (Response response = call.execute()) {
+            code = response.code();
+        } catch (IOException e) {
+            if (circuitBreaker != null) {
+                if (deadline != Long.MAX_VALUE && deadline <= System.currentTimeMillis()) {
+                    // 截止时间到达由本端造成 不计入服务健康状态
+                    circuitBreaker.onIgnored();
+                } else {
+                    circuitBreaker.onFailure();
+                }
+            }
+            throw e;
+        }
+        if (code == 429 || code >= 500) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure();
+            }
+            throw new IOException("MCP请求失败: " + code);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(System.currentTimeMillis() - start);
+        }
     }
 }
@@ -2,6 +2,7 @@ package top.kloping.core.ai.mcp;
 
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
 
 @Data
 @Slf4j
@@ -15,6 +16,11 @@ public class McpClientProperties {
     private String clientVersion = "0.1.0";
     private String protocolVersion = "2025-05-05";
 
+    /**
+     * MCP服务的熔断器配置
+     */
+    private AiModelProperties.CircuitBreaker circuitBreaker = new AiModelProperties.CircuitBreaker();
+
     public McpClientProperties() {
         log.info("mcp client properties initialize.");
     }
@@ -27,6 +27,19 @@ public class ToolListResponse extends McpResPack<ToolListResponse.Result> {
         private String name;
         private String description;
         private InputSchema inputSchema;
+        private Annotations annotations;
+    }
+
+    /**
+     * 工具行为提示
+     */
+    @Data
+    public static class Annotations {
+        private String title;
+        private Boolean readOnlyHint;
+        private Boolean destructiveHint;
+        private Boolean idempotentHint;
+        private Boolean openWorldHint;
     }
 
     @Data
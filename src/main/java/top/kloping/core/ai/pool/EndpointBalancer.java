@@ -0,0 +1,107 @@
+package top.kloping.core.ai.pool;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上游节点负载均衡器
+ * 选择按权重折算后在途请求最少的健康节点 相同时选择平均延迟更低的节点
+ * 连续失败的节点会被暂时摘除 全部被摘除时选择最早恢复的节点
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class EndpointBalancer {
+    private final List<UpstreamEndpoint> endpoints;
+    private final int failureThreshold;
+    private final long ejectMillis;
+
+    public EndpointBalancer(List<UpstreamEndpoint> endpoints, int failureThreshold, int ejectTime) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("endpoints cannot be empty");
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.failureThreshold = failureThreshold;
+        this.ejectMillis = TimeUnit.SECONDS.toMillis(ejectTime);
+    }
+
+    public List<UpstreamEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 选择一个节点
+     */
+    public UpstreamEndpoint select() {
+        return select(null);
+    }
+
+    /**
+     * 选择一个节点 尽量避开指定节点
+     *
+     * @param exclude 需要避开的节点 可为null
+     */
+    public UpstreamEndpoint select(UpstreamEndpoint exclude) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = System.currentTimeMillis();
+        UpstreamEndpoint best = null;
+        for (UpstreamEndpoint endpoint : endpoints) {
+            if (endpoint == exclude || !endpoint.isHealthy(now)) {
+                continue;
+            }
+            if (best == null || endpoint.score() < best.score()
+                    || (endpoint.score() == best.score() && endpoint.getLatencyMillis() < best.getLatencyMillis())) {
+                best = endpoint;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        // 没有可用的健康节点 选择最早恢复的节点
+        for (UpstreamEndpoint endpoint : endpoints) {
+            if (endpoint != exclude && (best == null || endpoint.getEjectedUntil() < best.getEjectedUntil())) {
+                best = endpoint;
+            }
+        }
+        return best != null ? best : exclude;
+    }
+
+    /**
+     * 是否还有指定节点以外的健康节点
+     */
+    public boolean hasHealthy(UpstreamEndpoint exclude) {
+        long now = System.currentTimeMillis();
+        for (UpstreamEndpoint endpoint : endpoints) {
+            if (endpoint != exclude && endpoint.isHealthy(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void onSuccess(UpstreamEndpoint endpoint, long latency) {
+        endpoint.onSuccess(latency);
+    }
+
+    public void onFailure(UpstreamEndpoint endpoint) {
+        boolean healthy = endpoint.isHealthy(System.currentTimeMillis());
+        endpoint.onFailure(failureThreshold, ejectMillis);
+        if (healthy && !endpoint.isHealthy(System.currentTimeMillis())) {
+            log.warn("Endpoint {} ejected for {} ms after {} consecutive failures",
+                    endpoint.getName(), ejectMillis, endpoint.getConsecutiveFailures());
+        }
+    }
+
+    /**
+     * 获取节点统计信息
+     */
+    public String getStats() {
+        return endpoints.toString();
+    }
+}
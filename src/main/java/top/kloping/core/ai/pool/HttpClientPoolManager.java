@@ -2,6 +2,7 @@ package top.kloping.core.ai.pool;
 
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
@@ -18,6 +19,11 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 @Component
 public class HttpClientPoolManager implements DisposableBean {
+
+    /**
+     * 未指定时异步请求的最大并发数
+     */
+    private static final int DEFAULT_MAX_REQUESTS = 256;
     
     private volatile OkHttpClient httpClient;
     private volatile ConnectionPool connectionPool;
@@ -31,6 +37,20 @@ public class HttpClientPoolManager implements DisposableBean {
         }
         return httpClient;
     }
+
+    /**
+     * 获取共享的HTTP客户端实例 并将调度器的最大并发数设为 maxRequests
+     *
+     * @param maxRequests 异步请求的最大并发数 同时作用于单个服务地址 为空时保持当前值
+     */
+    public synchronized OkHttpClient getHttpClient(Integer maxRequests) {
+        OkHttpClient client = getHttpClient();
+        if (maxRequests != null) {
+            client.dispatcher().setMaxRequests(maxRequests);
+            client.dispatcher().setMaxRequestsPerHost(maxRequests);
+        }
+        return client;
+    }
     
     /**
      * 创建HTTP客户端
@@ -43,9 +63,15 @@ public class HttpClientPoolManager implements DisposableBean {
                 TimeUnit.MINUTES  // 时间单位
         );
         
+        // 默认调度器每个主机仅允许5个并发异步请求
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(DEFAULT_MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(DEFAULT_MAX_REQUESTS);
+
         // 创建HTTP客户端
         httpClient = new OkHttpClient.Builder()
                 .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
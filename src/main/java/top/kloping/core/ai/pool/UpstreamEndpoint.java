@@ -0,0 +1,146 @@
+package top.kloping.core.ai.pool;
+
+import lombok.Getter;
+import okhttp3.Request;
+import top.kloping.core.ai.limit.AdaptiveConcurrencyLimiter;
+import top.kloping.core.ai.limit.RateLimiter;
+import top.kloping.core.ai.resilience.CircuitBreaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上游模型服务节点
+ * 记录节点的在途请求数、平均延迟与健康状态
+ * 访问令牌不对外暴露 只用于 {@link #newRequest()}
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class UpstreamEndpoint {
+    /**
+     * 延迟滑动平均的权重
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    @Getter
+    private final String name;
+    @Getter
+    private final String url;
+    private final String token;
+    @Getter
+    private final int weight;
+    /**
+     * 节点级别的限流器
+     */
+    @Getter
+    private final RateLimiter rateLimiter;
+    /**
+     * 节点熔断器
+     */
+    @Getter
+    private final CircuitBreaker circuitBreaker;
+    /**
+     * 自适应并发限制器 未启用时为null
+     */
+    @Getter
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    @Getter
+    private volatile double latencyMillis;
+    @Getter
+    private volatile int consecutiveFailures;
+    @Getter
+    private volatile long ejectedUntil;
+
+    public UpstreamEndpoint(String name, String url, String token, int weight) {
+        this(name, url, token, weight, null, new CircuitBreaker(name, null));
+    }
+
+    public UpstreamEndpoint(String name, String url, String token, int weight,
+                            RateLimiter rateLimiter, CircuitBreaker circuitBreaker) {
+        this(name, url, token, weight, rateLimiter, circuitBreaker, null);
+    }
+
+    public UpstreamEndpoint(String name, String url, String token, int weight, RateLimiter rateLimiter,
+                            CircuitBreaker circuitBreaker, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.name = name;
+        this.url = url;
+        this.token = token;
+        this.weight = Math.max(1, weight);
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * 创建发往该节点的请求 已设置地址与访问令牌
+     */
+    public Request.Builder newRequest() {
+        return new Request.Builder()
+                .header("Authorization", "Bearer " + token)
+                .url(url);
+    }
+
+    /**
+     * 请求开始
+     */
+    public void acquire() {
+        inflight.incrementAndGet();
+    }
+
+    /**
+     * 请求结束
+     */
+    public void release() {
+        inflight.decrementAndGet();
+    }
+
+    public int getInflightCount() {
+        return inflight.get();
+    }
+
+    /**
+     * 记录一次成功响应
+     *
+     * @param latency 首字节延迟 毫秒
+     */
+    public synchronized void onSuccess(long latency) {
+        latencyMillis = latencyMillis == 0 ? latency : latencyMillis + EWMA_ALPHA * (latency - latencyMillis);
+        consecutiveFailures = 0;
+        ejectedUntil = 0;
+    }
+
+    /**
+     * 记录一次失败 连续失败达到阈值时在一段时间内摘除该节点
+     */
+    public synchronized void onFailure(int failureThreshold, long ejectMillis) {
+        if (++consecutiveFailures >= failureThreshold) {
+            ejectedUntil = System.currentTimeMillis() + ejectMillis;
+        }
+    }
+
+    /**
+     * 未被摘除且熔断器允许调用
+     */
+    public boolean isHealthy(long now) {
+        return ejectedUntil <= now && (circuitBreaker == null || circuitBreaker.isCallPermitted());
+    }
+
+    /**
+     * 负载评分 越小越优先
+     * 以按权重折算的在途请求数为主 启用自适应并发限制时再按当前限制折算
+     */
+    double score() {
+        int capacity = concurrencyLimiter == null ? weight : weight * concurrencyLimiter.getLimit();
+        return (inflight.get() + 1) / (double) capacity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(%s, inflight=%d, latency=%.0fms, failures=%d, circuit=%s, concurrency=[%s])",
+                name, url, inflight.get(), latencyMillis, consecutiveFailures,
+                circuitBreaker == null ? "none" : circuitBreaker.getState(),
+                concurrencyLimiter == null ? "none" : concurrencyLimiter);
+    }
+}
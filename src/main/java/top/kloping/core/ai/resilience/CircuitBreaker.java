@@ -0,0 +1,214 @@
+package top.kloping.core.ai.resilience;
+
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 熔断器
+ * 关闭状态下统计最近若干次调用的失败率与慢调用率 任一超过阈值时打开
+ * 打开状态下直接拒绝 等待一段时间后进入半开状态 放行少量探测请求
+ * 探测全部成功则关闭 任一失败或过慢则重新打开
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final boolean enabled;
+    private final int minCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallMillis;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    // 关闭状态下最近调用结果的环形缓冲
+    private final byte[] outcomes;
+    private int size;
+    private int next;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    public CircuitBreaker(String name, AiModelProperties.CircuitBreaker properties) {
+        AiModelProperties.CircuitBreaker config = properties != null
+                ? properties : new AiModelProperties.CircuitBreaker();
+        this.name = name;
+        this.enabled = !Boolean.FALSE.equals(config.getEnabled());
+        this.outcomes = new byte[config.getWindowSize()];
+        this.minCalls = Math.min(config.getMinCalls(), config.getWindowSize());
+        this.failureRateThreshold = config.getFailureRateThreshold();
+        this.slowCallRateThreshold = config.getSlowCallRateThreshold();
+        this.slowCallMillis = TimeUnit.SECONDS.toMillis(config.getSlowCallDuration());
+        this.openMillis = TimeUnit.SECONDS.toMillis(config.getOpenTime());
+        this.halfOpenCalls = config.getHalfOpenCalls();
+    }
+
+    /**
+     * 当前是否允许调用 不占用半开状态下的探测名额
+     */
+    public synchronized boolean isCallPermitted() {
+        if (!enabled) {
+            return true;
+        }
+        switch (state) {
+            case OPEN:
+                return System.currentTimeMillis() >= openUntil;
+            case HALF_OPEN:
+                return probesIssued < halfOpenCalls;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 申请一次调用
+     *
+     * @return 熔断中返回false
+     */
+    public synchronized boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() < openUntil) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesIssued >= halfOpenCalls) {
+                return false;
+            }
+            probesIssued++;
+        }
+        return true;
+    }
+
+    /**
+     * 申请一次调用 熔断中抛出 {@link AiModelException.ErrorCode#CIRCUIT_OPEN}
+     */
+    public void acquire() {
+        if (!tryAcquire()) {
+            throw new AiModelException(AiModelException.ErrorCode.CIRCUIT_OPEN,
+                    String.format("熔断器 %s 已打开 服务暂不可用", name));
+        }
+    }
+
+    /**
+     * 记录一次成功调用
+     *
+     * @param durationMillis 调用耗时 超过慢调用阈值时按慢调用统计
+     */
+    public void onSuccess(long durationMillis) {
+        record(durationMillis >= slowCallMillis ? SLOW : SUCCESS);
+    }
+
+    /**
+     * 记录一次失败调用
+     */
+    public void onFailure() {
+        record(FAILURE);
+    }
+
+    /**
+     * 调用被取消 不计入统计 归还半开状态下的探测名额
+     */
+    public synchronized void onIgnored() {
+        if (enabled && state == State.HALF_OPEN && probesIssued > 0) {
+            probesIssued--;
+        }
+    }
+
+    private synchronized void record(byte outcome) {
+        if (!enabled) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (outcome != SUCCESS) {
+                transitionTo(State.OPEN);
+            } else if (++probesSucceeded >= halfOpenCalls) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // 打开前已发出的请求
+            return;
+        }
+        if (size == outcomes.length) {
+            byte evicted = outcomes[next];
+            if (evicted == FAILURE) {
+                failures--;
+            } else if (evicted == SLOW) {
+                slowCalls--;
+            }
+        } else {
+            size++;
+        }
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+        if (size >= minCalls && (failures * 100 >= failureRateThreshold * size
+                || slowCalls * 100 >= slowCallRateThreshold * size)) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State target) {
+        if (state == target) {
+            return;
+        }
+        if (target == State.OPEN) {
+            openUntil = System.currentTimeMillis() + openMillis;
+            log.warn("circuit breaker {} opened for {} ms ({}), failures {}/{}, slow calls {}/{}",
+                    name, openMillis, state, failures, size, slowCalls, size);
+        } else {
+            log.info("circuit breaker {} {} -> {}", name, state, target);
+        }
+        state = target;
+        probesIssued = 0;
+        probesSucceeded = 0;
+        if (target == State.CLOSED) {
+            size = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s[%s, failures=%d, slow=%d, calls=%d]", name, state, failures, slowCalls, size);
+    }
+}
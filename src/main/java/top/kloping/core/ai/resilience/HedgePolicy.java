@@ -0,0 +1,67 @@
+package top.kloping.core.ai.resilience;
+
+import top.kloping.core.ai.AiModelProperties;
+
+/**
+ * 请求对冲策略
+ * 首字节等待时间超过近期首字节延迟的指定分位数时 向其他节点再发送一份相同请求
+ * 对冲请求与重试共用 {@link RetryBudget} 的限额方式 总量不超过请求数的指定百分比
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class HedgePolicy {
+    /**
+     * 样本数不足时不进行对冲 避免以不可靠的分位数触发
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelay;
+    private final LatencyTracker latencies = new LatencyTracker(1000);
+    private final RetryBudget budget;
+
+    public HedgePolicy(AiModelProperties.Hedge properties) {
+        AiModelProperties.Hedge config = properties != null ? properties : new AiModelProperties.Hedge();
+        this.enabled = Boolean.TRUE.equals(config.getEnabled());
+        this.percentile = config.getPercentile();
+        this.minDelay = config.getMinDelay();
+        this.budget = new RetryBudget(config.getMaxPercent() / 100d, 0);
+    }
+
+    /**
+     * 记录一次首字节延迟
+     */
+    public void record(long latencyMillis) {
+        latencies.record(latencyMillis);
+    }
+
+    /**
+     * 每个请求调用一次 为对冲预算存入额度 重试不再重复存入
+     */
+    public void onRequest() {
+        if (enabled) {
+            budget.onRequest();
+        }
+    }
+
+    /**
+     * 计算请求发出后到发送对冲请求前的等待时间
+     *
+     * @return 毫秒数 不应对冲时返回-1
+     */
+    public long delay() {
+        if (!enabled || latencies.size() < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(minDelay, latencies.percentile(percentile));
+    }
+
+    /**
+     * 尝试取出一次对冲额度
+     */
+    public boolean tryAcquire() {
+        return budget.tryAcquire();
+    }
+}
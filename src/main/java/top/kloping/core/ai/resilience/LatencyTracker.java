@@ -0,0 +1,59 @@
+package top.kloping.core.ai.resilience;
+
+import java.util.Arrays;
+
+/**
+ * 延迟分位数统计
+ * 在环形缓冲中保留最近的样本 分位数在样本更新一定数量后才重新排序计算
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class LatencyTracker {
+    /**
+     * 新增多少样本后重新计算分位数
+     */
+    private static final int RECOMPUTE_INTERVAL = 32;
+
+    private final long[] samples;
+    private int size;
+    private int next;
+    private int sinceRecompute;
+    private long[] sorted = new long[0];
+
+    public LatencyTracker(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    public synchronized void record(long latencyMillis) {
+        samples[next] = latencyMillis;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+        sinceRecompute++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 获取分位数
+     *
+     * @param percentile 0到100之间
+     * @return 没有样本时返回-1
+     */
+    public synchronized long percentile(double percentile) {
+        if (size == 0) {
+            return -1;
+        }
+        if (sorted.length != size || sinceRecompute >= RECOMPUTE_INTERVAL) {
+            sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            sinceRecompute = 0;
+        }
+        int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
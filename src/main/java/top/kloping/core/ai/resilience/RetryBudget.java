@@ -0,0 +1,50 @@
+package top.kloping.core.ai.resilience;
+
+/**
+ * 重试预算
+ * 所有请求共享 每个请求存入 ratio 个令牌 每次重试取出一个令牌
+ * 另按每秒保底数量补充 使低流量时也能重试 高错误率时重试总量不超过请求量的 ratio 倍
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class RetryBudget {
+    private final double ratio;
+    private final double minPerSecond;
+    private final double capacity;
+    private double balance;
+    private long lastRefill = System.currentTimeMillis();
+
+    public RetryBudget(double ratio, int minPerSecond) {
+        this.ratio = Math.max(0, ratio);
+        this.minPerSecond = Math.max(0, minPerSecond);
+        // 最多积攒约10秒的保底额度 避免长时间空闲后集中重试
+        this.capacity = Math.max(1, this.minPerSecond * 10);
+        this.balance = this.minPerSecond;
+    }
+
+    /**
+     * 记录一次新请求
+     */
+    public synchronized void onRequest() {
+        balance = Math.min(capacity, balance + ratio);
+    }
+
+    /**
+     * 尝试取出一次重试额度
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        balance = Math.min(capacity, balance + (now - lastRefill) * minPerSecond / 1000d);
+        lastRefill = now;
+        if (balance >= 1) {
+            balance -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized double getBalance() {
+        return balance;
+    }
+}
@@ -0,0 +1,125 @@
+package top.kloping.core.ai.resilience;
+
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+import top.kloping.core.ai.exception.UpstreamResponseException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 模型请求重试策略
+ * 按 {@link AiModelException.ErrorCode} 与HTTP状态码判断错误是否可重试
+ * 退避时间为指数增长上限内的随机值(full jitter) 且不小于 Retry-After
+ * 每次重试需要从共享的 {@link RetryBudget} 中取得额度
+ * 节点熔断时请求并未发出 有其他可用节点时立即换用 不退避也不消耗预算
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final RetryBudget budget;
+
+    public RetryPolicy(AiModelProperties.Retry properties) {
+        AiModelProperties.Retry config = properties != null ? properties : new AiModelProperties.Retry();
+        this.maxAttempts = config.getMaxAttempts();
+        this.initialBackoff = config.getInitialBackoff();
+        this.maxBackoff = config.getMaxBackoff();
+        this.budget = new RetryBudget(config.getBudgetRatio(), config.getMinRetriesPerSecond());
+    }
+
+    /**
+     * 记录一次新请求 为重试预算存入额度
+     */
+    public void onRequest() {
+        budget.onRequest();
+    }
+
+    /**
+     * 计算下一次重试前的等待时间
+     *
+     * @param attempt 已完成的尝试次数 从1开始
+     * @param error   本次失败的异常
+     * @return 等待的毫秒数 不应重试时返回-1
+     */
+    public long nextDelay(int attempt, Throwable error) {
+        return nextDelay(attempt, error, false);
+    }
+
+    /**
+     * 计算下一次重试前的等待时间
+     *
+     * @param attempt            已完成的尝试次数 从1开始
+     * @param error              本次失败的异常
+     * @param alternateAvailable 是否还有本次节点以外的可用节点
+     * @return 等待的毫秒数 不应重试时返回-1
+     */
+    public long nextDelay(int attempt, Throwable error, boolean alternateAvailable) {
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+        if (isCircuitOpen(error)) {
+            return alternateAvailable ? 0 : -1;
+        }
+        if (!isRetryable(error)) {
+            return -1;
+        }
+        long retryAfter = error instanceof UpstreamResponseException
+                ? ((UpstreamResponseException) error).getRetryAfterMillis() : -1;
+        if (retryAfter > maxBackoff) {
+            // 服务端要求等待的时间过长 直接交给调用方处理
+            return -1;
+        }
+        if (!budget.tryAcquire()) {
+            return -1;
+        }
+        long ceiling = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(delay, retryAfter);
+    }
+
+    /**
+     * 是否为可重试的错误
+     * 网络错误、超时、408/425/429 与 500/502/503/504 可重试 客户端限流、认证、解析等错误不重试
+     */
+    public static boolean isRetryable(Throwable error) {
+        if (error instanceof UpstreamResponseException) {
+            return isRetryableStatus(((UpstreamResponseException) error).getStatusCode());
+        }
+        if (error instanceof AiModelException) {
+            AiModelException.ErrorCode code = ((AiModelException) error).getErrorCode();
+            return code == AiModelException.ErrorCode.REQUEST_FAILED
+                    || code == AiModelException.ErrorCode.TIMEOUT_ERROR;
+        }
+        return false;
+    }
+
+    /**
+     * 是否因节点熔断而未发出请求
+     */
+    public static boolean isCircuitOpen(Throwable error) {
+        return error instanceof AiModelException
+                && ((AiModelException) error).getErrorCode() == AiModelException.ErrorCode.CIRCUIT_OPEN;
+    }
+
+    public static boolean isRetryableStatus(int code) {
+        switch (code) {
+            case 408:
+            case 425:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+}
@@ -0,0 +1,212 @@
+package top.kloping.core.ai.service;
+
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.limit.Priority;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 工具调用循环
+ * 记录一次对话中每一轮请求的耗时与用量 并在轮数、令牌数、耗时超出预算
+ * 或模型以相同参数重复调用同一工具时提前结束
+ * 因轮数或重复调用结束时不执行本轮的工具调用 改为再请求一轮不提供工具的回答
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class AgentLoop {
+    public enum StopReason {
+        /**
+         * 模型给出最终回答
+         */
+        COMPLETED,
+        /**
+         * 达到最大轮数
+         */
+        MAX_ROUNDS,
+        /**
+         * 达到最大令牌数
+         */
+        MAX_TOKENS,
+        /**
+         * 达到最长耗时或请求的截止时间
+         */
+        TIMEOUT,
+        /**
+         * 以相同参数重复调用同一工具
+         */
+        REPEATED_TOOL_CALL
+    }
+
+    @Data
+    public static class Round {
+        private int index;
+        /**
+         * 模型请求耗时 毫秒
+         */
+        private long requestMillis;
+        /**
+         * 工具调用耗时 毫秒
+         */
+        private long toolMillis;
+        private int toolCalls;
+        private Integer totalTokens;
+    }
+
+    private final int maxRounds;
+    private final Integer maxTokens;
+    private final long deadline;
+    private final long startTime = System.currentTimeMillis();
+    /**
+     * 本次对话的请求优先级
+     */
+    @Getter
+    private final Priority priority;
+    /**
+     * 请求方给出的截止时间 超过后不再发送请求 {@link Long#MAX_VALUE} 表示不限
+     */
+    @Getter
+    private final long requestDeadline;
+
+    private final List<Round> rounds = new ArrayList<>();
+    private final Set<String> toolCallSignatures = new HashSet<>();
+    /**
+     * 不为null时下一轮不提供工具 值为提前结束的原因
+     */
+    @Getter
+    private StopReason finalRound;
+    @Getter
+    private int totalTokens;
+    private long phaseStart;
+
+    public AgentLoop(AiModelProperties.Loop properties) {
+        this(properties, Priority.NORMAL, null);
+    }
+
+    public AgentLoop(AiModelProperties.Loop properties, Priority priority, Long requestDeadline) {
+        AiModelProperties.Loop config = properties != null ? properties : new AiModelProperties.Loop();
+        this.priority = priority != null ? priority : Priority.NORMAL;
+        this.requestDeadline = requestDeadline != null ? requestDeadline : Long.MAX_VALUE;
+        this.maxRounds = config.getMaxRounds();
+        this.maxTokens = config.getMaxTokens();
+        this.deadline = config.getTimeout() == null
+                ? Long.MAX_VALUE : startTime + TimeUnit.SECONDS.toMillis(config.getTimeout());
+    }
+
+    /**
+     * 开始一轮模型请求
+     */
+    public synchronized void beginRound() {
+        phaseStart = System.currentTimeMillis();
+    }
+
+    /**
+     * 一轮模型请求结束
+     *
+     * @return 需要结束循环时返回原因 模型要求继续调用工具且预算充足时返回null
+     */
+    public synchronized StopReason endRound(ChatResponse chatResponse, AssistantMessage assistantMessage) {
+        long now = System.currentTimeMillis();
+        Round round = new Round();
+        round.setIndex(rounds.size() + 1);
+        round.setRequestMillis(now - phaseStart);
+        List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getTool_calls();
+        round.setToolCalls(toolCalls == null ? 0 : toolCalls.size());
+        if (chatResponse.getUsage() != null && chatResponse.getUsage().getTotal_tokens() != null) {
+            round.setTotalTokens(chatResponse.getUsage().getTotal_tokens());
+            totalTokens += chatResponse.getUsage().getTotal_tokens();
+        }
+        rounds.add(round);
+        phaseStart = now;
+        log.debug("round {} finished in {} ms with {} tool calls, {} tokens so far",
+                round.getIndex(), round.getRequestMillis(), round.getToolCalls(), totalTokens);
+
+        if (toolCalls == null || toolCalls.isEmpty()) {
+            return StopReason.COMPLETED;
+        }
+        if (finalRound != null) {
+            // 不提供工具时仍返回了工具调用
+            return finalRound;
+        }
+        if (rounds.size() >= maxRounds) {
+            return StopReason.MAX_ROUNDS;
+        }
+        if (maxTokens != null && totalTokens >= maxTokens) {
+            return StopReason.MAX_TOKENS;
+        }
+        if (now >= deadline || now >= requestDeadline) {
+            return StopReason.TIMEOUT;
+        }
+        // 只与之前各轮比较 同一轮中并行的相同调用不算重复
+        Set<String> signatures = new HashSet<>();
+        for (AssistantMessage.ToolCall toolCall : toolCalls) {
+            AssistantMessage.ToolCallFunction function = toolCall.getFunction();
+            signatures.add(function == null ? "" : function.getName() + '\u0000' + function.getArguments());
+        }
+        boolean repeated = !Collections.disjoint(toolCallSignatures, signatures);
+        toolCallSignatures.addAll(signatures);
+        return repeated ? StopReason.REPEATED_TOOL_CALL : null;
+    }
+
+    /**
+     * 不执行本轮的工具调用 改为再请求一轮不提供工具的回答 只允许一次
+     *
+     * @return 可以再请求一轮时返回true
+     */
+    public synchronized boolean finishWithoutTools(StopReason reason) {
+        if (finalRound != null || (reason != StopReason.MAX_ROUNDS && reason != StopReason.REPEATED_TOOL_CALL)) {
+            return false;
+        }
+        finalRound = reason;
+        return true;
+    }
+
+    /**
+     * 下一轮是否不提供工具
+     */
+    public synchronized boolean isFinalRound() {
+        return finalRound != null;
+    }
+
+    /**
+     * 本轮工具调用结束
+     */
+    public synchronized void endTools() {
+        if (!rounds.isEmpty()) {
+            rounds.get(rounds.size() - 1).setToolMillis(System.currentTimeMillis() - phaseStart);
+        }
+    }
+
+    /**
+     * 是否发生过工具调用
+     */
+    public synchronized boolean hasToolCalls() {
+        for (Round round : rounds) {
+            if (round.getToolCalls() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized List<Round> getRounds() {
+        return Collections.unmodifiableList(new ArrayList<>(rounds));
+    }
+
+    /**
+     * 自开始以来的耗时 毫秒
+     */
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+}
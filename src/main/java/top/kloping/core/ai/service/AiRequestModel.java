@@ -2,6 +2,10 @@ package top.kloping.core.ai.service;
 
 import top.kloping.core.ai.mcp.McpClient;
 
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
 /**
  * AI 请求定义接口
  *
@@ -13,12 +17,110 @@ public interface AiRequestModel {
 
     ChatContext getContext();
 
+    /**
+     * 获取会话上下文 不存在时创建
+     *
+     * @param sessionId 会话ID
+     * @return 会话上下文
+     */
+    ChatContext getContext(String sessionId);
+
+    /**
+     * 移除会话及其全部记忆
+     *
+     * @param sessionId 会话ID
+     */
+    void removeSession(String sessionId);
+
     ChatResponse doChat(ChatRequest request);
 
+    /**
+     * 异步对话 等待模型响应期间不占用调用线程
+     * 工具调用后的后续轮次同样以异步方式串联
+     * 取消返回的 future 会中止进行中的模型请求与工具调用 上下文中不会留下没有结果的 tool_call
+     *
+     * @param request 请求
+     * @return 完成时携带最终响应
+     */
+    CompletableFuture<ChatResponse> doChatAsync(ChatRequest request);
+
+    /**
+     * 在指定会话中对话 各会话的历史互相隔离
+     *
+     * @param sessionId 会话ID
+     * @param request   请求
+     * @return 响应
+     */
+    ChatResponse doChat(String sessionId, ChatRequest request);
+
+    /**
+     * 在指定会话中异步对话
+     *
+     * @param sessionId 会话ID
+     * @param request   请求
+     * @return 完成时携带最终响应
+     */
+    CompletableFuture<ChatResponse> doChatAsync(String sessionId, ChatRequest request);
+
+    /**
+     * 批量对话 每个请求使用独立的上下文 并发数使用配置值
+     *
+     * @param requests 请求流 按需读取
+     * @return 按完成顺序返回的结果流 关闭时取消执行中的请求
+     */
+    Stream<BatchResult> doChatBatch(Stream<ChatRequest> requests);
+
+    /**
+     * 批量对话 每个请求使用独立的上下文 互不影响
+     * 输入按需读取 执行中与未被消费的结果合计不超过并发数 适合处理大规模离线任务
+     *
+     * @param requests    请求迭代器 只在消费结果的线程中读取
+     * @param parallelism 并发数
+     * @param listener    进度监听器 可为null
+     * @return 按完成顺序返回的结果流 关闭时取消执行中的请求
+     */
+    Stream<BatchResult> doChatBatch(Iterator<ChatRequest> requests, int parallelism, BatchProgressListener listener);
+
     ChatResponse doStreamChat(ChatRequest request);
 
+    /**
+     * 流式对话 每收到一段内容即回调监听器
+     * 流结束后完整的助手消息写入上下文
+     *
+     * @param request  请求
+     * @param listener 增量内容监听器
+     * @return 完整响应
+     */
+    ChatResponse doStreamChat(ChatRequest request, StreamListener listener);
+
+    /**
+     * 异步流式对话 返回的 future 同样可以取消
+     *
+     * @param request  请求
+     * @param listener 增量内容监听器 在网络线程中回调
+     * @return 完成时携带完整响应
+     */
+    CompletableFuture<ChatResponse> doStreamChatAsync(ChatRequest request, StreamListener listener);
+
+    /**
+     * 在指定会话中流式对话
+     */
+    ChatResponse doStreamChat(String sessionId, ChatRequest request, StreamListener listener);
+
+    /**
+     * 在指定会话中异步流式对话
+     */
+    CompletableFuture<ChatResponse> doStreamChatAsync(String sessionId, ChatRequest request, StreamListener listener);
+
     void clearChatMemory();
 
+    /**
+     * 清空指定会话的记忆
+     *
+     * @param sessionId 会话ID
+     */
+    void clearChatMemory(String sessionId);
+
     void clearToolMessage();
 
     void addMcpServer(McpClient mcpClient);
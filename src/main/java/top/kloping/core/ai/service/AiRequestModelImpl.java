@@ -1,26 +1,49 @@
 package top.kloping.core.ai.service;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
-import com.alibaba.fastjson.JSONObject;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import okio.BufferedSource;
 import org.jetbrains.annotations.NotNull;
 import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.cache.SimpleCacheManager;
+import top.kloping.core.ai.cache.SingleFlight;
 import top.kloping.core.ai.dto.*;
 import top.kloping.core.ai.exception.AiModelException;
+import top.kloping.core.ai.exception.UpstreamResponseException;
+import top.kloping.core.ai.limit.AdaptiveConcurrencyLimiter;
+import top.kloping.core.ai.limit.AdmissionController;
+import top.kloping.core.ai.limit.Priority;
+import top.kloping.core.ai.limit.RateLimiter;
+import top.kloping.core.ai.limit.RateLimiterRegistry;
+import top.kloping.core.ai.limit.RequestScheduler;
 import top.kloping.core.ai.mcp.McpClient;
+import top.kloping.core.ai.pool.EndpointBalancer;
+import top.kloping.core.ai.pool.UpstreamEndpoint;
+import top.kloping.core.ai.resilience.CircuitBreaker;
+import top.kloping.core.ai.resilience.HedgePolicy;
+import top.kloping.core.ai.resilience.RetryPolicy;
+import top.kloping.core.ai.session.ChatSessionRegistry;
+import top.kloping.core.ai.session.ContextCompactor;
+import top.kloping.core.ai.session.SessionJournal;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * AI请求模型实现类
@@ -31,35 +54,99 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 @Slf4j
 public class AiRequestModelImpl implements AiRequestModel {
-    private final String finalUrl;
+    private final EndpointBalancer balancer;
     private final ChatContext chatContext;
     private final AiModelProperties properties;
     private final OkHttpClient client;
+    private final RateLimiterRegistry rateLimiters;
+    private final RequestScheduler scheduler;
+    // 对话准入控制 未启用时为null
+    private final AdmissionController admission;
+    private final RetryPolicy retryPolicy;
+    private final HedgePolicy hedgePolicy;
+    // 合并相同的并发请求 未启用时为null
+    private final SingleFlight<ChatResponse> singleFlight;
+    // 确定性请求的响应缓存 未启用或不满足条件时为null
+    private final SimpleCacheManager responseCache;
+    private final long responseCacheTtl;
 
     @Getter
     private final List<McpClient> mcpClients = new LinkedList<>();
 
-    // 线程池用于异步处理
+    // 按会话ID隔离的上下文
+    private final ChatSessionRegistry sessionRegistry;
+    // 后台上下文压缩 未启用时为null
+    private final ContextCompactor compactor;
+    private final SessionJournal journal;
+
+    // 线程池用于响应解析、工具调用等非网络等待的步骤
     private final ExecutorService executorService;
 
+    // 线程池用于并发执行同一轮中的多个工具调用
+    private final ExecutorService toolExecutor;
+    // 单个工具调用超时时间 单位秒
+    private final int toolTimeout;
+
     public AiRequestModelImpl(String finalUrl,
                               AiModelProperties properties, ChatContext chatContext, OkHttpClient client) {
         this.chatContext = Objects.requireNonNull(chatContext, "ChatContext cannot be null");
         this.properties = Objects.requireNonNull(properties, "AiModelProperties cannot be null");
-        this.finalUrl = buildAndValidateUrl(finalUrl);
+        this.rateLimiters = new RateLimiterRegistry(properties.getRateLimit());
+        this.scheduler = new RequestScheduler(properties.getScheduler(),
+                properties.getMaxRequests() != null ? properties.getMaxRequests() : 256);
+        this.admission = properties.getAdmission() != null && Boolean.TRUE.equals(properties.getAdmission().getEnabled())
+                ? new AdmissionController(properties.getAdmission()) : null;
+        this.retryPolicy = new RetryPolicy(properties.getRetry());
+        this.hedgePolicy = new HedgePolicy(properties.getHedge());
+        this.singleFlight = Boolean.TRUE.equals(properties.getCoalesce()) ? new SingleFlight<>() : null;
+        AiModelProperties.ResponseCache cacheConfig = properties.getResponseCache() != null
+                ? properties.getResponseCache() : new AiModelProperties.ResponseCache();
+        this.responseCache = buildResponseCache(cacheConfig);
+        this.responseCacheTtl = TimeUnit.SECONDS.toMillis(cacheConfig.getTtl());
+        this.balancer = buildBalancer(buildAndValidateUrl(finalUrl));
         this.client = Objects.requireNonNull(client, "OkHttpClient cannot be null");
+        this.sessionRegistry = new ChatSessionRegistry(properties.getSession(), this::newSessionContext,
+                this::onSessionEvicted);
+        this.compactor = properties.getCompaction() != null && Boolean.TRUE.equals(properties.getCompaction().getEnabled())
+                ? new ContextCompactor(properties.getCompaction(), this::summarize) : null;
+        this.journal = properties.getJournal() != null && Boolean.TRUE.equals(properties.getJournal().getEnabled())
+                ? new SessionJournal(properties.getJournal()) : null;
 
         // 创建线程池
-        this.executorService = Executors.newCachedThreadPool(new ThreadFactory() {
+        this.executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                newThreadFactory("ai-request-"));
+        AiModelProperties.Tool tool = properties.getTool() != null ? properties.getTool() : new AiModelProperties.Tool();
+        this.toolExecutor = Executors.newFixedThreadPool(tool.getParallelism(), newThreadFactory("ai-tool-"));
+        this.toolTimeout = tool.getTimeout();
+    }
+
+    /**
+     * 只有设置了 seed 且 temperature 足够低时回答才是确定的 才创建响应缓存
+     */
+    private SimpleCacheManager buildResponseCache(AiModelProperties.ResponseCache config) {
+        if (!Boolean.TRUE.equals(config.getEnabled())) {
+            return null;
+        }
+        Float temperature = properties.getTemperature();
+        if (properties.getSeed() == null || temperature == null || temperature > config.getMaxTemperature()) {
+            log.warn("Response cache disabled: requires seed and temperature <= {}, current seed {}, temperature {}",
+                    config.getMaxTemperature(), properties.getSeed(), temperature);
+            return null;
+        }
+        return new SimpleCacheManager(config.getMaxWeight());
+    }
+
+    private static ThreadFactory newThreadFactory(String prefix) {
+        return new ThreadFactory() {
             private final AtomicInteger threadNumber = new AtomicInteger(1);
 
             @Override
             public Thread newThread(Runnable r) {
-                Thread t = new Thread(r, "ai-request-" + threadNumber.getAndIncrement());
+                Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
                 t.setDaemon(true);
                 return t;
             }
-        });
+        };
     }
 
     /**
@@ -78,6 +165,91 @@ public class AiRequestModelImpl implements AiRequestModel {
         }
     }
 
+    /**
+     * 构建上游节点 未配置多节点时仅使用主配置的地址与凭证
+     */
+    private EndpointBalancer buildBalancer(String finalUrl) {
+        List<UpstreamEndpoint> endpoints = new ArrayList<>();
+        List<AiModelProperties.Endpoint> configured = properties.getEndpoints();
+        if (configured == null || configured.isEmpty()) {
+            endpoints.add(new UpstreamEndpoint("default", finalUrl, properties.getToken(), 1,
+                    null, new CircuitBreaker("default", properties.getCircuitBreaker()),
+                    buildConcurrencyLimiter("default")));
+        } else {
+            for (int i = 0; i < configured.size(); i++) {
+                AiModelProperties.Endpoint endpoint = configured.get(i);
+                String path = endpoint.getPath() != null ? endpoint.getPath() : properties.getPath();
+                String url = buildAndValidateUrl(endpoint.getServer() + "/" + path);
+                String token = endpoint.getToken() != null ? endpoint.getToken() : properties.getToken();
+                String name = endpoint.getName() != null ? endpoint.getName() : "endpoint-" + i;
+                int weight = endpoint.getWeight() != null ? endpoint.getWeight() : 1;
+                RateLimiter rateLimiter = new RateLimiter(endpoint.getRpm(), endpoint.getTpm());
+                CircuitBreaker circuitBreaker = new CircuitBreaker(name, properties.getCircuitBreaker());
+                endpoints.add(new UpstreamEndpoint(name, url, token, weight, rateLimiter, circuitBreaker,
+                        buildConcurrencyLimiter(name)));
+            }
+        }
+        AiModelProperties.LoadBalance loadBalance = properties.getLoadBalance() != null
+                ? properties.getLoadBalance() : new AiModelProperties.LoadBalance();
+        log.info("AI model upstream endpoints: {}", endpoints);
+        return new EndpointBalancer(endpoints, loadBalance.getFailureThreshold(), loadBalance.getEjectTime());
+    }
+
+    private AdaptiveConcurrencyLimiter buildConcurrencyLimiter(String name) {
+        AiModelProperties.AdaptiveConcurrency config = properties.getAdaptiveConcurrency();
+        return config != null && Boolean.TRUE.equals(config.getEnabled())
+                ? new AdaptiveConcurrencyLimiter(name, config) : null;
+    }
+
+    /**
+     * 获取上游节点负载均衡器
+     */
+    public EndpointBalancer getBalancer() {
+        return balancer;
+    }
+
+    /**
+     * 获取响应缓存 未启用时返回null 命中率等统计见 {@link SimpleCacheManager#getCacheStats()}
+     */
+    public SimpleCacheManager getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * 获取上游请求调度器
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 获取对话准入控制器 未启用时返回null
+     */
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * 获取上下文压缩器 未启用时返回null
+     */
+    public ContextCompactor getCompactor() {
+        return compactor;
+    }
+
+    /**
+     * 获取会话日志 未启用时返回null
+     */
+    public SessionJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * 获取请求合并器 未启用时返回null
+     */
+    public SingleFlight<ChatResponse> getSingleFlight() {
+        return singleFlight;
+    }
+
     /**
      * 规范化URL，处理重复斜杠
      */
@@ -107,138 +279,786 @@ public class AiRequestModelImpl implements AiRequestModel {
         return chatContext;
     }
 
+    @Override
+    public ChatContext getContext(String sessionId) {
+        return sessionRegistry.getOrCreate(sessionId);
+    }
+
+    @Override
+    public void removeSession(String sessionId) {
+        sessionRegistry.remove(sessionId);
+        if (journal != null && sessionId != null) {
+            journal.delete(sessionId);
+        }
+    }
+
+    /**
+     * 会话被淘汰后关闭其日志段 日志保留 再次访问时从日志恢复
+     */
+    private void onSessionEvicted(String sessionId) {
+        if (journal != null) {
+            journal.release(sessionId);
+        }
+    }
+
+    /**
+     * 为新会话创建上下文 继承默认上下文的模型、记忆长度、令牌预算与系统消息
+     * 启用会话持久化时先从日志恢复消息 之后的写入记入日志
+     */
+    private ChatContext newSessionContext(String sessionId) {
+        ChatContext context = new ChatContext();
+        context.setModel(chatContext.getModel());
+        context.setMax(chatContext.getMax());
+        context.setMaxTokens(chatContext.getMaxTokens());
+        context.setSystemMessage(chatContext.getSystemMessage());
+        if (journal != null && sessionId != null) {
+            for (Message<?> message : journal.restore(sessionId)) {
+                context.addMessage(message);
+            }
+            context.setChangeListener(journal.listener(sessionId));
+        }
+        return context;
+    }
+
     @Override
     public ChatResponse doChat(ChatRequest chatRequest) {
-        chatContext.addMessage(new UserMessage(chatRequest.getContent()));
-        Request request = getRequestByChatRequest(chatRequest, false);
-        return getChatResponse(chatRequest, request);
+        return await(doChatAsync(chatRequest));
+    }
+
+    @Override
+    public ChatResponse doChat(String sessionId, ChatRequest chatRequest) {
+        return await(doChatAsync(sessionId, chatRequest));
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> doChatAsync(ChatRequest chatRequest) {
+        return doChatAsync(chatContext, chatRequest, Priority.NORMAL);
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> doChatAsync(String sessionId, ChatRequest chatRequest) {
+        return doChatAsync(getContext(sessionId), chatRequest, Priority.NORMAL);
+    }
+
+    /**
+     * @param defaultPriority 请求未指定优先级时使用
+     */
+    private CompletableFuture<ChatResponse> doChatAsync(ChatContext context, ChatRequest chatRequest,
+                                                        Priority defaultPriority) {
+        return runLoop(context, chatRequest, null, defaultPriority);
+    }
+
+    @Override
+    public Stream<BatchResult> doChatBatch(Stream<ChatRequest> requests) {
+        AiModelProperties.Batch batch = properties.getBatch() != null
+                ? properties.getBatch() : new AiModelProperties.Batch();
+        return doChatBatch(requests.iterator(), batch.getParallelism(), null).onClose(requests::close);
+    }
+
+    @Override
+    public Stream<BatchResult> doChatBatch(Iterator<ChatRequest> requests, int parallelism,
+                                           BatchProgressListener listener) {
+        Objects.requireNonNull(requests, "requests cannot be null");
+        // 每个请求使用独立的上下文 完成后随结果一起释放
+        BatchSpliterator spliterator = new BatchSpliterator(requests,
+                request -> doChatAsync(newSessionContext(null), request, Priority.LOW), parallelism, listener);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
     }
 
     @Override
     public ChatResponse doStreamChat(ChatRequest chatRequest) {
-//        chatContext.addMessage(new UserMessage(chatRequest.getContent()));
-//        Request request = getRequestByChatRequest(chatRequest, true);
-//        return getChatResponse(chatRequest, request);
-        return null;
-    }
-
-    private ChatResponse getChatResponse(ChatRequest chatRequest, Request request) {
-        log.debug("request start {} url {}", request.hashCode(), request.url());
-        try (Response response = client.newCall(request).execute()) {
-            if (response.isSuccessful()) {
-                String responseString = getString(response);
-                JSONObject jsonObject;
-                try {
-                    jsonObject = JSON.parseObject(responseString);
-                } catch (Exception e) {
-                    throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
-                            "JSON解析失败: " + responseString, e);
+        return doStreamChat(chatRequest, delta -> {
+        });
+    }
+
+    @Override
+    public ChatResponse doStreamChat(ChatRequest chatRequest, StreamListener listener) {
+        return await(doStreamChatAsync(chatRequest, listener));
+    }
+
+    @Override
+    public ChatResponse doStreamChat(String sessionId, ChatRequest chatRequest, StreamListener listener) {
+        return await(doStreamChatAsync(sessionId, chatRequest, listener));
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> doStreamChatAsync(ChatRequest chatRequest, StreamListener listener) {
+        return doStreamChatAsync(chatContext, chatRequest, listener);
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> doStreamChatAsync(String sessionId, ChatRequest chatRequest,
+                                                             StreamListener listener) {
+        return doStreamChatAsync(getContext(sessionId), chatRequest, listener);
+    }
+
+    private CompletableFuture<ChatResponse> doStreamChatAsync(ChatContext context, ChatRequest chatRequest,
+                                                              StreamListener listener) {
+        Objects.requireNonNull(listener, "StreamListener cannot be null");
+        // 直接返回 runLoop 的结果 保证调用方可以取消
+        CompletableFuture<ChatResponse> future = runLoop(context, chatRequest, listener, Priority.NORMAL);
+        future.whenComplete((chatResponse, throwable) -> {
+            if (throwable != null) {
+                listener.onError(unwrap(throwable));
+            } else {
+                listener.onComplete(chatResponse);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 等待异步结果 并将异常还原为 {@link AiModelException}
+     */
+    private static ChatResponse await(CompletableFuture<ChatResponse> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AiModelException(AiModelException.ErrorCode.THREAD_INTERRUPTED, e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static AiModelException unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof AiModelException) {
+            return (AiModelException) cause;
+        }
+        if (cause instanceof CancellationException) {
+            return Cancellation.cancelled();
+        }
+        return new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED, "请求处理失败", cause);
+    }
+
+    /**
+     * 经 {@link AdmissionController} 准入后执行对话 被拒绝的对话不会写入上下文
+     * 返回的 future 被取消时中止排队、进行中的上游调用与工具执行
+     * 对话期间上下文保持 pin 状态 所属会话不会被淘汰
+     *
+     * @param listener 不为null时以流式进行
+     */
+    private CompletableFuture<ChatResponse> runLoop(ChatContext context, ChatRequest chatRequest,
+                                                    StreamListener listener, Priority defaultPriority) {
+        Priority priority = chatRequest.getPriority() != null ? chatRequest.getPriority() : defaultPriority;
+        Cancellation cancellation = new Cancellation();
+        CompletableFuture<ChatResponse> running;
+        context.pin();
+        if (admission == null) {
+            running = startLoop(context, chatRequest, listener, priority, cancellation);
+        } else {
+            running = cancellation.bind(admission.acquire(priority)).thenCompose(ticket -> {
+                CompletableFuture<ChatResponse> future = startLoop(context, chatRequest, listener, priority,
+                        cancellation);
+                future.whenComplete((chatResponse, throwable) -> ticket.release(throwable));
+                return future;
+            });
+        }
+        CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        running.whenComplete((chatResponse, throwable) -> {
+            // 取消后 running 仍会等到进行中的写入结束才完成
+            context.unpin();
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(chatResponse);
+            }
+        });
+        result.whenComplete((chatResponse, throwable) -> {
+            if (result.isCancelled()) {
+                cancellation.cancel();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 以循环方式执行对话 每轮请求结束后由 {@link AgentLoop} 决定是否执行工具并继续下一轮
+     */
+    private CompletableFuture<ChatResponse> startLoop(ChatContext context, ChatRequest chatRequest,
+                                                      StreamListener listener, Priority priority,
+                                                      Cancellation cancellation) {
+        if (cancellation.isCancelled()) {
+            return CompletableFuture.failedFuture(Cancellation.cancelled());
+        }
+        context.addMessage(new UserMessage(chatRequest.getContent()));
+        AgentLoop loop = new AgentLoop(properties.getLoop(), priority, chatRequest.getDeadline());
+        return nextRound(loop, context, chatRequest, listener, cancellation).whenComplete((r, throwable) -> {
+            ToolResultPolicy policy = chatRequest.getToolResultPolicy() != null ? chatRequest.getToolResultPolicy()
+                    : Boolean.TRUE.equals(chatRequest.getClearToolMessage()) ? ToolResultPolicy.removeAll() : null;
+            if (policy != null && loop.hasToolCalls()) {
+                context.applyToolPolicy(policy);
+            }
+            if (compactor != null && throwable == null && !cancellation.isCancelled()) {
+                // 只在对话成功后发起后台总结 不等待
+                compactor.compactIfNeeded(context);
+            }
+            log.debug("chat finished in {} ms after {} rounds, {} tokens",
+                    loop.getElapsedMillis(), loop.getRounds().size(), loop.getTotalTokens());
+        });
+    }
+
+    private CompletableFuture<ChatResponse> nextRound(AgentLoop loop, ChatContext context, ChatRequest chatRequest,
+                                                      StreamListener listener, Cancellation cancellation) {
+        if (cancellation.isCancelled()) {
+            return CompletableFuture.failedFuture(Cancellation.cancelled());
+        }
+        loop.beginRound();
+        boolean withTools = !loop.isFinalRound();
+        return requestRound(loop, context, chatRequest, listener, cancellation, withTools).thenCompose(chatResponse -> {
+            if (cancellation.isCancelled()) {
+                // 取消后不再写入本轮回答 也不执行其中的工具调用
+                return CompletableFuture.failedFuture(Cancellation.cancelled());
+            }
+            chatResponse.setChatContext(context);
+            AssistantMessage assistantMessage = chatResponse.getChoices().get(0).getMessage();
+            AgentLoop.StopReason stopReason = loop.endRound(chatResponse, assistantMessage);
+            chatResponse.setRounds(loop.getRounds());
+            chatResponse.setStopReason(stopReason);
+
+            if (stopReason == AgentLoop.StopReason.COMPLETED) {
+                context.addMessage(assistantMessage);
+                chatResponse.setIsCompleted(true);
+                if (!withTools) {
+                    // 不提供工具的最后一轮给出的回答 保留提前结束的原因
+                    chatResponse.setStopReason(loop.getFinalRound());
+                }
+                return CompletableFuture.completedFuture(chatResponse);
+            }
+            if (stopReason != null) {
+                log.warn("agent loop stopped early: {} after {} rounds, {} tokens, {} ms",
+                        stopReason, loop.getRounds().size(), loop.getTotalTokens(), loop.getElapsedMillis());
+                if (loop.finishWithoutTools(stopReason)) {
+                    // 不写入也不执行本轮的工具调用 不提供工具再请求一轮 要求模型直接回答
+                    return nextRound(loop, context, chatRequest, listener, cancellation);
                 }
+                // 令牌或耗时预算耗尽 去掉未执行的工具调用后返回 不写入上下文 保证上下文中每个 tool_call 都有结果
+                assistantMessage.setTool_calls(null);
+                return CompletableFuture.completedFuture(chatResponse);
+            }
+            context.addMessage(assistantMessage);
+            return handleChatToolRequest(context, assistantMessage, loop.getRequestDeadline(), cancellation)
+                    .thenCompose(v -> {
+                        loop.endTools();
+                        return nextRound(loop, context, chatRequest, listener, cancellation);
+                    });
+        });
+    }
 
-                ChatResponse chatResponse = handleChatResponse(jsonObject, chatRequest);
-                if (chatResponse != null) {
-                    chatResponse.setIsCompleted(true);
+    /**
+     * 发起一轮模型请求并解析响应
+     *
+     * @param listener  不为null时以流式进行
+     * @param withTools 为false时不提供工具 要求模型直接回答
+     */
+    private CompletableFuture<ChatResponse> requestRound(AgentLoop loop, ChatContext context, ChatRequest chatRequest,
+                                                         StreamListener listener, Cancellation cancellation,
+                                                         boolean withTools) {
+        // 合并后的请求由多个对话共享 使用独立的取消信号 全部对话都取消后才取消
+        boolean coalesced = listener == null && singleFlight != null;
+        Cancellation upstreamCancellation = coalesced ? new Cancellation() : cancellation;
+        ChatRequestBody body = buildRequestBody(context, chatRequest, listener != null, withTools);
+        UpstreamCall upstreamCall = new UpstreamCall(body, loop.getPriority(), loop.getRequestDeadline(),
+                upstreamCancellation);
+        if (listener == null) {
+            String cacheKey = responseCache != null ? upstreamCall.getBody().canonicalHash() : null;
+            if (cacheKey != null) {
+                ChatResponse cached = responseCache.get(cacheKey, ChatResponse.class);
+                if (cached != null) {
+                    log.debug("response cache hit {}", cacheKey);
+                    return CompletableFuture.completedFuture(cached.copyOf());
                 }
-                return chatResponse;
+            }
+            Supplier<CompletableFuture<ChatResponse>> call = () -> execute(upstreamCall, AiRequestModelImpl::getBytes)
+                    .thenApplyAsync(bytes -> {
+                        ChatResponse chatResponse = handleChatResponse(bytes);
+                        if (cacheKey != null) {
+                            // 以响应字节数作为权重 缓存副本不受调用方修改影响
+                            responseCache.put(cacheKey, chatResponse.copyOf(), responseCacheTtl, bytes.length);
+                        }
+                        return chatResponse;
+                    }, executorService)
+                    .whenComplete((chatResponse, throwable) -> upstreamCall.settle(chatResponse));
+            if (!coalesced) {
+                return call.get();
+            }
+            // 相同请求共享一次上游调用 每个调用方拿到独立的响应副本
+            // 对话取消时只退出等待 等待的对话全部取消后 SingleFlight 取消共享调用 进而中止上游请求
+            CompletableFuture<ChatResponse> waiter = singleFlight.execute(upstreamCall.getBody().canonicalHash(), () -> {
+                CompletableFuture<ChatResponse> future = call.get();
+                future.whenComplete((chatResponse, throwable) -> {
+                    if (future.isCancelled()) {
+                        upstreamCancellation.cancel();
+                    }
+                });
+                return future;
+            });
+            return cancellation.bind(waiter).thenApply(ChatResponse::copyOf);
+        }
+        // 已交付的增量无法撤回 流式请求只在交付首个增量之前重试
+        StreamListener tracked = delta -> {
+            upstreamCall.markDelivered();
+            listener.onDelta(delta);
+        };
+        return execute(upstreamCall, response -> readStream(response, tracked))
+                .whenComplete((chatResponse, throwable) -> upstreamCall.settle(chatResponse));
+    }
+
+    /**
+     * 以低优先级请求总结模型 供 {@link ContextCompactor} 使用
+     *
+     * @return 完成时携带摘要正文
+     */
+    private CompletableFuture<String> summarize(String prompt, String transcript) {
+        AiModelProperties.Compaction config = properties.getCompaction();
+        String model = config.getModel() != null ? config.getModel() : properties.getModel();
+        ChatRequestBody body = new ChatRequestBody(model, false,
+                List.of(new SystemMessage(prompt), new UserMessage(transcript)), null)
+                .param("max_tokens", config.getMaxSummaryTokens());
+        UpstreamCall upstreamCall = new UpstreamCall(body, Priority.LOW,
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getTimeout()), null);
+        return execute(upstreamCall, AiRequestModelImpl::getBytes)
+                .thenApplyAsync(AiRequestModelImpl::handleChatResponse, executorService)
+                .whenComplete((chatResponse, throwable) -> upstreamCall.settle(chatResponse))
+                .thenApply(chatResponse -> chatResponse.getChoices().get(0).getMessage().getContent());
+    }
+
+    /**
+     * 读取成功的响应
+     */
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(Response response) throws IOException;
+    }
+
+    /**
+     * 执行一次上游请求 可重试的失败按 {@link RetryPolicy} 退避后换用其他节点重新发送
+     */
+    private <T> CompletableFuture<T> execute(UpstreamCall upstreamCall, ResponseReader<T> reader) {
+        retryPolicy.onRequest();
+        hedgePolicy.onRequest();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(upstreamCall, reader, 1, null, result);
+        return result;
+    }
+
+    private <T> void attempt(UpstreamCall upstreamCall, ResponseReader<T> reader, int attempt,
+                             UpstreamEndpoint previous, CompletableFuture<T> result) {
+        UpstreamEndpoint endpoint = balancer.select(previous);
+        executeHedged(endpoint, upstreamCall, reader).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause() : throwable;
+            if (upstreamCall.isCancelled()) {
+                result.completeExceptionally(Cancellation.cancelled());
+                return;
+            }
+            // 熔断的节点未发出请求 有其他健康节点时直接换用
+            boolean alternate = RetryPolicy.isCircuitOpen(cause) && balancer.hasHealthy(endpoint);
+            long delay = upstreamCall.isReplayable() ? retryPolicy.nextDelay(attempt, cause, alternate) : -1;
+            if (delay >= upstreamCall.remainingMillis()) {
+                // 退避结束时已超过截止时间 不再重试
+                delay = -1;
+            }
+            if (delay < 0) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            log.warn("request to {} failed (attempt {}), retrying in {} ms: {}",
+                    endpoint.getName(), attempt, delay, cause.getMessage());
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executorService)
+                    .execute(() -> attempt(upstreamCall, reader, attempt + 1, endpoint, result));
+        });
+    }
+
+    /**
+     * 发送请求 首字节迟迟未到时按 {@link HedgePolicy} 向其他节点发送一份相同请求
+     * 先返回成功状态码的一方胜出 另一方的请求被取消 携带有副作用工具的请求不做对冲
+     * 对冲等待从请求实际发出时开始计时 排队与限流等待不计入
+     */
+    private <T> CompletableFuture<T> executeHedged(UpstreamEndpoint endpoint, UpstreamCall upstreamCall,
+                                                   ResponseReader<T> reader) {
+        long delay = upstreamCall.getBody().hasSideEffectTools() ? -1 : hedgePolicy.delay();
+        if (delay < 0) {
+            return executeOn(endpoint, upstreamCall, reader, null, null);
+        }
+        HedgedExchange<T> exchange = new HedgedExchange<>();
+        Runnable scheduleHedge = () -> CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executorService)
+                .execute(() -> {
+                    if (exchange.isDecided() || !hedgePolicy.tryAcquire()) {
+                        return;
+                    }
+                    HedgedExchange<T>.Attempt hedge = exchange.start();
+                    if (hedge != null) {
+                        UpstreamEndpoint alternate = balancer.select(endpoint);
+                        log.debug("no response from {} after {} ms, hedging to {}", endpoint.getName(), delay,
+                                alternate.getName());
+                        launch(exchange, hedge, alternate, upstreamCall, reader, null);
+                    }
+                });
+        launch(exchange, exchange.start(), endpoint, upstreamCall, reader, scheduleHedge);
+        return exchange.getResult();
+    }
+
+    /**
+     * @param onSent 请求确实发出时调用 可为null
+     */
+    private <T> void launch(HedgedExchange<T> exchange, HedgedExchange<T>.Attempt attempt, UpstreamEndpoint endpoint,
+                            UpstreamCall upstreamCall, ResponseReader<T> reader, Runnable onSent) {
+        executeOn(endpoint, upstreamCall, reader, attempt, onSent).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                exchange.complete(value);
             } else {
-                String errorBody = "";
-                try {
-                    ResponseBody responseBody = response.body();
-                    if (responseBody != null) {
-                        errorBody = responseBody.string();
+                exchange.fail(attempt, throwable instanceof CompletionException && throwable.getCause() != null
+                        ? throwable.getCause() : throwable);
+            }
+        });
+    }
+
+    /**
+     * 节点启用自适应并发限制时 先在节点的并发限制器上取得名额 再进入全局调度
+     * 避免在已饱和的节点上排队的请求占用全局许可
+     */
+    private <T> CompletableFuture<T> executeOn(UpstreamEndpoint endpoint, UpstreamCall upstreamCall,
+                                               ResponseReader<T> reader, HedgedExchange<T>.Attempt attempt,
+                                               Runnable onSent) {
+        AdaptiveConcurrencyLimiter limiter = endpoint.getConcurrencyLimiter();
+        if (limiter == null) {
+            return schedule(endpoint, upstreamCall, reader, attempt, onSent);
+        }
+        return upstreamCall.bindCancel(limiter.acquire(upstreamCall.getDeadline())).thenCompose(v -> {
+            CompletableFuture<T> limited = schedule(endpoint, upstreamCall, reader, attempt, onSent);
+            limited.whenComplete((value, throwable) -> limiter.release());
+            return limited;
+        });
+    }
+
+    /**
+     * 经 {@link RequestScheduler} 按优先级与截止时间排队 获得许可后发送到指定节点 请求结束时归还许可
+     */
+    private <T> CompletableFuture<T> schedule(UpstreamEndpoint endpoint, UpstreamCall upstreamCall,
+                                              ResponseReader<T> reader, HedgedExchange<T>.Attempt attempt,
+                                              Runnable onSent) {
+        CompletableFuture<RequestScheduler.Permit> queued = scheduler.acquire(upstreamCall.getPriority(),
+                upstreamCall.getDeadline());
+        return upstreamCall.bindCancel(queued).thenCompose(permit -> {
+            CompletableFuture<T> future = reserveAndSend(endpoint, upstreamCall, reader, attempt, onSent);
+            future.whenComplete((value, throwable) -> permit.release());
+            return future;
+        });
+    }
+
+    /**
+     * 向模型与节点两级限流器预约额度后发送到指定节点
+     * 额度不足时在延迟执行器上等待 超过最长等待时间则以 {@link AiModelException.ErrorCode#RATE_LIMITED} 拒绝
+     * 每次尝试(重试与对冲)各自预约 成功的一次按实际用量结算 失败的已发出请求保留预估值 未发出的撤销
+     */
+    private <T> CompletableFuture<T> reserveAndSend(UpstreamEndpoint endpoint, UpstreamCall upstreamCall,
+                                                    ResponseReader<T> reader, HedgedExchange<T>.Attempt attempt,
+                                                    Runnable onSent) {
+        ChatRequestBody body = upstreamCall.getBody();
+        RateLimiterRegistry.Reservation reservation;
+        try {
+            reservation = rateLimiters.reserve(body.estimateTokens(),
+                    rateLimiters.forModel(body.getModel()), endpoint.getRateLimiter());
+        } catch (AiModelException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long wait = reservation.getWaitMillis();
+        if (wait > 0 && wait >= upstreamCall.remainingMillis()) {
+            // 未发出的请求退还请求数与预估的令牌额度
+            reservation.cancel();
+            return CompletableFuture.failedFuture(deadlineExceeded("等待限流额度将超过截止时间"));
+        }
+        AtomicBoolean sent = new AtomicBoolean();
+        Runnable markSent = () -> {
+            sent.set(true);
+            if (onSent != null) {
+                onSent.run();
+            }
+        };
+        CompletableFuture<T> future;
+        if (wait <= 0) {
+            future = send(endpoint, upstreamCall, reader, attempt, markSent);
+        } else {
+            log.debug("rate limit reached, request to {} delayed {} ms", endpoint.getName(), wait);
+            Executor delayed = CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS, executorService);
+            future = upstreamCall.bindCancel(CompletableFuture.runAsync(() -> {
+            }, delayed)).thenCompose(v -> send(endpoint, upstreamCall, reader, attempt, markSent));
+        }
+        return future.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                // 响应解析后由 UpstreamCall#settle 按实际用量结算
+                upstreamCall.setReservation(reservation);
+            } else if (sent.get()) {
+                reservation.settle(null);
+            } else {
+                reservation.cancel();
+            }
+        });
+    }
+
+    /**
+     * 通过 {@link Call#enqueue} 异步请求 等待期间不占用任何线程
+     * 流式响应在网络线程上逐行读取 设置了截止时间时以剩余时间作为本次调用的超时
+     *
+     * @param attempt 属于对冲请求时不为null 只有胜出的一方读取响应体
+     * @param onSent  请求确实发出时调用
+     */
+    private <T> CompletableFuture<T> send(UpstreamEndpoint endpoint, UpstreamCall upstreamCall,
+                                          ResponseReader<T> reader, HedgedExchange<T>.Attempt attempt,
+                                          Runnable onSent) {
+        long remaining = upstreamCall.remainingMillis();
+        if (remaining <= 0) {
+            return CompletableFuture.failedFuture(deadlineExceeded("请求在发送前已超过截止时间"));
+        }
+        Request request = newRequest(endpoint, upstreamCall.getBody());
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call newCall = client.newCall(request);
+        if (remaining != Long.MAX_VALUE) {
+            newCall.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+        }
+        if (attempt != null && !attempt.bind(newCall)) {
+            future.completeExceptionally(superseded());
+            return future;
+        }
+        Cancellation cancellation = upstreamCall.getCancellation();
+        Runnable cancelCall = newCall::cancel;
+        if (cancellation != null && !cancellation.register(cancelCall)) {
+            future.completeExceptionally(Cancellation.cancelled());
+            return future;
+        }
+        future.whenComplete((value, throwable) -> {
+            if (cancellation != null) {
+                cancellation.unregister(cancelCall);
+            }
+        });
+        CircuitBreaker circuitBreaker = endpoint.getCircuitBreaker();
+        AdaptiveConcurrencyLimiter limiter = endpoint.getConcurrencyLimiter();
+        if (!circuitBreaker.tryAcquire()) {
+            future.completeExceptionally(new AiModelException(AiModelException.ErrorCode.CIRCUIT_OPEN,
+                    String.format("节点 %s 熔断中 服务暂不可用", endpoint.getName())));
+            return future;
+        }
+        log.debug("request start {} endpoint {} url {}", request.hashCode(), endpoint.getName(), request.url());
+        endpoint.acquire();
+        long start = System.currentTimeMillis();
+        onSent.run();
+        newCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                endpoint.release();
+                if (upstreamCall.remainingMillis() <= 0) {
+                    // 截止时间到达由本端造成 不计入节点健康状态
+                    circuitBreaker.onIgnored();
+                    future.completeExceptionally(deadlineExceeded("等待模型响应时超过截止时间"));
+                    return;
+                }
+                if (call.isCanceled()) {
+                    circuitBreaker.onIgnored();
+                    future.completeExceptionally(upstreamCall.isCancelled() ? Cancellation.cancelled() : superseded());
+                    return;
+                }
+                balancer.onFailure(endpoint);
+                circuitBreaker.onFailure();
+                if (limiter != null) {
+                    limiter.onDrop();
+                }
+                future.completeExceptionally(new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED,
+                        "网络请求失败", e));
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                try (response) {
+                    long latency = System.currentTimeMillis() - start;
+                    if (isUpstreamFailure(response.code())) {
+                        balancer.onFailure(endpoint);
+                        circuitBreaker.onFailure();
+                        if (limiter != null) {
+                            limiter.onDrop();
+                        }
+                    } else {
+                        balancer.onSuccess(endpoint, latency);
+                        circuitBreaker.onSuccess(latency);
+                        if (limiter != null) {
+                            limiter.onSample(latency);
+                        }
                     }
+                    if (!response.isSuccessful()) {
+                        throw requestFailed(response);
+                    }
+                    hedgePolicy.record(latency);
+                    if (attempt != null && !attempt.claim()) {
+                        throw superseded();
+                    }
+                    future.complete(reader.read(response));
                 } catch (IOException e) {
-                    log.warn("读取错误响应体失败", e);
+                    future.completeExceptionally(upstreamCall.isCancelled() ? Cancellation.cancelled()
+                            : new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED, "网络请求失败", e));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    endpoint.release();
                 }
-                throw new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED,
-                        String.format("HTTP请求失败: %d %s, 响应: %s",
-                                response.code(), response.message(), errorBody));
             }
-        } catch (AiModelException e) {
-            throw e;
+        });
+        return future;
+    }
+
+    private static AiModelException deadlineExceeded(String message) {
+        return new AiModelException(AiModelException.ErrorCode.DEADLINE_EXCEEDED, message);
+    }
+
+    private static AiModelException superseded() {
+        return new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED, "请求已被对冲请求取代");
+    }
+
+    /**
+     * 限流或服务端错误视为节点不健康
+     */
+    private static boolean isUpstreamFailure(int code) {
+        return code == 429 || code >= 500;
+    }
+
+    private static ChatResponse readStream(Response response, StreamListener listener) throws IOException {
+        ResponseBody responseBody = response.body();
+        if (responseBody == null) {
+            throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
+                    "响应体为空");
+        }
+        StreamChatAccumulator accumulator = new StreamChatAccumulator();
+        BufferedSource source = responseBody.source();
+        String line;
+        while (!accumulator.isDone() && (line = source.readUtf8Line()) != null) {
+            String delta = accumulator.acceptLine(line);
+            if (delta != null) {
+                listener.onDelta(delta);
+            }
+        }
+        accumulator.ensureComplete();
+        AssistantMessage assistantMessage = accumulator.toAssistantMessage();
+        ChatResponse chatResponse = accumulator.toChatResponse(assistantMessage);
+        logUsage(chatResponse);
+        return chatResponse;
+    }
+
+    /**
+     * 根据失败的响应构建异常
+     */
+    private static AiModelException requestFailed(Response response) {
+        String errorBody = "";
+        try {
+            ResponseBody responseBody = response.body();
+            if (responseBody != null) {
+                errorBody = responseBody.string();
+            }
         } catch (IOException e) {
-            throw new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED,
-                    "网络请求失败", e);
-        } catch (Exception e) {
-            throw new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED,
-                    "请求处理失败", e);
+            log.warn("读取错误响应体失败", e);
         }
+        int code = response.code();
+        AiModelException.ErrorCode errorCode = code == 401 || code == 403
+                ? AiModelException.ErrorCode.AUTHENTICATION_ERROR : AiModelException.ErrorCode.REQUEST_FAILED;
+        return new UpstreamResponseException(errorCode,
+                String.format("HTTP请求失败: %d %s, 响应: %s", code, response.message(), errorBody),
+                code, parseRetryAfter(response.header("Retry-After")));
     }
 
+    /**
+     * 解析 Retry-After 响应头 支持秒数与HTTP日期两种格式
+     *
+     * @return 毫秒数 未提供或无法解析时返回-1
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+            } catch (Exception ex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 读取响应的原始字节 不解码为字符串
+     */
     @NotNull
-    private static String getString(Response response) throws IOException {
+    private static byte[] getBytes(Response response) throws IOException {
         ResponseBody responseBody = response.body();
         if (responseBody == null) {
             throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
                     "响应体为空");
         }
-        String responseString = responseBody.string();
-        if (responseString.isEmpty()) {
+        byte[] bytes = responseBody.bytes();
+        if (bytes.length == 0) {
             throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
                     "响应内容为空");
         }
-        return responseString;
+        return bytes;
     }
 
 
-    private Request getRequestByChatRequest(ChatRequest chatRequest, Boolean isStream) {
-        JSONObject reqBody = new JSONObject();
-
+    private ChatRequestBody buildRequestBody(ChatContext context, ChatRequest chatRequest, boolean isStream,
+                                             boolean withTools) {
         // 设置模型
         String model = (chatRequest.getModel() == null || chatRequest.getModel().trim().isEmpty())
                 ? properties.getModel() : chatRequest.getModel();
-        reqBody.put("model", model);
 
-        // 设置可选参数
-        addIfNotNull(reqBody, "enable_thinking", properties.getEnable_thinking());
-        addIfNotNull(reqBody, "seed", properties.getSeed());
-        addIfNotNull(reqBody, "max_input_tokens", properties.getMax_input_tokens());
-        addIfNotNull(reqBody, "max_tokens", properties.getMax_tokens());
-        addIfNotNull(reqBody, "temperature", properties.getTemperature());
-        addIfNotNull(reqBody, "top_k", properties.getTop_k());
-        addIfNotNull(reqBody, "stop", chatRequest.getStop());
-
-        reqBody.put("stream", isStream);
+        // 消息与工具在写出时直接序列化到连接
+        ChatRequestBody body = new ChatRequestBody(model, isStream,
+                buildMessageList(context), withTools ? buildToolList(chatRequest) : null);
 
-        // 构建消息列表
-        List<Message<?>> messages = buildMessageList();
-        reqBody.put("messages", messages);
+        // 设置可选参数
+        body.param("enable_thinking", properties.getEnable_thinking())
+                .param("seed", properties.getSeed())
+                .param("max_input_tokens", properties.getMax_input_tokens())
+                .param("max_tokens", properties.getMax_tokens())
+                .param("temperature", properties.getTemperature())
+                .param("top_k", properties.getTop_k())
+                .param("stop", chatRequest.getStop());
 
-        // 构建工具列表
-        List<RequestTool> reqTools = buildToolList(chatRequest);
-        if (!reqTools.isEmpty()) {
-            reqBody.put("tools", reqTools);
+        if (log.isDebugEnabled()) {
+            log.debug("set reqbody {}", body);
         }
 
-        RequestBody body = RequestBody.create(MediaType.parse("application/json"), reqBody.toString());
-        log.debug("set reqbody {}", reqBody);
-
-        return new Request.Builder()
-                .header("Authorization", "Bearer " + properties.getToken())
-                .url(finalUrl)
-                .method("POST", body)
-                .build();
+        return body;
     }
 
     /**
-     * 添加非空值到JSON对象
+     * 构建发往指定节点的请求
      */
-    private void addIfNotNull(JSONObject jsonObject, String key, Object value) {
-        if (value != null) {
-            jsonObject.put(key, value);
-        }
+    private static Request newRequest(UpstreamEndpoint endpoint, RequestBody body) {
+        return endpoint.newRequest()
+                .method("POST", body)
+                .build();
     }
 
     /**
      * 构建消息列表
      */
-    private List<Message<?>> buildMessageList() {
-        List<Message<?>> messages = new LinkedList<>();
-        SystemMessage systemMessage = chatContext.getSystemMessage();
+    private List<Message<?>> buildMessageList(ChatContext context) {
+        List<Message<?>> history = context.getMessagesReadOnly();
+        List<Message<?>> messages = new ArrayList<>(history.size() + 1);
+        SystemMessage systemMessage = context.getSystemMessage();
         if (systemMessage != null) {
             messages.add(systemMessage);
         }
-        messages.addAll(chatContext.getMessagesReadOnly());
+        messages.addAll(history);
         return messages;
     }
 
@@ -261,73 +1081,126 @@ public class AiRequestModelImpl implements AiRequestModel {
         return reqTools;
     }
 
-    private ChatResponse handleChatToolRequest(ChatRequest chatRequest, AssistantMessage assistantMessage) {
+    /**
+     * 并发执行本轮全部工具调用 结果按 tool_calls 的原始顺序写入上下文
+     */
+    private CompletableFuture<Void> handleChatToolRequest(ChatContext context, AssistantMessage assistantMessage,
+                                                          long deadline, Cancellation cancellation) {
         List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getTool_calls();
-        List<ToolMessage> toolMessages = RequestTool.toolCall(toolCalls);
-        if (toolMessages.isEmpty() || toolMessages.size() < toolCalls.size()) {
-            toolCalls.forEach(e -> {
-                for (McpClient mcpClient : mcpClients) {
-                    if (mcpClient.getTool().containsKey(e.getFunction().getName())) {
-                        ToolMessage toolMessage = mcpClient.toolCall(e);
-                        chatContext.addMessage(toolMessage);
-                        break;
-                    }
-                }
-            });
+        List<CompletableFuture<ToolMessage>> futures = new ArrayList<>(toolCalls.size());
+        for (AssistantMessage.ToolCall toolCall : toolCalls) {
+            futures.add(invokeToolAsync(toolCall, deadline, cancellation));
         }
-        toolMessages.forEach(chatContext::addMessage);
-        Request request = getRequestByChatRequest(chatRequest, false);
-        return getChatResponse(chatRequest, request);
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            for (CompletableFuture<ToolMessage> future : futures) {
+                context.addMessage(future.join());
+            }
+        });
     }
 
-    private ChatResponse handleChatResponse(JSONObject jsonObject, ChatRequest chatRequest) {
-        try {
-            JSONArray array = jsonObject.getJSONArray("choices");
-            if (array == null || array.isEmpty()) {
-                throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
-                        "Response choices array is null or empty");
+    /**
+     * 在工具线程池中执行单个工具调用 超时后中断执行并返回超时结果
+     * 工具超时从开始执行时计算 在线程池中排队的时间不计入 排队与执行都受截止时间限制
+     * 对话取消时中断执行并返回取消结果 使上下文中的 tool_call 仍有对应的结果
+     */
+    private CompletableFuture<ToolMessage> invokeToolAsync(AssistantMessage.ToolCall toolCall, long deadline,
+                                                           Cancellation cancellation) {
+        if (deadline != Long.MAX_VALUE && deadline <= System.currentTimeMillis()) {
+            return CompletableFuture.completedFuture(new ToolMessage("工具调用超过截止时间 未执行", toolCall.getId()));
+        }
+        long toolMillis = TimeUnit.SECONDS.toMillis(toolTimeout);
+        CompletableFuture<ToolMessage> future = new CompletableFuture<>();
+        ToolMessage timedOut = new ToolMessage("工具调用超时", toolCall.getId());
+        ToolMessage expired = new ToolMessage("工具调用超过截止时间 未执行", toolCall.getId());
+        Future<?> task = toolExecutor.submit(() -> {
+            if (future.isDone()) {
+                return;
             }
-
-            JSONObject choice = array.getJSONObject(0);
-            JSONObject choiceMessage = choice.getJSONObject("message");
-            if (choiceMessage == null) {
-                throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
-                        "Choice message is null");
+            long timeout = deadline == Long.MAX_VALUE ? toolMillis
+                    : Math.min(toolMillis, deadline - System.currentTimeMillis());
+            if (timeout <= 0) {
+                future.complete(expired);
+                return;
             }
-
-            ChatResponse chatResponse = jsonObject.toJavaObject(ChatResponse.class);
-            if (chatResponse.getUsage() != null) {
-                log.debug("round of conversation completed. " +
-                                "consumed {} completion tokens, {} prompt tokens, total {} tokens",
-                        chatResponse.getUsage().getCompletion_tokens(),
-                        chatResponse.getUsage().getPrompt_tokens(),
-                        chatResponse.getUsage().getTotal_tokens());
+            future.completeOnTimeout(timedOut, timeout, TimeUnit.MILLISECONDS);
+            try {
+                future.complete(invokeTool(toolCall, deadline));
+            } catch (Exception e) {
+                log.error("Tool invocation failed for {}: {}", toolCall.getFunction().getName(), e.getMessage(), e);
+                future.complete(new ToolMessage("工具调用失败: " + e.getMessage(), toolCall.getId()));
             }
+        });
+        if (deadline != Long.MAX_VALUE) {
+            // 排队期间到达截止时间 不再执行
+            future.completeOnTimeout(expired, deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+        future.whenComplete((toolMessage, throwable) -> {
+            if (toolMessage == timedOut || toolMessage == expired) {
+                task.cancel(true);
+                log.warn("Tool invocation {} for {}", toolMessage == timedOut ? "timed out" : "passed deadline",
+                        toolCall.getFunction().getName());
+            }
+        });
+        Runnable cancelTool = () -> {
+            future.complete(new ToolMessage("工具调用已取消", toolCall.getId()));
+            task.cancel(true);
+        };
+        if (cancellation.register(cancelTool)) {
+            future.whenComplete((toolMessage, throwable) -> cancellation.unregister(cancelTool));
+        }
+        return future;
+    }
 
-            chatResponse.setChatContext(chatContext);
-            String role = choiceMessage.getString("role");
-
-            if (AssistantMessage.TYPE.equalsIgnoreCase(role)) {
-                AssistantMessage assistantMessage = choiceMessage.toJavaObject(AssistantMessage.class);
-                chatContext.addMessage(assistantMessage);
-
-                if (assistantMessage.getTool_calls() != null && !assistantMessage.getTool_calls().isEmpty()) {
-                    try {
-                        return handleChatToolRequest(chatRequest, assistantMessage);
-                    } finally {
-                        if (chatRequest.getClearToolMessage()) {
-                            clearToolMessage();
-                        }
-                    }
-                }
+    /**
+     * 优先调用本地工具 其次调用MCP工具
+     * 任何情况下都返回一条对应的工具消息 避免上下文中出现没有结果的 tool_call
+     */
+    private ToolMessage invokeTool(AssistantMessage.ToolCall toolCall, long deadline) {
+        String name = toolCall.getFunction() == null ? null : toolCall.getFunction().getName();
+        if (RequestTool.hasTool(name)) {
+            ToolMessage toolMessage = RequestTool.toolCall(toolCall);
+            return toolMessage != null ? toolMessage : new ToolMessage("工具调用失败: " + name, toolCall.getId());
+        }
+        for (McpClient mcpClient : mcpClients) {
+            if (mcpClient.getTool().containsKey(name)) {
+                ToolMessage toolMessage = mcpClient.toolCall(toolCall, deadline);
+                return toolMessage != null ? toolMessage : new ToolMessage("工具调用无响应: " + name, toolCall.getId());
             }
+        }
+        return new ToolMessage("未找到工具: " + name, toolCall.getId());
+    }
 
-            return chatResponse;
-        } catch (AiModelException e) {
-            throw e;
+    /**
+     * 解析非流式响应
+     * 从字节直接一次性解析为 {@link ChatResponse} 及其中的 {@link AssistantMessage}
+     */
+    static ChatResponse handleChatResponse(byte[] responseBytes) {
+        ChatResponse chatResponse;
+        try {
+            chatResponse = JSON.parseObject(responseBytes, ChatResponse.class);
         } catch (Exception e) {
             throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
-                    "处理响应失败", e);
+                    "JSON解析失败: " + new String(responseBytes, StandardCharsets.UTF_8), e);
+        }
+        if (chatResponse == null || chatResponse.getChoices() == null || chatResponse.getChoices().isEmpty()) {
+            throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
+                    "Response choices array is null or empty");
+        }
+        if (chatResponse.getChoices().get(0).getMessage() == null) {
+            throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
+                    "Choice message is null");
+        }
+        logUsage(chatResponse);
+        return chatResponse;
+    }
+
+    private static void logUsage(ChatResponse chatResponse) {
+        if (chatResponse.getUsage() != null) {
+            log.debug("round of conversation completed. " +
+                            "consumed {} completion tokens, {} prompt tokens, total {} tokens",
+                    chatResponse.getUsage().getCompletion_tokens(),
+                    chatResponse.getUsage().getPrompt_tokens(),
+                    chatResponse.getUsage().getTotal_tokens());
         }
     }
 
@@ -337,29 +1210,34 @@ public class AiRequestModelImpl implements AiRequestModel {
     }
 
     @Override
-    public synchronized void clearToolMessage() {
-        List<Message<?>> messagesToRemove = new ArrayList<>();
-        List<Message<?>> allMessages = chatContext.getMessagesReadOnly();
-
-        for (Message<?> message : allMessages) {
-            if (message instanceof ToolMessage) {
-                messagesToRemove.add(message);
-            } else if (message instanceof AssistantMessage) {
-                AssistantMessage assistantMessage = (AssistantMessage) message;
-                if (assistantMessage.getTool_calls() != null && !assistantMessage.getTool_calls().isEmpty()) {
-                    messagesToRemove.add(message);
-                }
-            }
+    public void clearChatMemory(String sessionId) {
+        ChatContext context = sessionRegistry.get(sessionId);
+        if (context != null) {
+            context.clearMessages();
         }
+    }
+
+    @Override
+    public synchronized void clearToolMessage() {
+        clearToolMessage(chatContext);
+    }
 
-        // 从原始列表中移除
-        chatContext.getMessages().removeAll(messagesToRemove);
+    private void clearToolMessage(ChatContext context) {
+        context.applyToolPolicy(ToolResultPolicy.removeAll());
     }
 
     /**
      * 资源清理方法
      */
     public void destroy() {
+        sessionRegistry.destroy();
+        if (journal != null) {
+            journal.destroy();
+        }
+        if (responseCache != null) {
+            responseCache.destroy();
+        }
+        toolExecutor.shutdownNow();
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
             try {
@@ -0,0 +1,20 @@
+package top.kloping.core.ai.service;
+
+/**
+ * 批量对话进度监听器
+ * 在消费结果流的线程中回调
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@FunctionalInterface
+public interface BatchProgressListener {
+    /**
+     * 每完成一个请求回调一次
+     *
+     * @param completed 已完成的请求数 包含失败
+     * @param failed    失败的请求数
+     * @param inflight  正在执行的请求数
+     */
+    void onProgress(long completed, long failed, int inflight);
+}
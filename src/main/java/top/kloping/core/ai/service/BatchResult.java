@@ -0,0 +1,52 @@
+package top.kloping.core.ai.service;
+
+import top.kloping.core.ai.exception.AiModelException;
+
+/**
+ * 批量对话中单个请求的结果
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class BatchResult {
+    private final long index;
+    private final ChatRequest request;
+    private final ChatResponse response;
+    private final AiModelException error;
+
+    BatchResult(long index, ChatRequest request, ChatResponse response, AiModelException error) {
+        this.index = index;
+        this.request = request;
+        this.response = response;
+        this.error = error;
+    }
+
+    /**
+     * 请求在输入中的序号 从0开始
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    public ChatRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * 失败时为null
+     */
+    public ChatResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * 成功时为null
+     */
+    public AiModelException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,121 @@
+package top.kloping.core.ai.service;
+
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 批量对话的结果分割器
+ * 由消费结果的线程驱动: 每取一个结果前补足并发 再等待任意一个请求完成
+ * 输入只在消费线程中读取 未被消费的结果与执行中的请求合计不超过并发数 内存占用与输入规模无关
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class BatchSpliterator implements Spliterator<BatchResult> {
+    private final Iterator<ChatRequest> requests;
+    private final Function<ChatRequest, CompletableFuture<ChatResponse>> executor;
+    private final int parallelism;
+    private final BatchProgressListener listener;
+
+    private final BlockingQueue<BatchResult> completed = new LinkedBlockingQueue<>();
+    private final Map<Long, CompletableFuture<ChatResponse>> inflight = new ConcurrentHashMap<>();
+    private long submitted;
+    private long finished;
+    private long failed;
+
+    BatchSpliterator(Iterator<ChatRequest> requests, Function<ChatRequest, CompletableFuture<ChatResponse>> executor,
+                     int parallelism, BatchProgressListener listener) {
+        this.requests = requests;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BatchResult> action) {
+        fill();
+        if (submitted == finished) {
+            return false;
+        }
+        BatchResult result;
+        try {
+            result = completed.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new AiModelException(AiModelException.ErrorCode.THREAD_INTERRUPTED, e);
+        }
+        finished++;
+        if (!result.isSuccess()) {
+            failed++;
+        }
+        if (listener != null) {
+            listener.onProgress(finished, failed, inflight.size());
+        }
+        action.accept(result);
+        return true;
+    }
+
+    /**
+     * 补足并发数
+     */
+    private void fill() {
+        while (submitted - finished < parallelism && requests.hasNext()) {
+            ChatRequest request = requests.next();
+            long index = submitted++;
+            CompletableFuture<ChatResponse> future;
+            try {
+                future = executor.apply(request);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            inflight.put(index, future);
+            future.whenComplete((response, throwable) -> {
+                inflight.remove(index);
+                AiModelException error = throwable == null ? null : toException(throwable);
+                completed.add(new BatchResult(index, request, error == null ? response : null, error));
+            });
+        }
+    }
+
+    private static AiModelException toException(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof AiModelException) {
+            return (AiModelException) cause;
+        }
+        return new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED, "批量请求失败", cause);
+    }
+
+    /**
+     * 取消全部执行中的请求 结果流关闭时调用
+     */
+    void close() {
+        for (CompletableFuture<ChatResponse> future : inflight.values()) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public Spliterator<BatchResult> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+}
@@ -0,0 +1,78 @@
+package top.kloping.core.ai.service;
+
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一次对话的取消信号
+ * 对话进行中登记当前可中止的操作(上游调用、排队等待、工具执行) 取消时逐一中止
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class Cancellation {
+    private final Set<Runnable> hooks = new HashSet<>();
+    private volatile boolean cancelled;
+
+    /**
+     * 登记取消时执行的动作
+     *
+     * @return 已经取消时立即执行该动作并返回false
+     */
+    boolean register(Runnable hook) {
+        synchronized (this) {
+            if (!cancelled) {
+                hooks.add(hook);
+                return true;
+            }
+        }
+        hook.run();
+        return false;
+    }
+
+    synchronized void unregister(Runnable hook) {
+        hooks.remove(hook);
+    }
+
+    /**
+     * 取消时一并取消该 future 其完成后自动解除登记
+     */
+    <T> CompletableFuture<T> bind(CompletableFuture<T> future) {
+        Runnable hook = () -> future.cancel(false);
+        if (register(hook)) {
+            future.whenComplete((value, throwable) -> unregister(hook));
+        }
+        return future;
+    }
+
+    /**
+     * 取消对话 只生效一次
+     */
+    void cancel() {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = new ArrayList<>(hooks);
+            hooks.clear();
+        }
+        for (Runnable hook : pending) {
+            hook.run();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    static AiModelException cancelled() {
+        return new AiModelException(AiModelException.ErrorCode.CANCELLED, "对话已取消");
+    }
+}
@@ -1,18 +1,31 @@
 package top.kloping.core.ai.service;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import top.kloping.core.ai.dto.Message;
 import top.kloping.core.ai.dto.SystemMessage;
+import top.kloping.core.ai.util.TokenEstimator;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * 聊天上下文类
  * 管理对话历史和系统消息
+ * 写入之间互斥 读取直接获得不可变快照 不加锁也不复制
+ * 按消息数与令牌预算两个上限淘汰最早的消息 带工具调用的助手消息与其工具结果总是一起淘汰
+ * 设置 {@link ChangeListener} 后每次写入都会通知 用于持久化
+ * equals/hashCode/toString 只包含配置与系统消息 不包含消息历史、监听与访问时间
  *
  * @author github kloping
  * @since 2025/9/19
@@ -21,77 +34,313 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class ChatContext {
     private String model;
     private Integer max = 50; // 默认最大消息数
+    /**
+     * 令牌预算 系统消息与历史消息的估算令牌数之和超出时淘汰最早的消息 为空不限
+     * 通常取模型的 max_input_tokens
+     */
+    private Integer maxTokens;
     private SystemMessage systemMessage;
-    private final List<Message<?>> messages = Collections.synchronizedList(new ArrayList<>());
-    
-    // 读写锁用于更细粒度的并发控制
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
-    
+    // 系统消息的估算令牌数 设置时计算一次
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile int systemTokens;
+
+    // 当前消息窗口 每次写入后整体替换
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile MessageWindow window = MessageWindow.EMPTY;
+
+    // 消息变更监听 在写锁内调用
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile ChangeListener changeListener;
+
+    // 最后访问时间 用于会话空闲淘汰
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    // 进行中的对话数 不为0时会话不会被淘汰
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final AtomicInteger pins = new AtomicInteger();
+
+    /**
+     * 刷新最后访问时间
+     */
+    public void touch() {
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 对话开始 对话期间会话不会被淘汰
+     */
+    public void pin() {
+        pins.incrementAndGet();
+        touch();
+    }
+
+    /**
+     * 对话结束 空闲时间从此刻开始计算
+     */
+    public void unpin() {
+        touch();
+        pins.decrementAndGet();
+    }
+
+    /**
+     * 是否有进行中的对话
+     */
+    public boolean isPinned() {
+        return pins.get() > 0;
+    }
+
+    /**
+     * 消息变更监听
+     */
+    public interface ChangeListener {
+        /**
+         * 消息发生变化 在写锁内调用 实现不应阻塞
+         *
+         * @param appended 本次追加的消息 追加之外的变更(移除、替换、清空)为null
+         * @param messages 变更后的不可变快照 追加时已包含追加的消息
+         */
+        void onChange(Message<?> appended, List<Message<?>> messages);
+    }
+
+    /**
+     * 设置消息变更监听 为null时取消
+     * 因上限变化而淘汰的消息不会通知 按相同上限重放追加即可还原
+     */
+    public synchronized void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changed(Message<?> appended) {
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.onChange(appended, window);
+        }
+    }
+
+    /**
+     * 设置最大消息数 当前消息超出时移除最早的消息
+     */
+    public synchronized void setMax(Integer max) {
+        this.max = max;
+        window = trim(window);
+    }
+
+    /**
+     * 设置令牌预算 当前消息超出时移除最早的消息
+     */
+    public synchronized void setMaxTokens(Integer maxTokens) {
+        this.maxTokens = maxTokens;
+        window = trim(window);
+    }
+
+    public synchronized void setSystemMessage(SystemMessage systemMessage) {
+        this.systemMessage = systemMessage;
+        this.systemTokens = TokenEstimator.estimate(systemMessage);
+        window = trim(window);
+    }
+
     /**
      * 添加消息到上下文
-     * 如果超过最大数量，则移除最早的消息
+     * 如果超过最大数量或令牌预算，则移除最早的消息
      */
-    public void addMessage(Message<?> message) {
+    public synchronized void addMessage(Message<?> message) {
         if (message == null) {
             return;
         }
-        
-        lock.writeLock().lock();
-        try {
-            if (max != null && messages.size() >= max) {
-                messages.remove(0);
+        window = trim(window.append(message, max));
+        changed(message);
+    }
+
+    /**
+     * 从开头逐组淘汰 直到满足两个上限 只访问被淘汰的消息
+     * 包含最新消息的一组不会被淘汰 即使单独超出上限
+     */
+    private MessageWindow trim(MessageWindow current) {
+        while (isOverLimit(current)) {
+            int group = current.leadingGroupSize();
+            if (group >= current.size()) {
+                break;
             }
-            messages.add(message);
-        } finally {
-            lock.writeLock().unlock();
+            current = current.dropFirst(group);
         }
+        return current;
+    }
+
+    private boolean isOverLimit(MessageWindow current) {
+        return (max != null && current.size() > max)
+                || (maxTokens != null && current.tokenCount() + systemTokens > maxTokens);
+    }
+
+    /**
+     * 系统消息与历史消息的估算令牌数之和
+     */
+    public long getTokenCount() {
+        return window.tokenCount() + systemTokens;
     }
-    
+
     /**
-     * 获取消息列表的只读视图
+     * 获取消息列表的不可变快照 之后的写入不影响已获取的快照
      */
     public List<Message<?>> getMessagesReadOnly() {
-        lock.readLock().lock();
-        try {
-            return new ArrayList<>(messages);
-        } finally {
-            lock.readLock().unlock();
+        return window;
+    }
+
+    /**
+     * 获取消息列表的写穿视图 读取始终反映当前消息 对视图的修改直接写入上下文并通知变更监听
+     * 除末尾追加与清空外 每次修改都复制整个窗口
+     *
+     * @deprecated 读取请使用 {@link #getMessagesReadOnly()}
+     * 修改请使用 {@link #addMessage(Message)}、{@link #removeMessages(Predicate)}、{@link #clearMessages()}
+     */
+    @Deprecated
+    public List<Message<?>> getMessages() {
+        return new MessagesView();
+    }
+
+    /**
+     * 复制当前消息 修改后整体替换窗口
+     */
+    private synchronized <R> R edit(Function<List<Message<?>>, R> edit) {
+        List<Message<?>> copy = new ArrayList<>(window);
+        R result = edit.apply(copy);
+        copy.removeIf(Objects::isNull);
+        window = trim(MessageWindow.of(copy, max));
+        changed(null);
+        return result;
+    }
+
+    /**
+     * 移除满足条件的消息
+     *
+     * @return 移除的数量
+     */
+    public synchronized int removeMessages(Predicate<Message<?>> filter) {
+        MessageWindow current = window;
+        window = current.removeIf(filter, max);
+        int removed = current.size() - window.size();
+        if (removed > 0) {
+            changed(null);
         }
+        return removed;
     }
-    
+
     /**
-     * 清空所有消息
+     * 按策略处理上下文中的工具调用消息
      */
-    public void clearMessages() {
-        lock.writeLock().lock();
-        try {
-            messages.clear();
-        } finally {
-            lock.writeLock().unlock();
+    public synchronized void applyToolPolicy(ToolResultPolicy policy) {
+        MessageWindow current = window;
+        window = current.applyToolPolicy(policy, max);
+        if (window != current) {
+            changed(null);
         }
     }
-    
+
+    /**
+     * 以一条消息替换开头的若干条消息
+     * 仅当当前上下文仍以这些消息(同一对象)开头时替换 期间被淘汰或清空时放弃
+     *
+     * @param expected    需要替换的消息 通常取自之前的快照
+     * @param replacement 替换后的消息
+     * @return 是否替换
+     */
+    public synchronized boolean replaceLeading(List<Message<?>> expected, Message<?> replacement) {
+        MessageWindow current = window;
+        if (expected.isEmpty() || expected.size() > current.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (current.get(i) != expected.get(i)) {
+                return false;
+            }
+        }
+        window = trim(current.replacePrefix(expected.size(), replacement, max));
+        changed(null);
+        return true;
+    }
+
+    /**
+     * 清空所有消息
+     */
+    public synchronized void clearMessages() {
+        window = MessageWindow.EMPTY;
+        changed(null);
+    }
+
     /**
      * 获取消息数量
      */
     public int getMessageCount() {
-        lock.readLock().lock();
-        try {
-            return messages.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return window.size();
     }
-    
+
     /**
      * 检查是否为空
      */
     public boolean isEmpty() {
-        lock.readLock().lock();
-        try {
-            return messages.isEmpty();
-        } finally {
-            lock.readLock().unlock();
+        return window.isEmpty();
+    }
+
+    /**
+     * {@link #getMessages()} 返回的写穿视图
+     */
+    private final class MessagesView extends AbstractList<Message<?>> implements RandomAccess {
+        @Override
+        public Message<?> get(int index) {
+            return window.get(index);
+        }
+
+        @Override
+        public int size() {
+            return window.size();
+        }
+
+        @Override
+        public boolean add(Message<?> message) {
+            addMessage(message);
+            return true;
+        }
+
+        @Override
+        public void add(int index, Message<?> message) {
+            edit(list -> {
+                list.add(index, message);
+                return null;
+            });
+        }
+
+        @Override
+        public Message<?> set(int index, Message<?> message) {
+            return edit(list -> list.set(index, message));
+        }
+
+        @Override
+        public Message<?> remove(int index) {
+            return edit(list -> list.remove(index));
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Message<?>> filter) {
+            return removeMessages(filter::test) > 0;
+        }
+
+        @Override
+        public void clear() {
+            clearMessages();
         }
     }
 }
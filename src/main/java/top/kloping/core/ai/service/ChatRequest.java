@@ -1,6 +1,7 @@
 package top.kloping.core.ai.service;
 
 import lombok.Getter;
+import top.kloping.core.ai.limit.Priority;
 
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -19,6 +20,9 @@ public class ChatRequest {
     private String content;
     private String stop;
     private Boolean clearToolMessage = true;
+    private ToolResultPolicy toolResultPolicy;
+    private Priority priority;
+    private Long deadline;
     private final List<Object> tools = new LinkedList<>();
 
     public List<RequestTool> getReqTools() {
@@ -72,6 +76,52 @@ public class ChatRequest {
             return this;
         }
 
+        /**
+         * 对话结束后如何处理上下文中的工具调用消息 设置后代替 clearToolMessage
+         * 例如 {@code ToolResultPolicy.keepLast(3).andThen(ToolResultPolicy.truncate(500))}
+         *
+         * @param toolResultPolicy
+         * @return
+         */
+        public ChatRequestBuilder setToolResultPolicy(ToolResultPolicy toolResultPolicy) {
+            request.toolResultPolicy = toolResultPolicy;
+            return this;
+        }
+
+        /**
+         * 优先级 上游繁忙排队时高优先级先发送
+         * 不设置时普通对话为 NORMAL 批量对话为 LOW
+         *
+         * @param priority
+         * @return
+         */
+        public ChatRequestBuilder setPriority(Priority priority) {
+            request.priority = priority;
+            return this;
+        }
+
+        /**
+         * 截止时间 毫秒时间戳 超过后不再发送请求
+         *
+         * @param deadline
+         * @return
+         */
+        public ChatRequestBuilder setDeadline(long deadline) {
+            request.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * 从现在起的超时时间 等价于以当前时间加超时时间作为截止时间
+         *
+         * @param timeout 超时时间 毫秒
+         * @return
+         */
+        public ChatRequestBuilder setTimeout(long timeout) {
+            request.deadline = System.currentTimeMillis() + timeout;
+            return this;
+        }
+
         public ChatRequest build() {
             return request;
         }
@@ -0,0 +1,173 @@
+package top.kloping.core.ai.service;
+
+import com.alibaba.fastjson.JSON;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.HashingSink;
+import okio.Okio;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.util.TokenEstimator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对话请求体
+ * 在 {@link #writeTo(BufferedSink)} 时直接将模型参数、消息和工具以UTF-8写入连接
+ * 不生成完整的中间字符串 消息列表在构造时已是快照 可重复写出
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class ChatRequestBody extends RequestBody {
+    public static final MediaType JSON_TYPE = MediaType.parse("application/json");
+
+    private final String model;
+    private final boolean stream;
+    private final Map<String, Object> params = new LinkedHashMap<>();
+    private final List<Message<?>> messages;
+    private final List<RequestTool> tools;
+    private int estimatedTokens = -1;
+    private String canonicalHash;
+
+    public ChatRequestBody(String model, boolean stream, List<Message<?>> messages, List<RequestTool> tools) {
+        this.model = model;
+        this.stream = stream;
+        this.messages = messages;
+        this.tools = tools;
+    }
+
+    /**
+     * 添加可选参数 值为null时忽略
+     */
+    public ChatRequestBody param(String key, Object value) {
+        if (value != null) {
+            params.put(key, value);
+        }
+        return this;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public List<Message<?>> getMessages() {
+        return messages;
+    }
+
+    public List<RequestTool> getTools() {
+        return tools;
+    }
+
+    /**
+     * 请求的规范哈希 模型、参数、消息与工具完全相同的请求哈希相同
+     * 序列化结果直接写入摘要 不生成中间字符串
+     */
+    public String canonicalHash() {
+        if (canonicalHash == null) {
+            HashingSink hashingSink = HashingSink.sha256(Okio.blackhole());
+            try (BufferedSink sink = Okio.buffer(hashingSink)) {
+                writeTo(sink);
+                sink.flush();
+                canonicalHash = hashingSink.hash().hex();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to hash request body", e);
+            }
+        }
+        return canonicalHash;
+    }
+
+    /**
+     * 是否携带有副作用的工具
+     */
+    public boolean hasSideEffectTools() {
+        if (tools != null) {
+            for (RequestTool tool : tools) {
+                if (tool.isSideEffect()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 估算本次请求占用的令牌数 包含消息、工具定义与 max_tokens 预留的输出
+     */
+    public int estimateTokens() {
+        if (estimatedTokens < 0) {
+            int tokens = TokenEstimator.estimate(messages);
+            if (tools != null) {
+                for (RequestTool tool : tools) {
+                    tokens += TokenEstimator.estimate(JSON.toJSONString(tool));
+                }
+            }
+            Object maxTokens = params.get("max_tokens");
+            if (maxTokens instanceof Number) {
+                tokens += ((Number) maxTokens).intValue();
+            }
+            estimatedTokens = tokens;
+        }
+        return estimatedTokens;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return JSON_TYPE;
+    }
+
+    @Override
+    public void writeTo(@NotNull BufferedSink sink) throws IOException {
+        OutputStream out = sink.outputStream();
+        sink.writeUtf8("{\"model\":");
+        JSON.writeJSONString(out, model);
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            sink.writeUtf8(",\"").writeUtf8(entry.getKey()).writeUtf8("\":");
+            JSON.writeJSONString(out, entry.getValue());
+        }
+        sink.writeUtf8(",\"stream\":").writeUtf8(String.valueOf(stream));
+        if (stream) {
+            // 流式模式下在最后一个数据块中返回用量
+            sink.writeUtf8(",\"stream_options\":{\"include_usage\":true}");
+        }
+        sink.writeUtf8(",\"messages\":");
+        writeArray(sink, out, messages);
+        if (tools != null && !tools.isEmpty()) {
+            sink.writeUtf8(",\"tools\":");
+            writeArray(sink, out, tools);
+        }
+        sink.writeUtf8("}");
+    }
+
+    private static void writeArray(BufferedSink sink, OutputStream out, List<?> items) throws IOException {
+        sink.writeByte('[');
+        boolean first = true;
+        for (Object item : items) {
+            if (!first) {
+                sink.writeByte(',');
+            }
+            first = false;
+            JSON.writeJSONString(out, item);
+        }
+        sink.writeByte(']');
+    }
+
+    @Override
+    public String toString() {
+        Buffer buffer = new Buffer();
+        try {
+            writeTo(buffer);
+        } catch (IOException e) {
+            return "ChatRequestBody(" + model + ")";
+        }
+        return buffer.readUtf8();
+    }
+}
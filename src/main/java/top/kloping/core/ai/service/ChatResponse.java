@@ -2,8 +2,10 @@ package top.kloping.core.ai.service;
 
 import com.alibaba.fastjson.annotation.JSONField;
 import lombok.Data;
+import top.kloping.core.ai.dto.AssistantMessage;
 import top.kloping.core.ai.dto.Message;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -27,13 +29,57 @@ public class ChatResponse {
     @JSONField(serialize = false, deserialize = false)
     private Boolean isCompleted = false;
 
+    /**
+     * 工具调用循环的结束原因 非 COMPLETED 时表示提前结束
+     * 因轮数或重复调用结束时 回答来自不提供工具的最后一轮 isCompleted 为true
+     * 因令牌数或耗时结束时 isCompleted 为false 消息中未执行的工具调用已移除 可能没有正文
+     */
+    @JSONField(serialize = false, deserialize = false)
+    private AgentLoop.StopReason stopReason;
+
+    /**
+     * 每一轮请求的耗时与用量
+     */
+    @JSONField(serialize = false, deserialize = false)
+    private List<AgentLoop.Round> rounds;
+
+    /**
+     * 深复制上游返回的字段 不包含上下文与循环信息
+     * 合并的请求共享同一上游响应或命中缓存时 每个调用方持有独立的响应与消息对象 写入上下文后互不影响
+     */
+    public ChatResponse copyOf() {
+        ChatResponse copy = new ChatResponse();
+        copy.setId(id);
+        if (choices != null) {
+            List<Choices> copied = new ArrayList<>(choices.size());
+            for (Choices choice : choices) {
+                copied.add(choice == null ? null : choice.copyOf());
+            }
+            copy.setChoices(copied);
+        }
+        copy.setObject(object);
+        copy.setUsage(usage == null ? null : usage.copyOf());
+        copy.setCreated(created);
+        copy.setSystem_fingerprint(system_fingerprint);
+        copy.setModel(model);
+        return copy;
+    }
+
     @Data
     public static class Choices {
-        @JSONField(deserialize = false)
-        private Message<?> message;
+        private AssistantMessage message;
         private String finish_reason;
         private Integer index;
         private Object logprobs;
+
+        public Choices copyOf() {
+            Choices copy = new Choices();
+            copy.setMessage(message == null ? null : message.copyOf());
+            copy.setFinish_reason(finish_reason);
+            copy.setIndex(index);
+            copy.setLogprobs(logprobs);
+            return copy;
+        }
     }
 
     @Data
@@ -41,6 +87,14 @@ public class ChatResponse {
         private Integer completion_tokens;
         private Integer prompt_tokens;
         private Integer total_tokens;
+
+        public Usage copyOf() {
+            Usage copy = new Usage();
+            copy.setCompletion_tokens(completion_tokens);
+            copy.setPrompt_tokens(prompt_tokens);
+            copy.setTotal_tokens(total_tokens);
+            return copy;
+        }
     }
 
     /**
@@ -49,7 +103,8 @@ public class ChatResponse {
      * @return
      */
     public String response() {
-        Message<?> message = getChatContext().getMessages().get(getChatContext().getMessages().size() - 1);
+        List<Message<?>> messages = getChatContext().getMessagesReadOnly();
+        Message<?> message = messages.get(messages.size() - 1);
         return message.getContent().toString();
     }
 
@@ -0,0 +1,101 @@
+package top.kloping.core.ai.service;
+
+import okhttp3.Call;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一次对冲请求的多个并行尝试
+ * 最先返回成功状态码的尝试胜出 其余尝试的 {@link Call} 立即取消 保证只有一个响应被读取
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class HedgedExchange<T> {
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final List<Attempt> attempts = new ArrayList<>();
+    private Attempt winner;
+    private int pending;
+
+    CompletableFuture<T> getResult() {
+        return result;
+    }
+
+    /**
+     * 开始一次新的尝试
+     *
+     * @return 已有胜出者或已结束时返回null
+     */
+    synchronized Attempt start() {
+        if (winner != null || result.isDone()) {
+            return null;
+        }
+        Attempt attempt = new Attempt();
+        attempts.add(attempt);
+        pending++;
+        return attempt;
+    }
+
+    synchronized boolean isDecided() {
+        return winner != null || result.isDone();
+    }
+
+    void complete(T value) {
+        result.complete(value);
+    }
+
+    /**
+     * 一次尝试失败 胜出者失败或没有其他进行中的尝试时整体失败
+     */
+    void fail(Attempt attempt, Throwable error) {
+        boolean last;
+        synchronized (this) {
+            pending--;
+            last = winner == attempt || (winner == null && pending == 0);
+        }
+        if (last) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 单次尝试
+     */
+    class Attempt {
+        private Call call;
+
+        /**
+         * 关联即将发出的请求
+         *
+         * @return 已有其他尝试胜出时返回false 请求不应再发出
+         */
+        boolean bind(Call call) {
+            synchronized (HedgedExchange.this) {
+                this.call = call;
+                return winner == null || winner == this;
+            }
+        }
+
+        /**
+         * 收到成功响应时争夺胜出 胜出后取消其余尝试
+         */
+        boolean claim() {
+            List<Call> losers = new ArrayList<>();
+            synchronized (HedgedExchange.this) {
+                if (winner != null) {
+                    return winner == this;
+                }
+                winner = this;
+                for (Attempt attempt : attempts) {
+                    if (attempt != this && attempt.call != null) {
+                        losers.add(attempt.call);
+                    }
+                }
+            }
+            losers.forEach(Call::cancel);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package top.kloping.core.ai.service;
+
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.util.TokenEstimator;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * 上下文消息的不可变窗口
+ * 多个窗口共享同一个数组 数组中已发布的位置不会再被改写 因此读取方持有的窗口始终不变 无需加锁或复制
+ * 追加时写入窗口末尾之后的空闲位置 淘汰时仅移动窗口起点 数组写满后将存活的消息搬到新数组 均摊O(1)
+ * 每条消息的令牌估算值在追加时计算一次 以前缀和保存 窗口的总令牌数可直接得出
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+final class MessageWindow extends AbstractList<Message<?>> implements RandomAccess {
+    static final MessageWindow EMPTY = new MessageWindow(new Message<?>[0], new long[1], 0, 0);
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Message<?>[] slots;
+    /**
+     * 令牌数前缀和 prefix[i] 为 slots[0..i) 的令牌数之和
+     */
+    private final long[] prefix;
+    private final int start;
+    private final int end;
+
+    private MessageWindow(Message<?>[] slots, long[] prefix, int start, int end) {
+        this.slots = slots;
+        this.prefix = prefix;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public Message<?> get(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return slots[start + index];
+    }
+
+    @Override
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * 窗口内消息的估算令牌数
+     */
+    long tokenCount() {
+        return prefix[end] - prefix[start];
+    }
+
+    /**
+     * 追加一条消息 只能在最新的窗口上调用
+     *
+     * @param max 窗口最大长度 用于确定新数组的容量 为null不限
+     */
+    MessageWindow append(Message<?> message, Integer max) {
+        int tokens = TokenEstimator.estimate(message);
+        if (end < slots.length) {
+            slots[end] = message;
+            prefix[end + 1] = prefix[end] + tokens;
+            return new MessageWindow(slots, prefix, start, end + 1);
+        }
+        // 数组已写满 存活的消息搬到新数组 容量为窗口上限的2倍 保证下次搬移前至少还能追加上限条消息
+        int size = size();
+        MessageWindow moved = copy(capacity(max, size + 1), i -> false);
+        moved.slots[size] = message;
+        moved.prefix[size + 1] = moved.prefix[size] + tokens;
+        return new MessageWindow(moved.slots, moved.prefix, 0, size + 1);
+    }
+
+    /**
+     * 淘汰最早的若干条消息
+     */
+    MessageWindow dropFirst(int count) {
+        if (count <= 0) {
+            return this;
+        }
+        return new MessageWindow(slots, prefix, Math.min(end, start + count), end);
+    }
+
+    /**
+     * 窗口开头不可拆分的一组消息的条数
+     * 带工具调用的助手消息与其后的工具结果为一组 淘汰时整体移除 避免留下没有结果的 tool_call
+     */
+    int leadingGroupSize() {
+        if (start == end) {
+            return 0;
+        }
+        int i = start + 1;
+        if (isToolCall(slots[start]) || slots[start] instanceof ToolMessage) {
+            while (i < end && slots[i] instanceof ToolMessage) {
+                i++;
+            }
+        }
+        return i - start;
+    }
+
+    private static boolean isToolCall(Message<?> message) {
+        return message instanceof AssistantMessage && ((AssistantMessage) message).getTool_calls() != null
+                && !((AssistantMessage) message).getTool_calls().isEmpty();
+    }
+
+    /**
+     * 移除满足条件的消息 一次线性遍历 结果写入新数组
+     */
+    MessageWindow removeIf(Predicate<Message<?>> filter, Integer max) {
+        MessageWindow kept = copy(capacity(max, size()), i -> filter.test(slots[i]));
+        return kept.size() == size() ? this : kept;
+    }
+
+    /**
+     * 以一条消息替换开头的若干条消息 其余消息的令牌估算值沿用
+     */
+    MessageWindow replacePrefix(int count, Message<?> replacement, Integer max) {
+        MessageWindow rest = dropFirst(count);
+        Message<?>[] copied = new Message<?>[capacity(max, rest.size() + 1)];
+        long[] sums = new long[copied.length + 1];
+        copied[0] = replacement;
+        sums[1] = TokenEstimator.estimate(replacement);
+        for (int i = rest.start; i < rest.end; i++) {
+            int j = i - rest.start + 1;
+            copied[j] = slots[i];
+            sums[j + 1] = sums[j] + (prefix[i + 1] - prefix[i]);
+        }
+        return new MessageWindow(copied, sums, 0, rest.size() + 1);
+    }
+
+    /**
+     * 按策略处理工具交互中的消息 从新到旧一次遍历即可得出每条消息所属交互的新旧
+     * 未改动的消息沿用令牌估算值 只重新估算被替换的消息
+     */
+    MessageWindow applyToolPolicy(ToolResultPolicy policy, Integer max) {
+        int size = size();
+        Message<?>[] reversed = new Message<?>[size];
+        long[] tokens = new long[size];
+        int count = 0;
+        int exchanges = 0;
+        boolean changed = false;
+        for (int i = end - 1; i >= start; i--) {
+            Message<?> message = slots[i];
+            Message<?> result = message;
+            if (ToolResultPolicy.isToolExchange(message)) {
+                result = policy.apply(message, exchanges);
+                if (!(message instanceof ToolMessage)) {
+                    // 助手消息是一次交互的开头 更早的消息属于更早的交互
+                    exchanges++;
+                }
+            }
+            if (result == null) {
+                changed = true;
+                continue;
+            }
+            changed |= result != message;
+            reversed[count] = result;
+            tokens[count] = result == message ? prefix[i + 1] - prefix[i] : TokenEstimator.estimate(result);
+            count++;
+        }
+        if (!changed) {
+            return this;
+        }
+        Message<?>[] copied = new Message<?>[capacity(max, count)];
+        long[] sums = new long[copied.length + 1];
+        for (int j = 0; j < count; j++) {
+            copied[j] = reversed[count - 1 - j];
+            sums[j + 1] = sums[j] + tokens[count - 1 - j];
+        }
+        return new MessageWindow(copied, sums, 0, count);
+    }
+
+    /**
+     * 由任意消息列表构建窗口 重新估算每条消息的令牌数
+     */
+    static MessageWindow of(List<Message<?>> messages, Integer max) {
+        int count = messages.size();
+        Message<?>[] copied = new Message<?>[capacity(max, count)];
+        long[] sums = new long[copied.length + 1];
+        for (int i = 0; i < count; i++) {
+            copied[i] = messages.get(i);
+            sums[i + 1] = sums[i] + TokenEstimator.estimate(copied[i]);
+        }
+        return new MessageWindow(copied, sums, 0, count);
+    }
+
+    private static int capacity(Integer max, int size) {
+        return Math.max(MIN_CAPACITY, 2 * (max != null ? Math.max(max, size) : size));
+    }
+
+    private interface SlotFilter {
+        boolean skip(int slot);
+    }
+
+    /**
+     * 将存活的消息及其令牌估算值复制到新数组 不重新估算
+     */
+    private MessageWindow copy(int capacity, SlotFilter skip) {
+        Message<?>[] copied = new Message<?>[capacity];
+        long[] sums = new long[capacity + 1];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (!skip.skip(i)) {
+                copied[count] = slots[i];
+                sums[count + 1] = sums[count] + (prefix[i + 1] - prefix[i]);
+                count++;
+            }
+        }
+        return new MessageWindow(copied, sums, 0, count);
+    }
+}
@@ -28,6 +28,11 @@ import java.util.concurrent.ConcurrentHashMap;
 public class RequestTool {
     private final String type = "function";
     private Function function;
+    /**
+     * 工具是否有副作用 不发送给模型
+     */
+    @JSONField(serialize = false)
+    private boolean sideEffect;
 
     @Data
     @Accessors(chain = true)
@@ -77,6 +82,7 @@ public class RequestTool {
         String ret = annotation.ret();
         if (ret != null && !ret.isEmpty()) desc += ".return:" + ret;
         RequestTool requestTool = new RequestTool();
+        requestTool.setSideEffect(annotation.sideEffect());
         RequestTool.Function function = new RequestTool.Function();
         String funName = annotation.name().isEmpty() ? declaredMethod.getName() : annotation.name();
         //  保证 方法名不重复 但浪费token
@@ -161,6 +167,13 @@ public class RequestTool {
     }
 
 
+    /**
+     * 是否为本地注册的工具
+     */
+    public static boolean hasTool(String name) {
+        return name != null && NAME_2_METHOD.containsKey(name);
+    }
+
     public static List<ToolMessage> toolCall(List<AssistantMessage.ToolCall> toolCalls) {
         if (toolCalls == null || toolCalls.isEmpty()) {
             return Collections.emptyList();
@@ -168,49 +181,57 @@ public class RequestTool {
 
         List<ToolMessage> list = new ArrayList<>();
         for (AssistantMessage.ToolCall toolCall : toolCalls) {
-            try {
-                String name = toolCall.getFunction().getName();
-                if (name == null || name.trim().isEmpty()) {
-//                    list.add(new ToolMessage("工具名称不能为空", toolCall.getId()));
-                    continue;
-                }
+            ToolMessage toolMessage = toolCall(toolCall);
+            if (toolMessage != null) {
+                list.add(toolMessage);
+            }
+        }
+        return list;
+    }
 
-                String arguments = toolCall.getFunction().getArguments();
-                JSONObject jsonObject;
-                try {
-                    jsonObject = JSON.parseObject(arguments);
-                } catch (Exception e) {
-//                    list.add(new ToolMessage("参数解析失败: " + e.getMessage(), toolCall.getId()));
-                    continue;
-                }
+    /**
+     * 调用单个本地工具
+     *
+     * @return 工具名为空、参数无法解析或未找到工具时返回null
+     */
+    public static ToolMessage toolCall(AssistantMessage.ToolCall toolCall) {
+        try {
+            String name = toolCall.getFunction().getName();
+            if (name == null || name.trim().isEmpty()) {
+                return null;
+            }
 
-                Map.Entry<Object, Method> entry = NAME_2_METHOD.get(name);
-                if (entry == null) {
-//                    list.add(new ToolMessage("未找到工具: " + name, toolCall.getId()));
-                    continue;
-                }
+            String arguments = toolCall.getFunction().getArguments();
+            JSONObject jsonObject;
+            try {
+                jsonObject = JSON.parseObject(arguments);
+            } catch (Exception e) {
+                return null;
+            }
 
-                Object tool = entry.getKey();
-                Method method = entry.getValue();
-                String result;
-
-                try {
-                    Object[] args = getParams(method, jsonObject);
-                    Object returnValue = method.invoke(tool, args);
-                    result = returnValue == null ? "" : returnValue.toString();
-                } catch (Exception e) {
-                    result = "工具调用失败: " + e.getMessage();
-                    // 记录详细错误信息用于调试
-                    log.error("Tool invocation failed for {}: {}", name, e.getMessage(), e);
-                }
+            Map.Entry<Object, Method> entry = NAME_2_METHOD.get(name);
+            if (entry == null) {
+                return null;
+            }
+
+            Object tool = entry.getKey();
+            Method method = entry.getValue();
+            String result;
 
-                list.add(new ToolMessage(result, toolCall.getId(), true));
+            try {
+                Object[] args = getParams(method, jsonObject);
+                Object returnValue = method.invoke(tool, args);
+                result = returnValue == null ? "" : returnValue.toString();
             } catch (Exception e) {
-                log.error("Unexpected error processing tool call: {}", e.getMessage(), e);
-//                list.add(new ToolMessage("处理工具调用时发生意外错误: " + e.getMessage(),
-//                        toolCall.getId()));
+                result = "工具调用失败: " + e.getMessage();
+                // 记录详细错误信息用于调试
+                log.error("Tool invocation failed for {}: {}", name, e.getMessage(), e);
             }
+
+            return new ToolMessage(result, toolCall.getId(), true);
+        } catch (Exception e) {
+            log.error("Unexpected error processing tool call: {}", e.getMessage(), e);
+            return null;
         }
-        return list;
     }
 }
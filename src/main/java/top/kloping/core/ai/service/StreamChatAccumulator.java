@@ -0,0 +1,179 @@
+package top.kloping.core.ai.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 流式响应累加器
+ * 逐条解析 SSE 的 data 块 并拼装成完整的 {@link ChatResponse}
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class StreamChatAccumulator {
+    public static final String DATA_PREFIX = "data:";
+    public static final String DONE = "[DONE]";
+
+    private final ChatResponse chatResponse = new ChatResponse();
+    private final StringBuilder content = new StringBuilder();
+    private final Map<Integer, AssistantMessage.ToolCall> toolCalls = new TreeMap<>();
+    private String finishReason;
+    private boolean done = false;
+
+    /**
+     * 处理一行 SSE 数据
+     *
+     * @return 本行携带的增量文本 没有则返回null
+     */
+    public String acceptLine(String line) {
+        if (line == null || !line.startsWith(DATA_PREFIX)) {
+            return null;
+        }
+        String data = line.substring(DATA_PREFIX.length()).trim();
+        if (data.isEmpty()) {
+            return null;
+        }
+        if (DONE.equals(data)) {
+            done = true;
+            return null;
+        }
+        JSONObject chunk;
+        try {
+            chunk = JSON.parseObject(data);
+        } catch (Exception e) {
+            throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
+                    "流式数据解析失败: " + data, e);
+        }
+        if (chunk.containsKey("error")) {
+            throw new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED,
+                    "流式响应返回错误: " + chunk.getString("error"));
+        }
+        return acceptChunk(chunk);
+    }
+
+    private String acceptChunk(JSONObject chunk) {
+        if (chatResponse.getId() == null) {
+            chatResponse.setId(chunk.getString("id"));
+            chatResponse.setObject(chunk.getString("object"));
+            chatResponse.setCreated(chunk.getLong("created"));
+            chatResponse.setModel(chunk.getString("model"));
+            chatResponse.setSystem_fingerprint(chunk.getString("system_fingerprint"));
+        }
+        JSONObject usage = chunk.getJSONObject("usage");
+        if (usage != null) {
+            chatResponse.setUsage(usage.toJavaObject(ChatResponse.Usage.class));
+        }
+        JSONArray choices = chunk.getJSONArray("choices");
+        if (choices == null || choices.isEmpty()) {
+            return null;
+        }
+        JSONObject choice = choices.getJSONObject(0);
+        String reason = choice.getString("finish_reason");
+        if (reason != null) {
+            finishReason = reason;
+        }
+        JSONObject delta = choice.getJSONObject("delta");
+        if (delta == null) {
+            return null;
+        }
+        JSONArray deltaToolCalls = delta.getJSONArray("tool_calls");
+        if (deltaToolCalls != null) {
+            for (int i = 0; i < deltaToolCalls.size(); i++) {
+                acceptToolCall(deltaToolCalls.getJSONObject(i));
+            }
+        }
+        String text = delta.getString("content");
+        if (text != null && !text.isEmpty()) {
+            content.append(text);
+            return text;
+        }
+        return null;
+    }
+
+    /**
+     * 工具调用按 index 分片返回 arguments 需要拼接
+     */
+    private void acceptToolCall(JSONObject part) {
+        Integer index = part.getInteger("index");
+        if (index == null) {
+            index = toolCalls.size();
+        }
+        AssistantMessage.ToolCall toolCall = toolCalls.computeIfAbsent(index, k -> {
+            AssistantMessage.ToolCall call = new AssistantMessage.ToolCall();
+            call.setIndex(k);
+            call.setFunction(new AssistantMessage.ToolCallFunction());
+            return call;
+        });
+        if (part.getString("id") != null) {
+            toolCall.setId(part.getString("id"));
+        }
+        if (part.getString("type") != null) {
+            toolCall.setType(part.getString("type"));
+        }
+        JSONObject function = part.getJSONObject("function");
+        if (function != null) {
+            AssistantMessage.ToolCallFunction callFunction = toolCall.getFunction();
+            if (function.getString("name") != null) {
+                callFunction.setName(function.getString("name"));
+            }
+            String arguments = function.getString("arguments");
+            if (arguments != null) {
+                callFunction.setArguments(callFunction.getArguments() == null
+                        ? arguments : callFunction.getArguments() + arguments);
+            }
+        }
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 流在结束标记之前断开且没有收到 finish_reason 时抛出异常 避免把不完整的回复当作完整结果
+     */
+    public void ensureComplete() {
+        if (!done && finishReason == null) {
+            throw new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR,
+                    "流式响应在结束前中断 已接收 " + content.length() + " 字符");
+        }
+    }
+
+    /**
+     * 拼装最终的助手消息
+     */
+    public AssistantMessage toAssistantMessage() {
+        AssistantMessage assistantMessage = new AssistantMessage();
+        assistantMessage.setContent(content.toString());
+        if (!toolCalls.isEmpty()) {
+            List<AssistantMessage.ToolCall> calls = new ArrayList<>(toolCalls.values());
+            for (AssistantMessage.ToolCall call : calls) {
+                if (call.getType() == null) {
+                    call.setType("function");
+                }
+            }
+            assistantMessage.setTool_calls(calls);
+        }
+        return assistantMessage;
+    }
+
+    /**
+     * 拼装最终响应
+     */
+    public ChatResponse toChatResponse(AssistantMessage assistantMessage) {
+        ChatResponse.Choices choice = new ChatResponse.Choices();
+        choice.setIndex(0);
+        choice.setMessage(assistantMessage);
+        choice.setFinish_reason(finishReason);
+        chatResponse.setChoices(Collections.singletonList(choice));
+        return chatResponse;
+    }
+}
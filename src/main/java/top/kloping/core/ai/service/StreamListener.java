@@ -0,0 +1,34 @@
+package top.kloping.core.ai.service;
+
+/**
+ * 流式对话监听器
+ * 在模型逐段返回内容时被回调 回调发生在网络线程中 不应执行耗时操作
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@FunctionalInterface
+public interface StreamListener {
+    /**
+     * 收到一段增量内容
+     *
+     * @param delta 本次新增的文本
+     */
+    void onDelta(String delta);
+
+    /**
+     * 流结束 完整的助手消息已写入上下文
+     *
+     * @param response 本轮完整响应
+     */
+    default void onComplete(ChatResponse response) {
+    }
+
+    /**
+     * 流处理失败
+     *
+     * @param throwable 异常
+     */
+    default void onError(Throwable throwable) {
+    }
+}
@@ -0,0 +1,98 @@
+package top.kloping.core.ai.service;
+
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.util.TokenEstimator;
+
+/**
+ * 工具调用消息的压缩策略
+ * 对话结束后对上下文做一次线性遍历 逐条决定工具调用消息保留、替换还是移除
+ * 一次工具交互指一条带工具调用的助手消息及其工具结果 策略需保证同一交互的调用与结果同时保留或同时移除
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@FunctionalInterface
+public interface ToolResultPolicy {
+    /**
+     * 处理一条工具调用消息 只会传入带工具调用的助手消息与工具结果消息
+     *
+     * @param message 消息 不应修改 需要改动时返回新消息
+     * @param age     所属工具交互的新旧 0为最近一次 1为之前一次 以此类推
+     * @return 处理后的消息 返回null表示移除
+     */
+    Message<?> apply(Message<?> message, int age);
+
+    /**
+     * 依次应用另一个策略 已被移除的消息不再传入
+     */
+    default ToolResultPolicy andThen(ToolResultPolicy next) {
+        return (message, age) -> {
+            Message<?> result = apply(message, age);
+            return result == null ? null : next.apply(result, age);
+        };
+    }
+
+    /**
+     * 移除全部工具交互 即 {@link ChatRequest#getClearToolMessage()} 的行为
+     */
+    static ToolResultPolicy removeAll() {
+        return (message, age) -> null;
+    }
+
+    /**
+     * 只保留最近的若干次工具交互
+     */
+    static ToolResultPolicy keepLast(int exchanges) {
+        return (message, age) -> age < exchanges ? message : null;
+    }
+
+    /**
+     * 将较早的工具结果替换为简短的占位说明 保留工具调用本身
+     *
+     * @param exchanges 保留完整结果的最近交互次数
+     */
+    static ToolResultPolicy stubBefore(int exchanges) {
+        return (message, age) -> {
+            if (age < exchanges || !(message instanceof ToolMessage)) {
+                return message;
+            }
+            ToolMessage toolMessage = (ToolMessage) message;
+            int length = toolMessage.getContent() == null ? 0 : toolMessage.getContent().length();
+            return new ToolMessage("[已省略的工具结果 " + length + " 字符]", toolMessage.getTool_call_id());
+        };
+    }
+
+    /**
+     * 截断估算令牌数超过上限的工具结果
+     */
+    static ToolResultPolicy truncate(int maxTokens) {
+        return (message, age) -> {
+            if (!(message instanceof ToolMessage) || ((ToolMessage) message).getContent() == null) {
+                return message;
+            }
+            ToolMessage toolMessage = (ToolMessage) message;
+            String content = toolMessage.getContent();
+            int tokens = TokenEstimator.estimate(content);
+            if (tokens <= maxTokens) {
+                return message;
+            }
+            // 按令牌比例折算保留的字符数
+            int keep = (int) ((long) content.length() * maxTokens / tokens);
+            return new ToolMessage(content.substring(0, keep) + "...[已截断 " + (content.length() - keep) + " 字符]",
+                    toolMessage.getTool_call_id());
+        };
+    }
+
+    /**
+     * 是否为工具交互中的消息
+     */
+    static boolean isToolExchange(Message<?> message) {
+        if (message instanceof ToolMessage) {
+            return true;
+        }
+        return message instanceof AssistantMessage && ((AssistantMessage) message).getTool_calls() != null
+                && !((AssistantMessage) message).getTool_calls().isEmpty();
+    }
+}
@@ -0,0 +1,106 @@
+package top.kloping.core.ai.service;
+
+import top.kloping.core.ai.limit.Priority;
+import top.kloping.core.ai.limit.RateLimiterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一次上游模型请求
+ * 记录请求体及成功的一次尝试预约的限流额度 响应解析后按实际用量结算
+ * 流式内容一旦交付给调用方 该请求便不能再被重放 所属对话取消时中止排队与网络调用
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class UpstreamCall {
+    private final ChatRequestBody body;
+    private final Priority priority;
+    private final long deadline;
+    private final Cancellation cancellation;
+    private volatile RateLimiterRegistry.Reservation reservation;
+    private volatile boolean delivered;
+
+    /**
+     * @param cancellation 所属对话的取消信号 多个对话共享的请求使用共享的信号 全部对话取消后才触发 为null时不可取消
+     */
+    UpstreamCall(ChatRequestBody body, Priority priority, long deadline, Cancellation cancellation) {
+        this.body = body;
+        this.priority = priority;
+        this.deadline = deadline;
+        this.cancellation = cancellation;
+    }
+
+    ChatRequestBody getBody() {
+        return body;
+    }
+
+    Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 截止时间 毫秒时间戳 {@link Long#MAX_VALUE} 表示不限
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * 距截止时间的剩余毫秒数 不限时返回 {@link Long#MAX_VALUE}
+     */
+    long remainingMillis() {
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    boolean isCancelled() {
+        return cancellation != null && cancellation.isCancelled();
+    }
+
+    /**
+     * 所属对话取消时一并取消该等待
+     */
+    <T> CompletableFuture<T> bindCancel(CompletableFuture<T> future) {
+        return cancellation == null ? future : cancellation.bind(future);
+    }
+
+    /**
+     * 标记已有内容交付给调用方
+     */
+    void markDelivered() {
+        delivered = true;
+    }
+
+    /**
+     * 是否可以安全地重新发送
+     */
+    boolean isReplayable() {
+        return !delivered;
+    }
+
+    /**
+     * 记录成功的一次尝试的预约 其余尝试的预约由各自结算
+     */
+    void setReservation(RateLimiterRegistry.Reservation reservation) {
+        this.reservation = reservation;
+    }
+
+    /**
+     * 按响应中的实际用量结算限流额度
+     *
+     * @param chatResponse 请求失败时为null 保留预估值
+     */
+    void settle(ChatResponse chatResponse) {
+        RateLimiterRegistry.Reservation r = reservation;
+        if (r == null) {
+            return;
+        }
+        Integer actual = chatResponse == null || chatResponse.getUsage() == null
+                ? null : chatResponse.getUsage().getTotal_tokens();
+        r.settle(actual);
+    }
+}
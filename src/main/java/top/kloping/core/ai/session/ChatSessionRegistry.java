@@ -0,0 +1,342 @@
+package top.kloping.core.ai.session;
+
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+import top.kloping.core.ai.service.ChatContext;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 会话注册表
+ * 按会话ID保存互相隔离的 {@link ChatContext}
+ * 会话数有上限 超出时按最久未访问(LRU)批量淘汰 空闲超时的会话由后台定期清理
+ * 配置令牌总数上限时 按各会话消息的估算令牌数统计总量 超出时同样按最久未访问淘汰
+ * 总量的统计与淘汰在后台进行 访问会话时触发 多次触发合并为一次
+ * 有进行中对话的会话不会被淘汰 被淘汰或移除的上下文解除变更监听 之后的写入不再记入会话日志
+ * 淘汰后通知淘汰监听 以便释放会话占用的日志文件等资源
+ * 创建(含从会话日志恢复)在映射锁之外进行 期间映射中只放置占位 同一会话的其他调用方等待同一次创建
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class ChatSessionRegistry {
+    /**
+     * 超出上限时一次淘汰的比例 避免每次创建都扫描全部会话
+     */
+    private static final double EVICT_RATIO = 0.1;
+
+    // 值在创建完成前为未完成的占位
+    private final ConcurrentMap<String, CompletableFuture<ChatContext>> sessions = new ConcurrentHashMap<>();
+    private final Function<String, ChatContext> factory;
+    private final Consumer<String> evictionListener;
+    private final int maxSessions;
+    private final long idleTimeoutMs;
+    private final Long maxTotalTokens;
+    private final AtomicBoolean sizeCheckScheduled = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-cleanup");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ChatSessionRegistry(AiModelProperties.Session properties, Function<String, ChatContext> factory) {
+        this(properties, factory, null);
+    }
+
+    /**
+     * @param evictionListener 会话因数量上限或空闲超时被淘汰后调用 参数为会话ID 可为null
+     */
+    public ChatSessionRegistry(AiModelProperties.Session properties, Function<String, ChatContext> factory,
+                               Consumer<String> evictionListener) {
+        AiModelProperties.Session config = properties != null ? properties : new AiModelProperties.Session();
+        this.factory = factory;
+        this.evictionListener = evictionListener;
+        this.maxSessions = config.getMaxSessions();
+        this.idleTimeoutMs = TimeUnit.SECONDS.toMillis(config.getIdleTimeout());
+        this.maxTotalTokens = config.getMaxTotalTokens();
+        long period = Math.max(1, Math.min(60, config.getIdleTimeout()));
+        scheduler.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 获取会话上下文 不存在时创建
+     */
+    public ChatContext getOrCreate(String sessionId) {
+        if (sessionId == null || sessionId.isEmpty()) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION,
+                    "Session id cannot be null or empty");
+        }
+        while (true) {
+            CompletableFuture<ChatContext> created = new CompletableFuture<>();
+            ChatContext[] touched = new ChatContext[1];
+            // 在映射内刷新访问时间 与淘汰互斥 避免取到刚被淘汰的上下文
+            CompletableFuture<ChatContext> entry = sessions.compute(sessionId, (id, existing) -> {
+                if (existing == null) {
+                    return created;
+                }
+                ChatContext context = loaded(existing);
+                if (context != null) {
+                    context.touch();
+                    touched[0] = context;
+                }
+                return existing;
+            });
+            if (touched[0] != null) {
+                scheduleSizeCheck();
+                return touched[0];
+            }
+            if (entry == created) {
+                create(sessionId, created);
+                if (sessions.size() > maxSessions) {
+                    evictOverflow();
+                }
+            } else {
+                await(entry);
+            }
+            // 创建完成后回到映射内刷新访问时间
+        }
+    }
+
+    /**
+     * 在映射锁之外创建上下文 失败时移除占位
+     */
+    private void create(String sessionId, CompletableFuture<ChatContext> created) {
+        ChatContext context;
+        try {
+            context = factory.apply(sessionId);
+        } catch (RuntimeException e) {
+            sessions.remove(sessionId, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        context.touch();
+        created.complete(context);
+    }
+
+    /**
+     * 等待其他调用方的创建完成
+     */
+    private static ChatContext await(CompletableFuture<ChatContext> entry) {
+        try {
+            return entry.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 已创建完成的上下文
+     *
+     * @return 仍在创建或创建失败时返回null
+     */
+    private static ChatContext loaded(CompletableFuture<ChatContext> entry) {
+        return entry.isDone() && !entry.isCompletedExceptionally() ? entry.join() : null;
+    }
+
+    /**
+     * 获取已存在的会话上下文 正在创建时等待创建完成
+     *
+     * @return 不存在时返回null
+     */
+    public ChatContext get(String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        CompletableFuture<ChatContext> entry = sessions.get(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        ChatContext context = entry.exceptionally(e -> null).join();
+        if (context != null) {
+            context.touch();
+        }
+        return context;
+    }
+
+    public ChatContext remove(String sessionId) {
+        CompletableFuture<ChatContext> entry = sessionId == null ? null : sessions.remove(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        // 仍在创建时等待创建完成后解除监听
+        ChatContext context = entry.exceptionally(e -> null).join();
+        if (context != null) {
+            context.setChangeListener(null);
+        }
+        return context;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 已创建完成的会话的估算令牌总数
+     */
+    public long totalTokens() {
+        long total = 0;
+        for (CompletableFuture<ChatContext> entry : sessions.values()) {
+            ChatContext context = loaded(entry);
+            if (context != null) {
+                total += context.getTokenCount();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 在后台检查令牌总数 已有待执行的检查时忽略
+     */
+    private void scheduleSizeCheck() {
+        if (maxTotalTokens == null || !sizeCheckScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.execute(() -> {
+                sizeCheckScheduled.set(false);
+                evictOversize();
+            });
+        } catch (RejectedExecutionException e) {
+            // 已销毁
+            sizeCheckScheduled.set(false);
+        }
+    }
+
+    /**
+     * 令牌总数超出上限时 淘汰最久未访问的会话 直到总数回落到上限的 90%
+     */
+    private synchronized void evictOversize() {
+        if (maxTotalTokens == null) {
+            return;
+        }
+        List<Map.Entry<String, ChatContext>> loaded = new ArrayList<>(sessions.size());
+        long total = 0;
+        for (Map.Entry<String, CompletableFuture<ChatContext>> entry : sessions.entrySet()) {
+            ChatContext context = loaded(entry.getValue());
+            if (context != null) {
+                loaded.add(Map.entry(entry.getKey(), context));
+                total += context.getTokenCount();
+            }
+        }
+        if (total <= maxTotalTokens) {
+            return;
+        }
+        long target = (long) (maxTotalTokens * (1 - EVICT_RATIO));
+        loaded.sort(Comparator.comparingLong(e -> e.getValue().getLastAccessTime()));
+        int evicted = 0;
+        for (Map.Entry<String, ChatContext> entry : loaded) {
+            if (total <= target) {
+                break;
+            }
+            ChatContext context = entry.getValue();
+            long tokens = context.getTokenCount();
+            if (evict(entry.getKey(), context, context.getLastAccessTime())) {
+                total -= tokens;
+                evicted++;
+            }
+        }
+        log.debug("Evicted {} sessions over the token limit, remaining {} tokens", evicted, total);
+    }
+
+    /**
+     * 淘汰最久未访问的会话 直到数量回落到上限的 90%
+     */
+    private synchronized void evictOverflow() {
+        int overflow = sessions.size() - maxSessions;
+        if (overflow <= 0) {
+            return;
+        }
+        int count = overflow + (int) (maxSessions * EVICT_RATIO);
+        // 大顶堆保留最旧的 count 个会话
+        PriorityQueue<Map.Entry<String, ChatContext>> oldest = new PriorityQueue<>(count + 1,
+                Comparator.comparingLong((Map.Entry<String, ChatContext> e) -> e.getValue().getLastAccessTime())
+                        .reversed());
+        for (Map.Entry<String, CompletableFuture<ChatContext>> entry : sessions.entrySet()) {
+            ChatContext context = loaded(entry.getValue());
+            if (context == null) {
+                continue;
+            }
+            oldest.offer(Map.entry(entry.getKey(), context));
+            if (oldest.size() > count) {
+                oldest.poll();
+            }
+        }
+        int evicted = 0;
+        for (Map.Entry<String, ChatContext> entry : oldest) {
+            if (evict(entry.getKey(), entry.getValue(), entry.getValue().getLastAccessTime())) {
+                evicted++;
+            }
+        }
+        log.debug("Evicted {} least recently used sessions, remaining {}", evicted, sessions.size());
+    }
+
+    /**
+     * 清理空闲超时的会话
+     */
+    private void evictIdle() {
+        evictOversize();
+        long expireBefore = System.currentTimeMillis() - idleTimeoutMs;
+        int evicted = 0;
+        for (Map.Entry<String, CompletableFuture<ChatContext>> entry : sessions.entrySet()) {
+            ChatContext context = loaded(entry.getValue());
+            if (context != null && context.getLastAccessTime() < expireBefore
+                    && evict(entry.getKey(), context, expireBefore - 1)) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            log.debug("Cleaned up {} idle sessions", evicted);
+        }
+    }
+
+    /**
+     * 淘汰一个已创建完成的会话 与该会话的获取互斥 期间被访问过或有进行中的对话时放弃
+     *
+     * @param accessedBefore 最后访问时间不晚于该值时才淘汰
+     * @return 是否淘汰
+     */
+    private boolean evict(String sessionId, ChatContext expected, long accessedBefore) {
+        boolean[] evicted = new boolean[1];
+        sessions.computeIfPresent(sessionId, (id, entry) -> {
+            ChatContext context = loaded(entry);
+            if (context != expected || context.isPinned() || context.getLastAccessTime() > accessedBefore) {
+                return entry;
+            }
+            evicted[0] = true;
+            return null;
+        });
+        if (evicted[0]) {
+            expected.setChangeListener(null);
+            if (evictionListener != null) {
+                try {
+                    evictionListener.accept(sessionId);
+                } catch (RuntimeException e) {
+                    log.warn("Session eviction listener failed for {}: {}", sessionId, e.getMessage());
+                }
+            }
+        }
+        return evicted[0];
+    }
+
+    /**
+     * 销毁注册表
+     */
+    public void destroy() {
+        sessions.clear();
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,143 @@
+package top.kloping.core.ai.session;
+
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.*;
+import top.kloping.core.ai.service.ChatContext;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * 上下文压缩器
+ * 上下文的消息数或令牌数接近上限时 在后台将早期对话总结为一条 {@link SummaryMessage} 替换原消息
+ * 总结期间对话照常进行 完成时若上下文开头已发生变化则放弃本次结果
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class ContextCompactor {
+    /**
+     * 单条消息写入总结请求的最大字符数
+     */
+    private static final int MAX_MESSAGE_CHARS = 2000;
+
+    private final AiModelProperties.Compaction config;
+    /**
+     * 发送总结请求 参数为系统提示词与待总结的对话文本 返回摘要正文
+     */
+    private final BiFunction<String, String, CompletableFuture<String>> summarizer;
+    private final Set<ChatContext> running = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private final AtomicLong compacted = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ContextCompactor(AiModelProperties.Compaction config,
+                            BiFunction<String, String, CompletableFuture<String>> summarizer) {
+        this.config = config;
+        this.summarizer = summarizer;
+    }
+
+    /**
+     * 需要时在后台压缩上下文 立即返回
+     *
+     * @return 本次是否发起了压缩
+     */
+    public boolean compactIfNeeded(ChatContext context) {
+        if (!isOverThreshold(context) || !running.add(context)) {
+            return false;
+        }
+        List<Message<?>> snapshot = context.getMessagesReadOnly();
+        int cut = cutPoint(snapshot);
+        if (cut < 2) {
+            running.remove(context);
+            return false;
+        }
+        List<Message<?>> leading = snapshot.subList(0, cut);
+        log.debug("compacting {} of {} messages", cut, snapshot.size());
+        summarizer.apply(config.getPrompt(), transcript(leading)).whenComplete((summary, throwable) -> {
+            try {
+                if (throwable != null || summary == null || summary.trim().isEmpty()) {
+                    failed.incrementAndGet();
+                    log.warn("context compaction failed: {}", throwable != null ? throwable.getMessage() : "empty summary");
+                } else if (context.replaceLeading(leading, new SummaryMessage(summary.trim()))) {
+                    compacted.incrementAndGet();
+                } else {
+                    // 总结期间上下文开头已被淘汰或清空
+                    discarded.incrementAndGet();
+                }
+            } finally {
+                running.remove(context);
+            }
+        });
+        return true;
+    }
+
+    private boolean isOverThreshold(ChatContext context) {
+        int size = context.getMessageCount();
+        if (size <= config.getKeepRecent() + 1) {
+            return false;
+        }
+        double ratio = config.getTriggerRatio();
+        return (context.getMax() != null && size >= context.getMax() * ratio)
+                || (context.getMaxTokens() != null && context.getTokenCount() >= context.getMaxTokens() * ratio);
+    }
+
+    /**
+     * 参与总结的消息数 保留最近的消息 且不把工具结果与其调用拆开
+     */
+    private int cutPoint(List<Message<?>> snapshot) {
+        int cut = snapshot.size() - config.getKeepRecent();
+        while (cut > 0 && cut < snapshot.size() && snapshot.get(cut) instanceof ToolMessage) {
+            cut++;
+        }
+        if (cut > 0 && cut <= snapshot.size() && isToolCall(snapshot.get(cut - 1))) {
+            // 工具结果尚未写入 该调用留在上下文中
+            cut--;
+        }
+        return Math.max(0, cut);
+    }
+
+    private static boolean isToolCall(Message<?> message) {
+        return message instanceof AssistantMessage && ((AssistantMessage) message).getTool_calls() != null
+                && !((AssistantMessage) message).getTool_calls().isEmpty();
+    }
+
+    /**
+     * 将消息转为总结请求中的对话文本
+     */
+    private static String transcript(List<Message<?>> messages) {
+        StringBuilder builder = new StringBuilder();
+        for (Message<?> message : messages) {
+            builder.append(message.getRole()).append(": ");
+            if (message.getContent() != null) {
+                String content = message.getContent().toString();
+                builder.append(content.length() > MAX_MESSAGE_CHARS
+                        ? content.substring(0, MAX_MESSAGE_CHARS) + "..." : content);
+            }
+            if (message instanceof AssistantMessage && ((AssistantMessage) message).getTool_calls() != null) {
+                for (AssistantMessage.ToolCall toolCall : ((AssistantMessage) message).getTool_calls()) {
+                    if (toolCall.getFunction() != null) {
+                        builder.append(" [调用工具 ").append(toolCall.getFunction().getName())
+                                .append(' ').append(toolCall.getFunction().getArguments()).append(']');
+                    }
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    public String getStats() {
+        return String.format("Compaction stats - running: %d, compacted: %d, discarded: %d, failed: %d",
+                running.size(), compacted.get(), discarded.get(), failed.get());
+    }
+}
@@ -0,0 +1,626 @@
+package top.kloping.core.ai.session;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.*;
+import top.kloping.core.ai.exception.AiModelException;
+import top.kloping.core.ai.service.ChatContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 会话日志
+ * 每个会话一个目录 消息的追加与其他变更按顺序写入追加日志 日志分段 每段以一份完整快照开头
+ * 追加写入旧段 其余变更(清空、移除、替换)、追加达到快照间隔或段超出大小时写快照开启新段 新段刷盘后删除旧段
+ * 所有会话的写入由单个线程完成 按刷盘间隔合并为一次刷盘
+ * 启动时不读取任何日志 会话首次被访问时才从最新一段恢复 恢复耗时只与该会话最新一段的大小有关
+ * <p>
+ * 每条记录一行 格式为 CRC32 + 制表符 + JSON 宕机时写了一半的记录校验失败 恢复时丢弃
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Slf4j
+public class SessionJournal {
+    private static final String SUFFIX = ".log";
+    private static final String SNAPSHOT = "s";
+    private static final String APPEND = "a";
+    /**
+     * 清理过期会话日志的间隔
+     */
+    private static final long SWEEP_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    /**
+     * 恢复前等待该会话排队中的记录写完的最长时间
+     */
+    private static final long FLUSH_WAIT_MS = 5000;
+
+    private final Path root;
+    private final long fsyncIntervalMs;
+    private final int snapshotInterval;
+    private final long segmentSize;
+    private final int maxOpenFiles;
+    private final long retentionMs;
+
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    /**
+     * 各会话排队中尚未写入的记录数 恢复时据此判断是否需要等待
+     */
+    private final ConcurrentMap<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // 以下仅由写线程访问
+    private final Map<String, Segment> segments = new HashMap<>();
+    private final Map<String, Segment> openFiles;
+    private final Set<Segment> dirty = new LinkedHashSet<>();
+    private final Set<Path> createdDirs = new LinkedHashSet<>();
+    private final List<Path> obsolete = new ArrayList<>();
+    private long lastSync;
+    private long nextSweep;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong restored = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public SessionJournal(AiModelProperties.Journal config) {
+        this.root = Paths.get(config.getDir());
+        this.fsyncIntervalMs = config.getFsyncInterval();
+        this.snapshotInterval = config.getSnapshotInterval();
+        this.segmentSize = config.getSegmentSize();
+        this.maxOpenFiles = config.getMaxOpenFiles();
+        this.retentionMs = config.getRetention() != null ? TimeUnit.SECONDS.toMillis(config.getRetention()) : -1;
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION,
+                    "无法创建会话日志目录: " + root, e);
+        }
+        this.openFiles = new LinkedHashMap<String, Segment>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Segment> eldest) {
+                if (size() > maxOpenFiles) {
+                    close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL_MS;
+        this.writer = new Thread(this::run, "session-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 为会话创建变更监听 把上下文的每次写入记入日志
+     */
+    public ChatContext.ChangeListener listener(String sessionId) {
+        String key = key(sessionId);
+        return (appended, messages) -> enqueue(new Record(key, sessionId, appended, messages, null));
+    }
+
+    /**
+     * 从日志恢复会话的消息
+     *
+     * @return 按写入顺序排列的消息 没有日志时为空列表
+     */
+    public List<Message<?>> restore(String sessionId) {
+        String key = key(sessionId);
+        awaitPending(key);
+        Path dir = sessionDir(key);
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Long> seqs = listSegments(dir);
+            // 最新一段的快照可能未写完 此时旧段尚未删除 退回旧段
+            for (int i = seqs.size() - 1; i >= 0; i--) {
+                List<Message<?>> messages = read(dir.resolve(segmentName(seqs.get(i))));
+                if (messages != null) {
+                    restored.incrementAndGet();
+                    return messages;
+                }
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            log.warn("Failed to restore session {}: {}", sessionId, e.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 关闭会话当前的日志段 保留日志 排在该会话已有的写入之后执行
+     * 会话从内存中淘汰后调用 之后再次写入时重新写快照开启新段
+     */
+    public void release(String sessionId) {
+        String key = key(sessionId);
+        enqueue(new Record(key, null, null, null, null));
+    }
+
+    /**
+     * 删除会话的日志 排在该会话已有的写入之后执行
+     */
+    public void delete(String sessionId) {
+        String key = key(sessionId);
+        enqueue(new Record(key, sessionId, null, null, null));
+    }
+
+    private void enqueue(Record record) {
+        if (!running) {
+            return;
+        }
+        pending.computeIfAbsent(record.key, k -> new AtomicInteger()).incrementAndGet();
+        queue.add(record);
+    }
+
+    private void awaitPending(String key) {
+        AtomicInteger count = pending.get(key);
+        if (count == null || count.get() == 0 || !running) {
+            return;
+        }
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        queue.add(new Record(key, null, null, null, barrier));
+        try {
+            barrier.get(FLUSH_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Timed out waiting for pending journal writes of {}", key);
+        }
+    }
+
+    private void run() {
+        List<Record> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                long now = System.currentTimeMillis();
+                long wait = dirty.isEmpty() ? SWEEP_INTERVAL_MS : Math.max(0, lastSync + fsyncIntervalMs - now);
+                Record first = queue.poll(wait, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (Record record : batch) {
+                        process(record);
+                    }
+                    batch.clear();
+                }
+                now = System.currentTimeMillis();
+                if (!dirty.isEmpty() && now >= lastSync + fsyncIntervalMs) {
+                    sync();
+                }
+                if (now >= nextSweep) {
+                    nextSweep = now + SWEEP_INTERVAL_MS;
+                    sweep();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                log.warn("Session journal writer error", e);
+            }
+        }
+        sync();
+        for (Segment segment : openFiles.values()) {
+            close(segment);
+        }
+        openFiles.clear();
+    }
+
+    private void process(Record record) {
+        try {
+            if (record.barrier != null) {
+                record.barrier.complete(null);
+                return;
+            }
+            if (record.sessionId == null) {
+                closeSegment(record.key);
+            } else if (record.messages == null) {
+                deleteSession(record.key);
+            } else {
+                write(record);
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            log.warn("Failed to write session journal {}: {}", record.sessionId, e.getMessage());
+            // 下次写入时重新写快照开启新段
+            closeSegment(record.key);
+        } finally {
+            if (record.barrier == null) {
+                AtomicInteger count = pending.get(record.key);
+                if (count != null && count.decrementAndGet() == 0) {
+                    pending.remove(record.key, count);
+                }
+            }
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        Segment segment = segments.get(record.key);
+        if (segment == null || record.appended == null
+                || segment.records >= snapshotInterval || segment.bytes >= segmentSize) {
+            roll(record, segment);
+            return;
+        }
+        JSONObject line = new JSONObject();
+        line.put("t", APPEND);
+        line.put("m", record.appended);
+        append(segment, line);
+        segment.records++;
+    }
+
+    /**
+     * 写快照开启新段 旧段在新段刷盘后删除
+     */
+    private void roll(Record record, Segment previous) throws IOException {
+        Path dir = sessionDir(record.key);
+        long seq;
+        if (previous != null) {
+            seq = previous.seq + 1;
+            openFiles.remove(record.key);
+            close(previous);
+        } else if (Files.isDirectory(dir)) {
+            List<Long> seqs = listSegments(dir);
+            seq = seqs.isEmpty() ? 1 : seqs.get(seqs.size() - 1) + 1;
+        } else {
+            Files.createDirectories(dir);
+            createdDirs.add(dir.getParent());
+            seq = 1;
+        }
+        for (Long old : listSegments(dir)) {
+            obsolete.add(dir.resolve(segmentName(old)));
+        }
+        Segment segment = new Segment(dir.resolve(segmentName(seq)), seq);
+        segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        segments.put(record.key, segment);
+        openFiles.put(record.key, segment);
+        createdDirs.add(dir);
+
+        JSONObject line = new JSONObject();
+        line.put("t", SNAPSHOT);
+        line.put("id", record.sessionId);
+        line.put("m", record.messages);
+        append(segment, line);
+        snapshots.incrementAndGet();
+    }
+
+    private void append(Segment segment, JSONObject line) throws IOException {
+        if (segment.channel == null) {
+            segment.channel = FileChannel.open(segment.path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        openFiles.put(keyOf(segment), segment);
+        String json = JSON.toJSONString(line);
+        byte[] bytes = (checksum(json) + "\t" + json + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            segment.channel.write(buffer);
+        }
+        segment.bytes += bytes.length;
+        dirty.add(segment);
+        written.incrementAndGet();
+    }
+
+    /**
+     * 一次刷盘所有有写入的会话 之后删除已被新快照取代的旧段
+     */
+    private void sync() {
+        boolean synced = true;
+        for (Segment segment : dirty) {
+            try {
+                if (segment.channel != null) {
+                    segment.channel.force(false);
+                }
+            } catch (IOException e) {
+                synced = false;
+                failed.incrementAndGet();
+                log.warn("Failed to sync session journal {}: {}", segment.path, e.getMessage());
+            }
+        }
+        dirty.clear();
+        // 新建的文件需要刷新所在目录才能在宕机后可见
+        for (Path dir : createdDirs) {
+            try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException ignored) {
+                // 部分平台不支持刷新目录
+            }
+        }
+        createdDirs.clear();
+        if (!synced) {
+            // 新快照未必落盘 保留旧段
+            return;
+        }
+        for (Path path : obsolete) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Failed to delete obsolete journal segment {}: {}", path, e.getMessage());
+            }
+        }
+        obsolete.clear();
+        lastSync = System.currentTimeMillis();
+        syncs.incrementAndGet();
+    }
+
+    private void closeSegment(String key) {
+        Segment segment = segments.remove(key);
+        if (segment != null) {
+            openFiles.remove(key);
+            close(segment);
+        }
+    }
+
+    private void deleteSession(String key) throws IOException {
+        closeSegment(key);
+        Path dir = sessionDir(key);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        obsolete.removeIf(path -> path.startsWith(dir));
+        for (Long seq : listSegments(dir)) {
+            Files.deleteIfExists(dir.resolve(segmentName(seq)));
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * 删除超过保留时间未写入的会话日志 跳过本次运行中写过的会话
+     */
+    private void sweep() {
+        if (retentionMs < 0) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - retentionMs;
+        int removed = 0;
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(root)) {
+            for (Path shard : shards) {
+                if (!Files.isDirectory(shard)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> dirs = Files.newDirectoryStream(shard)) {
+                    for (Path dir : dirs) {
+                        String key = dir.getFileName().toString();
+                        if (segments.containsKey(key) || pending.containsKey(key)) {
+                            continue;
+                        }
+                        if (lastModified(dir) < expireBefore) {
+                            deleteSession(key);
+                            removed++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clean up session journals: {}", e.getMessage());
+        }
+        if (removed > 0) {
+            log.debug("Cleaned up {} expired session journals", removed);
+        }
+    }
+
+    private long lastModified(Path dir) throws IOException {
+        long latest = 0;
+        for (Long seq : listSegments(dir)) {
+            latest = Math.max(latest, Files.getLastModifiedTime(dir.resolve(segmentName(seq))).toMillis());
+        }
+        return latest;
+    }
+
+    private void close(Segment segment) {
+        if (segment.channel == null) {
+            return;
+        }
+        try {
+            if (dirty.remove(segment)) {
+                segment.channel.force(false);
+            }
+            segment.channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close session journal {}: {}", segment.path, e.getMessage());
+        }
+        segment.channel = null;
+    }
+
+    /**
+     * 读取一段日志 开头的快照无效时返回null 遇到校验失败的记录即停止
+     */
+    private List<Message<?>> read(Path path) throws IOException {
+        List<Message<?>> messages = null;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject record = parse(line);
+                if (record == null) {
+                    break;
+                }
+                String type = record.getString("t");
+                if (messages == null) {
+                    if (!SNAPSHOT.equals(type)) {
+                        break;
+                    }
+                    messages = new ArrayList<>();
+                    JSONArray array = record.getJSONArray("m");
+                    for (int i = 0; array != null && i < array.size(); i++) {
+                        addIfPresent(messages, toMessage(array.getJSONObject(i)));
+                    }
+                } else if (APPEND.equals(type)) {
+                    addIfPresent(messages, toMessage(record.getJSONObject("m")));
+                }
+            }
+        }
+        return messages;
+    }
+
+    private static JSONObject parse(String line) {
+        int tab = line.indexOf('\t');
+        if (tab <= 0) {
+            return null;
+        }
+        String json = line.substring(tab + 1);
+        if (!line.substring(0, tab).equals(checksum(json))) {
+            return null;
+        }
+        try {
+            return JSON.parseObject(json);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void addIfPresent(List<Message<?>> messages, Message<?> message) {
+        if (message != null) {
+            messages.add(message);
+        }
+    }
+
+    private static Message<?> toMessage(JSONObject json) {
+        if (json == null) {
+            return null;
+        }
+        String content = json.getString("content");
+        switch (String.valueOf(json.getString("role"))) {
+            case UserMessage.TYPE:
+                return new UserMessage(content);
+            case ToolMessage.TYPE:
+                return new ToolMessage(content, json.getString("tool_call_id"));
+            case SystemMessage.TYPE:
+                return content != null && content.startsWith(SummaryMessage.PREFIX)
+                        ? new SummaryMessage(content.substring(SummaryMessage.PREFIX.length()))
+                        : new SystemMessage(content);
+            case AssistantMessage.TYPE:
+                AssistantMessage message = new AssistantMessage();
+                message.setContent(content);
+                JSONArray calls = json.getJSONArray("tool_calls");
+                if (calls != null) {
+                    message.setTool_calls(calls.toJavaList(AssistantMessage.ToolCall.class));
+                }
+                return message;
+            default:
+                return null;
+        }
+    }
+
+    private static List<Long> listSegments(Path dir) throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        seqs.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // 非日志段文件
+                    }
+                }
+            });
+        }
+        Collections.sort(seqs);
+        return seqs;
+    }
+
+    private static String segmentName(long seq) {
+        return String.format("%020d%s", seq, SUFFIX);
+    }
+
+    private static String checksum(String json) {
+        CRC32 crc = new CRC32();
+        crc.update(json.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private Path sessionDir(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static String keyOf(Segment segment) {
+        return segment.path.getParent().getFileName().toString();
+    }
+
+    /**
+     * 会话ID可能包含文件名不允许的字符 取其摘要作为目录名
+     */
+    private static String key(String sessionId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sessionId.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getStats() {
+        return String.format("Journal stats - written: %d, snapshots: %d, syncs: %d, restored: %d, failed: %d, queued: %d",
+                written.get(), snapshots.get(), syncs.get(), restored.get(), failed.get(), queue.size());
+    }
+
+    /**
+     * 停止写入 写完并刷盘排队中的记录
+     */
+    public void destroy() {
+        running = false;
+        // 唤醒写线程
+        queue.add(new Record(null, null, null, null, new CompletableFuture<>()));
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 一条日志记录 sessionId 为null表示关闭当前段 messages 为null表示删除会话 barrier 不为null表示等待之前的记录写完
+     */
+    private static final class Record {
+        final String key;
+        final String sessionId;
+        final Message<?> appended;
+        final List<Message<?>> messages;
+        final CompletableFuture<Void> barrier;
+
+        Record(String key, String sessionId, Message<?> appended, List<Message<?>> messages,
+               CompletableFuture<Void> barrier) {
+            this.key = key;
+            this.sessionId = sessionId;
+            this.appended = appended;
+            this.messages = messages;
+            this.barrier = barrier;
+        }
+    }
+
+    /**
+     * 会话当前写入的日志段
+     */
+    private static final class Segment {
+        final Path path;
+        final long seq;
+        int records;
+        long bytes;
+        FileChannel channel;
+
+        Segment(Path path, long seq) {
+            this.path = path;
+            this.seq = seq;
+        }
+    }
+}
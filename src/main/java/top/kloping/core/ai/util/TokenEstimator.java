@@ -0,0 +1,82 @@
+package top.kloping.core.ai.util;
+
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+
+import java.util.Collection;
+
+/**
+ * 令牌数估算工具
+ * 不依赖具体分词器 按字符粗略估算: 中日韩字符每个约1个令牌 其他字符约4个1个令牌
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public class TokenEstimator {
+    /**
+     * 每条消息的格式开销
+     */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的令牌数
+     */
+    public static int estimate(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        int wide = 0;
+        int narrow = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x2E80) {
+                wide++;
+            } else {
+                narrow++;
+            }
+        }
+        return wide + (narrow + 3) / 4;
+    }
+
+    /**
+     * 估算单条消息的令牌数
+     */
+    public static int estimate(Message<?> message) {
+        if (message == null) {
+            return 0;
+        }
+        int tokens = MESSAGE_OVERHEAD;
+        Object content = message.getContent();
+        if (content != null) {
+            tokens += estimate(content.toString());
+        }
+        if (message instanceof AssistantMessage) {
+            AssistantMessage assistantMessage = (AssistantMessage) message;
+            if (assistantMessage.getTool_calls() != null) {
+                for (AssistantMessage.ToolCall toolCall : assistantMessage.getTool_calls()) {
+                    if (toolCall.getFunction() != null) {
+                        tokens += MESSAGE_OVERHEAD + estimate(toolCall.getFunction().getName())
+                                + estimate(toolCall.getFunction().getArguments());
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 估算多条消息的令牌数
+     */
+    public static int estimate(Collection<? extends Message<?>> messages) {
+        int tokens = 0;
+        if (messages != null) {
+            for (Message<?> message : messages) {
+                tokens += estimate(message);
+            }
+        }
+        return tokens;
+    }
+}
@@ -8,6 +8,7 @@ import top.kloping.core.ai.mcp.McpClientProperties;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Map;
 
 /**
  * 配置验证器
@@ -49,6 +50,48 @@ public class ConfigurationValidator {
         // 验证数值参数
         validateNumericParameters(properties);
         
+        // 验证上游节点
+        validateEndpoints(properties);
+        
+        // 验证限流配置
+        validateRateLimit(properties.getRateLimit());
+        
+        // 验证重试配置
+        validateRetry(properties.getRetry());
+        
+        // 验证对冲配置
+        validateHedge(properties.getHedge());
+        
+        // 验证熔断配置
+        validateCircuitBreaker(properties.getCircuitBreaker());
+        
+        // 验证响应缓存配置
+        validateResponseCache(properties.getResponseCache());
+        validateAdaptiveConcurrency(properties.getAdaptiveConcurrency());
+        validateAdmission(properties.getAdmission());
+        validateCompaction(properties.getCompaction());
+        validateJournal(properties.getJournal());
+        
+        // 验证调度配置
+        AiModelProperties.Scheduler scheduler = properties.getScheduler();
+        if (scheduler != null) {
+            if (scheduler.getMaxConcurrent() != null && scheduler.getMaxConcurrent() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "上游最大并发请求数必须大于0，当前值: " + scheduler.getMaxConcurrent());
+            }
+            if (scheduler.getQueueCapacity() == null || scheduler.getQueueCapacity() < 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "排队请求数上限不能为负数，当前值: " + scheduler.getQueueCapacity());
+            }
+        }
+        
+        // 验证批量对话配置
+        if (properties.getBatch() != null && (properties.getBatch().getParallelism() == null
+                || properties.getBatch().getParallelism() <= 0)) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "批量对话并发数必须大于0，当前值: " + properties.getBatch().getParallelism());
+        }
+        
         log.info("AI model configuration validation passed for model: {}", properties.getModel());
     }
     
@@ -79,6 +122,9 @@ public class ConfigurationValidator {
                     "心跳间隔必须大于0秒");
         }
         
+        // 验证熔断配置
+        validateCircuitBreaker(properties.getCircuitBreaker());
+        
         log.info("MCP client configuration validation passed for server: {}", properties.getServer());
     }
     
@@ -128,6 +174,286 @@ public class ConfigurationValidator {
         }
     }
     
+    /**
+     * 验证多个上游节点
+     */
+    private static void validateEndpoints(AiModelProperties properties) {
+        if (properties.getEndpoints() == null) {
+            return;
+        }
+        for (AiModelProperties.Endpoint endpoint : properties.getEndpoints()) {
+            validateServerUrl(endpoint.getServer(), "上游节点服务地址");
+            if (endpoint.getToken() != null) {
+                validateToken(endpoint.getToken(), "上游节点访问令牌");
+            }
+            if (endpoint.getWeight() != null && endpoint.getWeight() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "上游节点权重必须大于0，当前值: " + endpoint.getWeight());
+            }
+            validateQuota(endpoint.getRpm(), endpoint.getTpm(), "上游节点");
+        }
+        AiModelProperties.LoadBalance loadBalance = properties.getLoadBalance();
+        if (loadBalance != null) {
+            if (loadBalance.getFailureThreshold() != null && loadBalance.getFailureThreshold() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "节点摘除失败阈值必须大于0，当前值: " + loadBalance.getFailureThreshold());
+            }
+            if (loadBalance.getEjectTime() != null && loadBalance.getEjectTime() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "节点摘除时长必须大于0秒，当前值: " + loadBalance.getEjectTime());
+            }
+        }
+    }
+    
+    /**
+     * 验证限流配置
+     */
+    private static void validateRateLimit(AiModelProperties.RateLimit rateLimit) {
+        if (rateLimit == null) {
+            return;
+        }
+        validateQuota(rateLimit.getRpm(), rateLimit.getTpm(), "模型");
+        if (rateLimit.getMaxWait() != null && rateLimit.getMaxWait() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "限流最长等待时间不能为负数，当前值: " + rateLimit.getMaxWait());
+        }
+        if (rateLimit.getModels() != null) {
+            for (Map.Entry<String, AiModelProperties.Quota> entry : rateLimit.getModels().entrySet()) {
+                if (entry.getValue() != null) {
+                    validateQuota(entry.getValue().getRpm(), entry.getValue().getTpm(), "模型 " + entry.getKey());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 验证重试配置
+     */
+    private static void validateRetry(AiModelProperties.Retry retry) {
+        if (retry == null) {
+            return;
+        }
+        if (retry.getMaxAttempts() == null || retry.getMaxAttempts() < 1) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "最大尝试次数必须大于0，当前值: " + retry.getMaxAttempts());
+        }
+        if (retry.getInitialBackoff() == null || retry.getInitialBackoff() < 0
+                || retry.getMaxBackoff() == null || retry.getMaxBackoff() < retry.getInitialBackoff()) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "重试退避时间无效，初始值: " + retry.getInitialBackoff() + "，最大值: " + retry.getMaxBackoff());
+        }
+        if (retry.getBudgetRatio() == null || retry.getBudgetRatio() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "重试预算比例不能为负数，当前值: " + retry.getBudgetRatio());
+        }
+        if (retry.getMinRetriesPerSecond() == null || retry.getMinRetriesPerSecond() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "每秒保底重试次数不能为负数，当前值: " + retry.getMinRetriesPerSecond());
+        }
+    }
+    
+    /**
+     * 验证对冲配置
+     */
+    private static void validateHedge(AiModelProperties.Hedge hedge) {
+        if (hedge == null || !Boolean.TRUE.equals(hedge.getEnabled())) {
+            return;
+        }
+        if (hedge.getPercentile() == null || hedge.getPercentile() <= 0 || hedge.getPercentile() > 100) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "对冲分位数必须在0到100之间，当前值: " + hedge.getPercentile());
+        }
+        if (hedge.getMinDelay() == null || hedge.getMinDelay() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "最短对冲等待时间不能为负数，当前值: " + hedge.getMinDelay());
+        }
+        if (hedge.getMaxPercent() == null || hedge.getMaxPercent() < 0 || hedge.getMaxPercent() > 100) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "对冲请求百分比必须在0到100之间，当前值: " + hedge.getMaxPercent());
+        }
+    }
+    
+    /**
+     * 验证熔断配置
+     */
+    private static void validateCircuitBreaker(AiModelProperties.CircuitBreaker circuitBreaker) {
+        if (circuitBreaker == null || Boolean.FALSE.equals(circuitBreaker.getEnabled())) {
+            return;
+        }
+        if (circuitBreaker.getWindowSize() == null || circuitBreaker.getWindowSize() <= 0
+                || circuitBreaker.getMinCalls() == null || circuitBreaker.getMinCalls() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "熔断统计窗口与最少调用次数必须大于0，当前值: " + circuitBreaker.getWindowSize()
+                            + ", " + circuitBreaker.getMinCalls());
+        }
+        validatePercent(circuitBreaker.getFailureRateThreshold(), "熔断失败率阈值");
+        validatePercent(circuitBreaker.getSlowCallRateThreshold(), "熔断慢调用率阈值");
+        if (circuitBreaker.getSlowCallDuration() == null || circuitBreaker.getSlowCallDuration() <= 0
+                || circuitBreaker.getOpenTime() == null || circuitBreaker.getOpenTime() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "慢调用阈值与熔断时长必须大于0秒，当前值: " + circuitBreaker.getSlowCallDuration()
+                            + ", " + circuitBreaker.getOpenTime());
+        }
+        if (circuitBreaker.getHalfOpenCalls() == null || circuitBreaker.getHalfOpenCalls() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "半开状态探测请求数必须大于0，当前值: " + circuitBreaker.getHalfOpenCalls());
+        }
+    }
+    
+    /**
+     * 验证响应缓存配置
+     */
+    private static void validateResponseCache(AiModelProperties.ResponseCache responseCache) {
+        if (responseCache == null || !Boolean.TRUE.equals(responseCache.getEnabled())) {
+            return;
+        }
+        if (responseCache.getMaxTemperature() == null || responseCache.getMaxTemperature() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "缓存允许的最高temperature不能为负数，当前值: " + responseCache.getMaxTemperature());
+        }
+        if (responseCache.getTtl() == null || responseCache.getTtl() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "缓存有效期必须大于0秒，当前值: " + responseCache.getTtl());
+        }
+        if (responseCache.getMaxWeight() == null || responseCache.getMaxWeight() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "缓存最大总字节数必须大于0，当前值: " + responseCache.getMaxWeight());
+        }
+    }
+    
+    /**
+     * 验证自适应并发限制配置
+     */
+    private static void validateAdaptiveConcurrency(AiModelProperties.AdaptiveConcurrency concurrency) {
+        if (concurrency == null || !Boolean.TRUE.equals(concurrency.getEnabled())) {
+            return;
+        }
+        if (concurrency.getMinLimit() == null || concurrency.getMinLimit() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "并发限制下限必须大于0，当前值: " + concurrency.getMinLimit());
+        }
+        if (concurrency.getMaxLimit() == null || concurrency.getMaxLimit() < concurrency.getMinLimit()) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "并发限制上限不能小于下限，当前值: " + concurrency.getMaxLimit());
+        }
+        if (concurrency.getInitialLimit() == null || concurrency.getInitialLimit() < concurrency.getMinLimit()
+                || concurrency.getInitialLimit() > concurrency.getMaxLimit()) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "初始并发限制必须在上下限之间，当前值: " + concurrency.getInitialLimit());
+        }
+        if (concurrency.getTolerance() == null || concurrency.getTolerance() < 1) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "延迟容忍倍数不能小于1，当前值: " + concurrency.getTolerance());
+        }
+        if (concurrency.getQueueSize() == null || concurrency.getQueueSize() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "并发排队请求数上限不能为负数，当前值: " + concurrency.getQueueSize());
+        }
+    }
+    
+    /**
+     * 验证对话准入控制配置
+     */
+    private static void validateAdmission(AiModelProperties.Admission admission) {
+        if (admission == null || !Boolean.TRUE.equals(admission.getEnabled())) {
+            return;
+        }
+        if (admission.getMaxInflight() == null || admission.getMaxInflight() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "同时进行的对话数上限必须大于0，当前值: " + admission.getMaxInflight());
+        }
+        if (admission.getQueueSize() == null || admission.getQueueSize() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "等待准入的对话数上限不能为负数，当前值: " + admission.getQueueSize());
+        }
+        if (admission.getMaxWait() == null || admission.getMaxWait() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "最长等待准入时间不能为负数，当前值: " + admission.getMaxWait());
+        }
+        validatePercent(admission.getShedThreshold(), "降级阈值");
+    }
+    
+    /**
+     * 验证上下文压缩配置
+     */
+    private static void validateCompaction(AiModelProperties.Compaction compaction) {
+        if (compaction == null || !Boolean.TRUE.equals(compaction.getEnabled())) {
+            return;
+        }
+        if (compaction.getTriggerRatio() == null || compaction.getTriggerRatio() <= 0
+                || compaction.getTriggerRatio() > 1) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "压缩触发比例必须在0到1之间，当前值: " + compaction.getTriggerRatio());
+        }
+        if (compaction.getKeepRecent() == null || compaction.getKeepRecent() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "保留的最近消息数不能为负数，当前值: " + compaction.getKeepRecent());
+        }
+        if (compaction.getMaxSummaryTokens() == null || compaction.getMaxSummaryTokens() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "摘要最大令牌数必须大于0，当前值: " + compaction.getMaxSummaryTokens());
+        }
+        if (compaction.getTimeout() == null || compaction.getTimeout() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "总结请求超时时间必须大于0秒，当前值: " + compaction.getTimeout());
+        }
+        if (compaction.getPrompt() == null || compaction.getPrompt().trim().isEmpty()) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "总结提示词不能为空");
+        }
+    }
+    
+    /**
+     * 验证会话持久化配置
+     */
+    private static void validateJournal(AiModelProperties.Journal journal) {
+        if (journal == null || !Boolean.TRUE.equals(journal.getEnabled())) {
+            return;
+        }
+        if (journal.getDir() == null || journal.getDir().trim().isEmpty()) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "会话日志目录不能为空");
+        }
+        if (journal.getFsyncInterval() == null || journal.getFsyncInterval() < 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "刷盘间隔不能为负数，当前值: " + journal.getFsyncInterval());
+        }
+        if (journal.getSnapshotInterval() == null || journal.getSnapshotInterval() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "快照间隔必须大于0，当前值: " + journal.getSnapshotInterval());
+        }
+        if (journal.getSegmentSize() == null || journal.getSegmentSize() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "日志段大小必须大于0，当前值: " + journal.getSegmentSize());
+        }
+        if (journal.getMaxOpenFiles() == null || journal.getMaxOpenFiles() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "打开的日志文件数上限必须大于0，当前值: " + journal.getMaxOpenFiles());
+        }
+        if (journal.getRetention() != null && journal.getRetention() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "会话日志保留时间必须大于0，当前值: " + journal.getRetention());
+        }
+    }
+    
+    private static void validatePercent(Integer value, String fieldName) {
+        if (value == null || value <= 0 || value > 100) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    fieldName + "必须在1到100之间，当前值: " + value);
+        }
+    }
+    
+    private static void validateQuota(Integer rpm, Integer tpm, String owner) {
+        if (rpm != null && rpm <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    owner + "每分钟请求数上限必须大于0，当前值: " + rpm);
+        }
+        if (tpm != null && tpm <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    owner + "每分钟令牌数上限必须大于0，当前值: " + tpm);
+        }
+    }
+    
     /**
      * 验证AI模型的数值参数
      */
@@ -138,6 +464,12 @@ public class ConfigurationValidator {
                     "最大记忆长度必须大于0");
         }
         
+        // 验证最大并发数
+        if (properties.getMaxRequests() != null && properties.getMaxRequests() <= 0) {
+            throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                    "最大并发请求数必须大于0，当前值: " + properties.getMaxRequests());
+        }
+        
         // 验证温度参数
         if (properties.getTemperature() != null) {
             float temp = properties.getTemperature();
@@ -165,6 +497,53 @@ public class ConfigurationValidator {
                     "最大输入令牌数必须大于0，当前值: " + properties.getMax_input_tokens());
         }
         
+        // 验证会话参数
+        AiModelProperties.Session session = properties.getSession();
+        if (session != null) {
+            if (session.getMaxSessions() != null && session.getMaxSessions() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "最大会话数必须大于0，当前值: " + session.getMaxSessions());
+            }
+            if (session.getIdleTimeout() != null && session.getIdleTimeout() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "会话空闲超时必须大于0秒，当前值: " + session.getIdleTimeout());
+            }
+            if (session.getMaxTotalTokens() != null && session.getMaxTotalTokens() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "会话令牌总数上限必须大于0，当前值: " + session.getMaxTotalTokens());
+            }
+        }
+        
+        // 验证工具调用参数
+        AiModelProperties.Tool tool = properties.getTool();
+        if (tool != null) {
+            if (tool.getParallelism() == null || tool.getParallelism() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "工具调用并发数必须大于0，当前值: " + tool.getParallelism());
+            }
+            if (tool.getTimeout() != null && tool.getTimeout() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "工具调用超时必须大于0秒，当前值: " + tool.getTimeout());
+            }
+        }
+        
+        // 验证工具调用循环参数
+        AiModelProperties.Loop loop = properties.getLoop();
+        if (loop != null) {
+            if (loop.getMaxRounds() == null || loop.getMaxRounds() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "最大轮数必须大于0，当前值: " + loop.getMaxRounds());
+            }
+            if (loop.getMaxTokens() != null && loop.getMaxTokens() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "循环最大令牌数必须大于0，当前值: " + loop.getMaxTokens());
+            }
+            if (loop.getTimeout() != null && loop.getTimeout() <= 0) {
+                throw new AiModelException(AiModelException.ErrorCode.INVALID_CONFIGURATION, 
+                        "循环最长耗时必须大于0秒，当前值: " + loop.getTimeout());
+            }
+        }
+        
         // 验证种子参数
         if (properties.getSeed() != null) {
             int seed = properties.getSeed();
@@ -0,0 +1,83 @@
+package top.kloping.core.ai.limit;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    /**
+     * 固定限制1 等待队列2
+     */
+    private static AdaptiveConcurrencyLimiter limiter() {
+        AiModelProperties.AdaptiveConcurrency config = new AiModelProperties.AdaptiveConcurrency();
+        config.setMinLimit(1);
+        config.setMaxLimit(1);
+        config.setInitialLimit(1);
+        config.setQueueSize(2);
+        return new AdaptiveConcurrencyLimiter("test", config);
+    }
+
+    private static AiModelException.ErrorCode errorCode(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(AiModelException.class, e.getCause());
+        return ((AiModelException) e.getCause()).getErrorCode();
+    }
+
+    @Test
+    void queuesAboveLimitAndShedsWhenFull() {
+        AdaptiveConcurrencyLimiter limiter = limiter();
+        assertTrue(limiter.acquire().isDone());
+        CompletableFuture<Void> first = limiter.acquire();
+        CompletableFuture<Void> second = limiter.acquire();
+        assertFalse(first.isDone());
+        assertEquals(AiModelException.ErrorCode.CONCURRENCY_LIMITED, errorCode(limiter.acquire()));
+        assertEquals(1, limiter.getShedCount());
+
+        limiter.release();
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(1, limiter.getInflight());
+    }
+
+    @Test
+    void cancelledWaiterLeavesQueue() {
+        AdaptiveConcurrencyLimiter limiter = limiter();
+        limiter.acquire();
+        CompletableFuture<Void> cancelled = limiter.acquire(System.currentTimeMillis() + 60_000);
+        CompletableFuture<Void> next = limiter.acquire();
+        cancelled.cancel(false);
+        assertEquals(1, limiter.getQueueDepth());
+
+        // 名额交给仍在等待的请求 不会落在已取消的请求上
+        limiter.release();
+        assertTrue(next.isDone());
+        assertEquals(1, limiter.getInflight());
+        limiter.release();
+        assertEquals(0, limiter.getInflight());
+    }
+
+    @Test
+    void expiresWaiterAtDeadline() {
+        AdaptiveConcurrencyLimiter limiter = limiter();
+        limiter.acquire();
+        CompletableFuture<Void> waiting = limiter.acquire(System.currentTimeMillis() + 50);
+        assertEquals(AiModelException.ErrorCode.DEADLINE_EXCEEDED, errorCode(waiting));
+        assertEquals(0, limiter.getQueueDepth());
+
+        limiter.release();
+        assertEquals(0, limiter.getInflight());
+        assertEquals(AiModelException.ErrorCode.DEADLINE_EXCEEDED,
+                errorCode(limiter.acquire().thenCompose(v -> limiter.acquire(System.currentTimeMillis() - 1))));
+    }
+}
@@ -0,0 +1,63 @@
+package top.kloping.core.ai.limit;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+import top.kloping.core.ai.exception.UpstreamResponseException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class AdmissionControllerTest {
+
+    private static AdmissionController controller(int maxInflight, int queueSize) {
+        AiModelProperties.Admission config = new AiModelProperties.Admission();
+        config.setMaxInflight(maxInflight);
+        config.setQueueSize(queueSize);
+        config.setMaxWait(60);
+        return new AdmissionController(config);
+    }
+
+    @Test
+    void cancelledWaiterFreesQueueSlot() {
+        AdmissionController controller = controller(1, 1);
+        AdmissionController.Ticket ticket = controller.acquire(Priority.NORMAL).join();
+        CompletableFuture<AdmissionController.Ticket> cancelled = controller.acquire(Priority.NORMAL);
+        cancelled.cancel(false);
+        assertEquals(0, controller.getQueued());
+
+        CompletableFuture<AdmissionController.Ticket> next = controller.acquire(Priority.NORMAL);
+        assertFalse(next.isDone());
+        ticket.release(null);
+        assertTrue(next.isDone());
+        assertEquals(1, controller.getRunning());
+        next.join().release(null);
+        assertEquals(0, controller.getRunning());
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() {
+        AdmissionController controller = controller(1, 1);
+        controller.acquire(Priority.NORMAL);
+        controller.acquire(Priority.NORMAL);
+        CompletableFuture<AdmissionController.Ticket> rejected = controller.acquire(Priority.HIGH);
+        assertTrue(rejected.isCompletedExceptionally());
+    }
+
+    @Test
+    void classifiesOverload() {
+        assertEquals(false, AdmissionController.isOverload(null));
+        assertEquals(true, AdmissionController.isOverload(new UpstreamResponseException(
+                AiModelException.ErrorCode.REQUEST_FAILED, "HTTP 503", 503, -1)));
+        assertNull(AdmissionController.isOverload(new UpstreamResponseException(
+                AiModelException.ErrorCode.REQUEST_FAILED, "HTTP 400", 400, -1)));
+        assertEquals(true, AdmissionController.isOverload(new IllegalStateException(new SocketTimeoutException())));
+        assertNull(AdmissionController.isOverload(new AiModelException(AiModelException.ErrorCode.DEADLINE_EXCEEDED)));
+    }
+}
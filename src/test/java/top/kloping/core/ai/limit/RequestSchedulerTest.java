@@ -0,0 +1,130 @@
+package top.kloping.core.ai.limit;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class RequestSchedulerTest {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static AiModelException.ErrorCode errorCode(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(AiModelException.class, e.getCause());
+        return ((AiModelException) e.getCause()).getErrorCode();
+    }
+
+    @Test
+    void grantsImmediatelyBelowLimit() {
+        RequestScheduler scheduler = new RequestScheduler(2, 10);
+        assertTrue(scheduler.acquire(Priority.NORMAL, NO_DEADLINE).isDone());
+        assertTrue(scheduler.acquire(null, NO_DEADLINE).isDone());
+        assertFalse(scheduler.acquire(Priority.HIGH, NO_DEADLINE).isDone());
+        assertEquals(2, scheduler.getRunning());
+        assertEquals(1, scheduler.getQueued());
+    }
+
+    @Test
+    void releasesByPriorityThenDeadlineThenArrival() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 10);
+        RequestScheduler.Permit permit = scheduler.acquire(Priority.NORMAL, NO_DEADLINE).get();
+        long deadline = System.currentTimeMillis() + 60_000;
+        Map<String, CompletableFuture<RequestScheduler.Permit>> queued = new LinkedHashMap<>();
+        queued.put("low", scheduler.acquire(Priority.LOW, NO_DEADLINE));
+        queued.put("normal-1", scheduler.acquire(Priority.NORMAL, NO_DEADLINE));
+        queued.put("normal-2", scheduler.acquire(Priority.NORMAL, NO_DEADLINE));
+        queued.put("normal-deadline", scheduler.acquire(Priority.NORMAL, deadline));
+        queued.put("high", scheduler.acquire(Priority.HIGH, NO_DEADLINE));
+
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            permit.release();
+            // 重复归还无效
+            permit.release();
+            permit = null;
+            for (Map.Entry<String, CompletableFuture<RequestScheduler.Permit>> entry : queued.entrySet()) {
+                if (entry.getValue().isDone() && !order.contains(entry.getKey())) {
+                    assertNull(permit, "每次归还只放行一个请求");
+                    order.add(entry.getKey());
+                    permit = entry.getValue().get();
+                }
+            }
+            assertNotNull(permit);
+            assertEquals(1, scheduler.getRunning());
+        }
+        assertEquals(List.of("high", "normal-deadline", "normal-1", "normal-2", "low"), order);
+        permit.release();
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    void expiresQueuedRequestAtDeadline() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 10);
+        RequestScheduler.Permit permit = scheduler.acquire(Priority.NORMAL, NO_DEADLINE).get();
+        CompletableFuture<RequestScheduler.Permit> waiting = scheduler.acquire(Priority.NORMAL,
+                System.currentTimeMillis() + 50);
+
+        assertEquals(AiModelException.ErrorCode.DEADLINE_EXCEEDED, errorCode(waiting));
+        assertEquals(0, scheduler.getQueued());
+        permit.release();
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    void rejectsPastDeadline() {
+        RequestScheduler scheduler = new RequestScheduler(1, 10);
+        CompletableFuture<RequestScheduler.Permit> future = scheduler.acquire(Priority.HIGH,
+                System.currentTimeMillis() - 1);
+        assertEquals(AiModelException.ErrorCode.DEADLINE_EXCEEDED, errorCode(future));
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    void fullQueueDropsLowestPriority() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 2);
+        scheduler.acquire(Priority.NORMAL, NO_DEADLINE).get();
+        CompletableFuture<RequestScheduler.Permit> low = scheduler.acquire(Priority.LOW, NO_DEADLINE);
+        CompletableFuture<RequestScheduler.Permit> normal = scheduler.acquire(Priority.NORMAL, NO_DEADLINE);
+
+        // 新请求优先级更高 挤掉队列中最低的请求
+        CompletableFuture<RequestScheduler.Permit> high = scheduler.acquire(Priority.HIGH, NO_DEADLINE);
+        assertEquals(AiModelException.ErrorCode.QUEUE_FULL, errorCode(low));
+        assertFalse(high.isDone());
+
+        // 新请求不比队列中的请求优先 直接拒绝
+        CompletableFuture<RequestScheduler.Permit> another = scheduler.acquire(Priority.LOW, NO_DEADLINE);
+        assertEquals(AiModelException.ErrorCode.QUEUE_FULL, errorCode(another));
+        assertFalse(normal.isDone());
+        assertEquals(2, scheduler.getQueued());
+    }
+
+    @Test
+    void cancelledRequestLeavesQueue() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 1);
+        RequestScheduler.Permit permit = scheduler.acquire(Priority.NORMAL, NO_DEADLINE).get();
+        CompletableFuture<RequestScheduler.Permit> cancelled = scheduler.acquire(Priority.NORMAL,
+                System.currentTimeMillis() + 60_000);
+        cancelled.cancel(false);
+        assertEquals(0, scheduler.getQueued());
+
+        // 取消后腾出的位置可以再次排队
+        CompletableFuture<RequestScheduler.Permit> next = scheduler.acquire(Priority.LOW, NO_DEADLINE);
+        assertFalse(next.isDone());
+        permit.release();
+        assertTrue(next.isDone());
+        next.get().release();
+        assertEquals(0, scheduler.getRunning());
+    }
+}
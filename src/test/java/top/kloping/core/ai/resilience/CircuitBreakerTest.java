@@ -0,0 +1,161 @@
+package top.kloping.core.ai.resilience;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class CircuitBreakerTest {
+
+    /**
+     * 窗口10次 至少5次调用后判断 失败率50% 慢调用(1秒)率80% 半开放行2个探测
+     */
+    private static CircuitBreaker breaker(int openTime) {
+        AiModelProperties.CircuitBreaker config = new AiModelProperties.CircuitBreaker();
+        config.setWindowSize(10);
+        config.setMinCalls(5);
+        config.setFailureRateThreshold(50);
+        config.setSlowCallRateThreshold(80);
+        config.setSlowCallDuration(1);
+        config.setOpenTime(openTime);
+        config.setHalfOpenCalls(2);
+        return new CircuitBreaker("test", config);
+    }
+
+    private static void open(CircuitBreaker breaker) {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        CircuitBreaker breaker = breaker(60);
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void opensAtFailureRate() {
+        CircuitBreaker breaker = breaker(60);
+        for (int i = 0; i < 6; i++) {
+            breaker.onSuccess(10);
+        }
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        // 3/9 未达到50%
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        breaker.onFailure();
+        // 窗口已满 5/10
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void opensAtSlowCallRate() {
+        CircuitBreaker breaker = breaker(60);
+        breaker.onSuccess(10);
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess(1500);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void oldOutcomesLeaveTheWindow() {
+        CircuitBreaker breaker = breaker(60);
+        breaker.onSuccess(10);
+        breaker.onSuccess(10);
+        breaker.onFailure();
+        breaker.onFailure();
+        for (int i = 0; i < 20; i++) {
+            breaker.onSuccess(10);
+        }
+        // 之前的失败已移出窗口 4/10
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void rejectsWhileOpen() {
+        CircuitBreaker breaker = breaker(60);
+        open(breaker);
+        assertFalse(breaker.isCallPermitted());
+        assertFalse(breaker.tryAcquire());
+        AiModelException e = assertThrows(AiModelException.class, breaker::acquire);
+        assertEquals(AiModelException.ErrorCode.CIRCUIT_OPEN, e.getErrorCode());
+    }
+
+    @Test
+    void halfOpenClosesAfterSuccessfulProbes() {
+        CircuitBreaker breaker = breaker(0);
+        open(breaker);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        // 探测名额用完
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.isCallPermitted());
+
+        breaker.onSuccess(10);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(10);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // 关闭后重新统计
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenReopensOnFailedOrSlowProbe() {
+        CircuitBreaker breaker = breaker(0);
+        open(breaker);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(1500);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void ignoredProbeReturnsItsSlot() {
+        CircuitBreaker breaker = breaker(0);
+        open(breaker);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void disabledBreakerNeverOpens() {
+        AiModelProperties.CircuitBreaker config = new AiModelProperties.CircuitBreaker();
+        config.setEnabled(false);
+        CircuitBreaker breaker = new CircuitBreaker("off", config);
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,132 @@
+package top.kloping.core.ai.resilience;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.exception.AiModelException;
+import top.kloping.core.ai.exception.UpstreamResponseException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class RetryPolicyTest {
+
+    private static RetryPolicy policy(int maxAttempts, int initialBackoff, int maxBackoff, double ratio, int minPerSecond) {
+        AiModelProperties.Retry config = new AiModelProperties.Retry();
+        config.setMaxAttempts(maxAttempts);
+        config.setInitialBackoff(initialBackoff);
+        config.setMaxBackoff(maxBackoff);
+        config.setBudgetRatio(ratio);
+        config.setMinRetriesPerSecond(minPerSecond);
+        return new RetryPolicy(config);
+    }
+
+    private static UpstreamResponseException status(int code, long retryAfter) {
+        return new UpstreamResponseException(AiModelException.ErrorCode.REQUEST_FAILED, "HTTP " + code, code, retryAfter);
+    }
+
+    @Test
+    void classifiesRetryableErrors() {
+        for (int code : new int[]{408, 425, 429, 500, 502, 503, 504}) {
+            assertTrue(RetryPolicy.isRetryable(status(code, -1)), "status " + code);
+        }
+        for (int code : new int[]{400, 401, 403, 404, 422, 501}) {
+            assertFalse(RetryPolicy.isRetryable(status(code, -1)), "status " + code);
+        }
+        assertTrue(RetryPolicy.isRetryable(new AiModelException(AiModelException.ErrorCode.REQUEST_FAILED)));
+        assertTrue(RetryPolicy.isRetryable(new AiModelException(AiModelException.ErrorCode.TIMEOUT_ERROR)));
+        assertFalse(RetryPolicy.isRetryable(new AiModelException(AiModelException.ErrorCode.RATE_LIMITED)));
+        assertFalse(RetryPolicy.isRetryable(new AiModelException(AiModelException.ErrorCode.AUTHENTICATION_ERROR)));
+        assertFalse(RetryPolicy.isRetryable(new AiModelException(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR)));
+        assertFalse(RetryPolicy.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    void backoffStaysWithinExponentialCeiling() {
+        RetryPolicy policy = policy(10, 100, 1000, 100, 1000);
+        for (int i = 0; i < 200; i++) {
+            long first = policy.nextDelay(1, status(503, -1));
+            long third = policy.nextDelay(3, status(503, -1));
+            long capped = policy.nextDelay(9, status(503, -1));
+            assertTrue(first >= 0 && first <= 100, "first " + first);
+            assertTrue(third >= 0 && third <= 400, "third " + third);
+            assertTrue(capped >= 0 && capped <= 1000, "capped " + capped);
+        }
+    }
+
+    @Test
+    void stopsAfterMaxAttempts() {
+        RetryPolicy policy = policy(3, 10, 100, 100, 1000);
+        assertTrue(policy.nextDelay(2, status(503, -1)) >= 0);
+        assertEquals(-1, policy.nextDelay(3, status(503, -1)));
+        assertEquals(-1, policy.nextDelay(1, status(400, -1)));
+    }
+
+    @Test
+    void honoursRetryAfter() {
+        RetryPolicy policy = policy(3, 10, 5000, 100, 1000);
+        assertTrue(policy.nextDelay(1, status(429, 2000)) >= 2000);
+        // 要求等待的时间超过最大退避时不再重试
+        assertEquals(-1, policy.nextDelay(1, status(429, 60_000)));
+    }
+
+    @Test
+    void stopsWhenBudgetIsExhausted() {
+        RetryPolicy policy = policy(5, 10, 100, 0.5, 0);
+        // 没有请求存入额度时不能重试
+        assertEquals(-1, policy.nextDelay(1, status(503, -1)));
+        policy.onRequest();
+        policy.onRequest();
+        assertTrue(policy.nextDelay(1, status(503, -1)) >= 0);
+        assertEquals(-1, policy.nextDelay(1, status(503, -1)));
+    }
+
+    @Test
+    void failsOverOpenCircuitWithoutBudget() {
+        RetryPolicy policy = policy(3, 10, 100, 0.5, 0);
+        AiModelException open = new AiModelException(AiModelException.ErrorCode.CIRCUIT_OPEN);
+        assertFalse(RetryPolicy.isRetryable(open));
+        assertEquals(-1, policy.nextDelay(1, open));
+        // 有其他可用节点时立即换用 预算为空也不受影响
+        assertEquals(0, policy.nextDelay(1, open, true));
+        assertEquals(0, policy.nextDelay(2, open, true));
+        assertEquals(-1, policy.nextDelay(3, open, true));
+        assertEquals(0, policy.getBudget().getBalance(), 1e-9);
+    }
+
+    @Test
+    void budgetDepositsRatioPerRequest() {
+        RetryBudget budget = new RetryBudget(0.2, 0);
+        for (int i = 0; i < 10; i++) {
+            budget.onRequest();
+        }
+        assertEquals(1, budget.getBalance(), 1e-9);
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    void budgetRefillsOverTimeUpToCapacity() throws InterruptedException {
+        RetryBudget budget = new RetryBudget(0, 100);
+        // 初始为每秒保底数量
+        int acquired = 0;
+        while (budget.tryAcquire()) {
+            acquired++;
+            if (acquired > 1000) {
+                fail("budget never ran out");
+            }
+        }
+        assertTrue(acquired >= 100);
+        Thread.sleep(50);
+        assertTrue(budget.tryAcquire());
+
+        RetryBudget capped = new RetryBudget(1, 1);
+        for (int i = 0; i < 100; i++) {
+            capped.onRequest();
+        }
+        // 最多积攒约10秒的保底额度
+        assertEquals(10, capped.getBalance(), 1e-9);
+    }
+}
@@ -0,0 +1,87 @@
+package top.kloping.core.ai.service;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.AssistantMessage;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static top.kloping.core.ai.service.MessageWindowTest.toolCall;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class AgentLoopTest {
+
+    private static AgentLoop loop(int maxRounds, Integer maxTokens) {
+        AiModelProperties.Loop config = new AiModelProperties.Loop();
+        config.setMaxRounds(maxRounds);
+        config.setMaxTokens(maxTokens);
+        return new AgentLoop(config);
+    }
+
+    private static ChatResponse response(int totalTokens) {
+        ChatResponse.Usage usage = new ChatResponse.Usage();
+        usage.setTotal_tokens(totalTokens);
+        ChatResponse response = new ChatResponse();
+        response.setUsage(usage);
+        return response;
+    }
+
+    private static AgentLoop.StopReason round(AgentLoop loop, AssistantMessage message) {
+        loop.beginRound();
+        return loop.endRound(response(10), message);
+    }
+
+    @Test
+    void completesWithoutToolCalls() {
+        AgentLoop loop = loop(10, null);
+        AssistantMessage answer = new AssistantMessage();
+        answer.setContent("好的");
+        assertEquals(AgentLoop.StopReason.COMPLETED, round(loop, answer));
+        assertFalse(loop.hasToolCalls());
+        assertEquals(10, loop.getTotalTokens());
+    }
+
+    @Test
+    void identicalCallsInOneRoundAreNotRepeated() {
+        AgentLoop loop = loop(10, null);
+        // 同一轮中并行的两个相同调用
+        assertNull(round(loop, toolCall("a", "b")));
+        assertTrue(loop.hasToolCalls());
+        // 之后的轮次再次以相同参数调用
+        assertEquals(AgentLoop.StopReason.REPEATED_TOOL_CALL, round(loop, toolCall("c")));
+    }
+
+    @Test
+    void stopsAtRoundAndTokenBudget() {
+        AgentLoop rounds = loop(2, null);
+        AssistantMessage first = toolCall("a");
+        first.getTool_calls().get(0).getFunction().setArguments("{\"n\":1}");
+        assertNull(round(rounds, first));
+        assertEquals(AgentLoop.StopReason.MAX_ROUNDS, round(rounds, toolCall("b")));
+
+        AgentLoop tokens = loop(10, 10);
+        assertEquals(AgentLoop.StopReason.MAX_TOKENS, round(tokens, toolCall("a")));
+        assertEquals(1, tokens.getRounds().size());
+        // 令牌耗尽后不再请求
+        assertFalse(tokens.finishWithoutTools(AgentLoop.StopReason.MAX_TOKENS));
+    }
+
+    @Test
+    void finishesOnceWithoutTools() {
+        AgentLoop loop = loop(1, null);
+        AgentLoop.StopReason reason = round(loop, toolCall("a"));
+        assertEquals(AgentLoop.StopReason.MAX_ROUNDS, reason);
+        assertTrue(loop.finishWithoutTools(reason));
+        assertTrue(loop.isFinalRound());
+
+        // 不提供工具时仍返回工具调用 以原因结束 不再请求
+        assertEquals(AgentLoop.StopReason.MAX_ROUNDS, round(loop, toolCall("b")));
+        assertFalse(loop.finishWithoutTools(AgentLoop.StopReason.MAX_ROUNDS));
+
+        AssistantMessage answer = new AssistantMessage();
+        answer.setContent("直接回答");
+        assertEquals(AgentLoop.StopReason.COMPLETED, round(loop, answer));
+    }
+}
@@ -0,0 +1,191 @@
+package top.kloping.core.ai.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.SummaryMessage;
+import top.kloping.core.ai.dto.UserMessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 上下文压缩经由真实的上游请求完成 上游由本地 HTTP 服务模拟
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class AiRequestModelImplCompactionTest {
+    private static final String PROMPT = "请总结以下对话";
+
+    /**
+     * 总结请求的响应方式
+     */
+    private enum Mode {OK, SLOW, ERROR}
+
+    private final List<JSONObject> summaryRequests = new CopyOnWriteArrayList<>();
+    private volatile Mode mode = Mode.OK;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private AiRequestModelImpl model;
+    private ChatContext context;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/chat/completions", this::handle);
+        server.start();
+
+        AiModelProperties properties = new AiModelProperties();
+        properties.setModel("chat-model");
+        properties.setToken("test-token");
+        properties.getRetry().setMaxAttempts(1);
+        AiModelProperties.Compaction compaction = properties.getCompaction();
+        compaction.setEnabled(true);
+        compaction.setModel("summary-model");
+        compaction.setKeepRecent(2);
+        compaction.setTriggerRatio(0.8);
+        compaction.setMaxSummaryTokens(64);
+        compaction.setTimeout(1);
+        compaction.setPrompt(PROMPT);
+
+        context = new ChatContext();
+        context.setMax(10);
+        for (int i = 0; i < 7; i++) {
+            context.addMessage(new UserMessage("m" + i));
+        }
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+        model = new AiRequestModelImpl(url, properties, context, new OkHttpClient());
+    }
+
+    @AfterEach
+    void tearDown() {
+        model.destroy();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JSONObject body = JSON.parseObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        String content = "好的";
+        if (body.getJSONArray("messages").getJSONObject(0).getString("content").equals(PROMPT)) {
+            summaryRequests.add(body);
+            body.put("authorization", exchange.getRequestHeaders().getFirst("Authorization"));
+            if (mode == Mode.ERROR) {
+                respond(exchange, 500, "{\"error\":{\"message\":\"internal error\"}}");
+                return;
+            }
+            if (mode == Mode.SLOW) {
+                try {
+                    Thread.sleep(3000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            content = " 用户发送了 m0 到 m6 ";
+        }
+        respond(exchange, 200, "{\"id\":\"1\",\"object\":\"chat.completion\",\"model\":\"" + body.getString("model")
+                + "\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + content
+                + "\"},\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":10,\"completion_tokens\":5,\"total_tokens\":15}}");
+    }
+
+    private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        try {
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            // 客户端已因超时断开
+        }
+    }
+
+    /**
+     * 对话后上下文达到 10 * 0.8 条 在后台发起总结 等待其结束
+     */
+    private void chatAndAwaitCompaction(String expected) throws InterruptedException {
+        ChatResponse response = model.doChat(ChatRequest.builder().setContent("m7").build());
+        assertEquals("好的", response.getChoices().get(0).getMessage().getContent());
+        for (int i = 0; i < 400 && !isSettled(expected); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(isSettled(expected), model.getCompactor().getStats());
+    }
+
+    private boolean isSettled(String expected) {
+        String stats = model.getCompactor().getStats();
+        return stats.contains("running: 0") && stats.contains(expected);
+    }
+
+    @Test
+    void summarizesThroughUpstream() throws InterruptedException {
+        chatAndAwaitCompaction("compacted: 1");
+
+        assertEquals(1, summaryRequests.size());
+        JSONObject request = summaryRequests.get(0);
+        assertEquals("summary-model", request.getString("model"));
+        assertEquals(64, request.getIntValue("max_tokens"));
+        assertFalse(request.getBooleanValue("stream"));
+        assertNull(request.get("tools"));
+        assertEquals("Bearer test-token", request.getString("authorization"));
+        JSONArray messages = request.getJSONArray("messages");
+        assertEquals(2, messages.size());
+        assertEquals("system", messages.getJSONObject(0).getString("role"));
+        assertEquals(PROMPT, messages.getJSONObject(0).getString("content"));
+        assertEquals("user", messages.getJSONObject(1).getString("role"));
+        String transcript = messages.getJSONObject(1).getString("content");
+        assertTrue(transcript.contains("user: m0\n"), transcript);
+        assertTrue(transcript.contains("user: m6\n"), transcript);
+        // 最近2条不参与总结
+        assertFalse(transcript.contains("m7"), transcript);
+
+        List<Message<?>> compacted = context.getMessagesReadOnly();
+        assertEquals(3, compacted.size());
+        assertInstanceOf(SummaryMessage.class, compacted.get(0));
+        assertEquals(SummaryMessage.PREFIX + "用户发送了 m0 到 m6", compacted.get(0).getContent());
+        assertEquals("m7", compacted.get(1).getContent());
+        assertEquals("好的", compacted.get(2).getContent());
+    }
+
+    @Test
+    void keepsContextWhenSummaryTimesOut() throws InterruptedException {
+        mode = Mode.SLOW;
+        long start = System.currentTimeMillis();
+        chatAndAwaitCompaction("failed: 1");
+        // 在总结的截止时间结束 不等待上游响应
+        assertTrue(System.currentTimeMillis() - start < 2500);
+        assertEquals(1, summaryRequests.size());
+        assertEquals(9, context.getMessageCount());
+        assertEquals("m0", context.getMessagesReadOnly().get(0).getContent());
+    }
+
+    @Test
+    void keepsContextOnUpstreamError() throws InterruptedException {
+        mode = Mode.ERROR;
+        chatAndAwaitCompaction("failed: 1");
+        assertEquals(1, summaryRequests.size());
+        assertEquals(9, context.getMessageCount());
+        assertEquals("m0", context.getMessagesReadOnly().get(0).getContent());
+    }
+}
@@ -0,0 +1,131 @@
+package top.kloping.core.ai.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.util.MicroBenchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 上下文读写的基准 与原先加锁复制的实现对比
+ * 1个线程持续写入 3个线程持续读取快照并遍历 比较吞吐量 另比较单次读取快照的分配
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Tag(MicroBenchmark.TAG)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ChatContextBenchmarkTest {
+    private static final int MAX = 50;
+    private static final int READERS = 3;
+    private static final long DURATION_MS = 2000;
+
+    /**
+     * 原先的实现: 同步列表外再加读写锁 写入满时 remove(0) 读取时复制整个列表
+     */
+    private static final class LockedContext {
+        private final List<Message<?>> messages = Collections.synchronizedList(new ArrayList<>());
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        void addMessage(Message<?> message) {
+            lock.writeLock().lock();
+            try {
+                if (messages.size() >= MAX) {
+                    messages.remove(0);
+                }
+                messages.add(message);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<Message<?>> getMessagesReadOnly() {
+            lock.readLock().lock();
+            try {
+                return new ArrayList<>(messages);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static final Message<?> MESSAGE = new UserMessage("今天的天气怎么样 需要带伞吗");
+
+    private static long read(List<Message<?>> snapshot) {
+        long sum = 0;
+        for (Message<?> message : snapshot) {
+            sum += message.hashCode() & 1;
+        }
+        return sum + snapshot.size();
+    }
+
+    private static List<MicroBenchmark.Op> ops(MicroBenchmark.Op writer, MicroBenchmark.Op reader) {
+        List<MicroBenchmark.Op> ops = new ArrayList<>();
+        ops.add(writer);
+        for (int i = 0; i < READERS; i++) {
+            ops.add(reader);
+        }
+        return ops;
+    }
+
+    @Test
+    void contendedThroughput() throws Exception {
+        LockedContext locked = new LockedContext();
+        ChatContext context = new ChatContext();
+        context.setMax(MAX);
+        for (int i = 0; i < MAX; i++) {
+            locked.addMessage(MESSAGE);
+            context.addMessage(MESSAGE);
+        }
+
+        double before = MicroBenchmark.throughput("locked list (before)", DURATION_MS, ops(
+                () -> {
+                    locked.addMessage(MESSAGE);
+                    return 1;
+                },
+                () -> read(locked.getMessagesReadOnly())));
+        double after = MicroBenchmark.throughput("message window (after)", DURATION_MS, ops(
+                () -> {
+                    context.addMessage(MESSAGE);
+                    return 1;
+                },
+                () -> read(context.getMessagesReadOnly())));
+        System.out.println(String.format("throughput ratio %.2fx", after / before));
+        assertTrue(before > 0 && after > 0);
+    }
+
+    @Test
+    void snapshotReadAllocation() throws Exception {
+        LockedContext locked = new LockedContext();
+        ChatContext context = new ChatContext();
+        context.setMax(MAX);
+        for (int i = 0; i < MAX; i++) {
+            locked.addMessage(MESSAGE);
+            context.addMessage(MESSAGE);
+        }
+        MicroBenchmark.Result before = MicroBenchmark.measure("read snapshot, locked list (before)",
+                100_000, 1_000_000, () -> locked.getMessagesReadOnly().size());
+        MicroBenchmark.Result after = MicroBenchmark.measure("read snapshot, message window (after)",
+                100_000, 1_000_000, () -> context.getMessagesReadOnly().size());
+        // 读取快照不复制
+        assertTrue(after.bytesPerOp < before.bytesPerOp / 10);
+
+        MicroBenchmark.measure("append at capacity, locked list (before)", 100_000, 1_000_000, () -> {
+            locked.addMessage(MESSAGE);
+            return 1;
+        });
+        MicroBenchmark.measure("append at capacity, message window (after)", 100_000, 1_000_000, () -> {
+            context.addMessage(MESSAGE);
+            return 1;
+        });
+    }
+}
@@ -0,0 +1,184 @@
+package top.kloping.core.ai.service;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.SystemMessage;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.util.TokenEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static top.kloping.core.ai.service.MessageWindowTest.toolCall;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class ChatContextTest {
+
+    @Test
+    void trimsOldestByMessageCount() {
+        ChatContext context = new ChatContext();
+        context.setMax(3);
+        for (int i = 0; i < 5; i++) {
+            context.addMessage(new UserMessage("m" + i));
+        }
+        assertEquals(3, context.getMessageCount());
+        assertEquals("m2", context.getMessagesReadOnly().get(0).getContent());
+    }
+
+    @Test
+    void trimsOldestByTokenBudget() {
+        ChatContext context = new ChatContext();
+        context.setMax(null);
+        SystemMessage system = new SystemMessage("你是一个助手");
+        context.setSystemMessage(system);
+        int perMessage = TokenEstimator.estimate(new UserMessage("一二三四五六七八九十"));
+        int budget = TokenEstimator.estimate(system) + perMessage * 4;
+        context.setMaxTokens(budget);
+        for (int i = 0; i < 10; i++) {
+            context.addMessage(new UserMessage("一二三四五六七八九十"));
+        }
+        assertEquals(4, context.getMessageCount());
+        assertTrue(context.getTokenCount() <= budget);
+        assertEquals(TokenEstimator.estimate(system) + TokenEstimator.estimate(context.getMessagesReadOnly()),
+                context.getTokenCount());
+
+        // 收紧预算时立即淘汰
+        context.setMaxTokens(budget - perMessage);
+        assertEquals(3, context.getMessageCount());
+    }
+
+    @Test
+    void evictsToolCallTogetherWithResults() {
+        ChatContext context = new ChatContext();
+        context.setMax(4);
+        context.addMessage(new UserMessage("q"));
+        context.addMessage(toolCall("a", "b"));
+        context.addMessage(new ToolMessage("ra", "a"));
+        context.addMessage(new ToolMessage("rb", "b"));
+        context.addMessage(new UserMessage("next"));
+        // 超出1条 淘汰 q 即可
+        assertEquals(4, context.getMessageCount());
+
+        context.addMessage(new UserMessage("more"));
+        // 再超出1条时 工具调用与两条结果一起淘汰 不留下孤立的工具结果
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        assertEquals(2, messages.size());
+        assertEquals("next", messages.get(0).getContent());
+        for (Message<?> message : messages) {
+            assertFalse(message instanceof ToolMessage);
+        }
+    }
+
+    @Test
+    void keepsNewestGroupEvenIfOverBudget() {
+        ChatContext context = new ChatContext();
+        context.setMaxTokens(1);
+        context.addMessage(new UserMessage("old"));
+        context.addMessage(new UserMessage("a message that alone exceeds the budget"));
+        assertEquals(1, context.getMessageCount());
+        assertEquals("a message that alone exceeds the budget", context.getMessagesReadOnly().get(0).getContent());
+    }
+
+    @Test
+    void snapshotsAreReadOnlyAndStable() {
+        ChatContext context = new ChatContext();
+        context.addMessage(new UserMessage("a"));
+        List<Message<?>> snapshot = context.getMessagesReadOnly();
+        context.addMessage(new UserMessage("b"));
+        context.clearMessages();
+
+        assertEquals(1, snapshot.size());
+        assertTrue(context.isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(new UserMessage("c")));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void getMessagesWritesThrough() {
+        ChatContext context = new ChatContext();
+        List<Message<?>> snapshots = new ArrayList<>();
+        context.setChangeListener((message, messages) -> snapshots.add(null));
+        List<Message<?>> view = context.getMessages();
+        view.add(new UserMessage("a"));
+        view.add(new UserMessage("c"));
+        view.add(1, new UserMessage("b"));
+        assertEquals(List.of("a", "b", "c"), contents(context.getMessagesReadOnly()));
+        long tokens = context.getTokenCount();
+
+        assertEquals("b", view.set(1, new UserMessage("bb")).getContent());
+        assertEquals("a", view.remove(0).getContent());
+        assertEquals(List.of("bb", "c"), contents(context.getMessagesReadOnly()));
+        assertTrue(context.getTokenCount() < tokens);
+        assertTrue(view.removeIf(m -> "c".equals(m.getContent())));
+        assertEquals(1, view.size());
+        view.clear();
+        assertTrue(context.isEmpty());
+        assertEquals(7, snapshots.size());
+
+        // 视图始终反映当前消息
+        context.addMessage(new UserMessage("d"));
+        assertEquals("d", view.get(0).getContent());
+    }
+
+    private static List<Object> contents(List<Message<?>> messages) {
+        List<Object> contents = new ArrayList<>();
+        for (Message<?> message : messages) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    @Test
+    void notifiesListenerOnChange() {
+        ChatContext context = new ChatContext();
+        List<Message<?>> appended = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        context.setChangeListener((message, messages) -> {
+            appended.add(message);
+            sizes.add(messages.size());
+        });
+        UserMessage first = new UserMessage("a");
+        context.addMessage(first);
+        context.removeMessages(m -> true);
+        context.setChangeListener(null);
+        context.addMessage(new UserMessage("ignored"));
+
+        assertEquals(2, appended.size());
+        assertSame(first, appended.get(0));
+        assertNull(appended.get(1));
+        assertEquals(List.of(1, 0), sizes);
+    }
+
+    @Test
+    void replaceLeadingRequiresSameInstances() {
+        ChatContext context = new ChatContext();
+        context.addMessage(new UserMessage("a"));
+        context.addMessage(new UserMessage("b"));
+        List<Message<?>> prefix = new ArrayList<>(context.getMessagesReadOnly().subList(0, 1));
+
+        // 内容相同但不是同一对象时不替换
+        assertFalse(context.replaceLeading(List.of(new UserMessage("a")), new UserMessage("summary")));
+        assertTrue(context.replaceLeading(prefix, new UserMessage("summary")));
+        assertEquals("summary", context.getMessagesReadOnly().get(0).getContent());
+        assertEquals("b", context.getMessagesReadOnly().get(1).getContent());
+    }
+
+    @Test
+    void equalityIgnoresHistoryAndListener() {
+        ChatContext a = new ChatContext();
+        ChatContext b = new ChatContext();
+        a.setModel("m");
+        b.setModel("m");
+        a.addMessage(new UserMessage("only in a"));
+        a.setChangeListener((message, messages) -> {
+        });
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.toString().contains("only in a"));
+    }
+}
@@ -0,0 +1,116 @@
+package top.kloping.core.ai.service;
+
+import com.alibaba.fastjson.JSONObject;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.util.MicroBenchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static top.kloping.core.ai.service.MessageWindowTest.toolCall;
+
+/**
+ * 请求体序列化的基准 与原先先拼出完整字符串再转为字节的方式对比
+ * 50条消息的历史(约100KB)与30个工具定义 写入丢弃输出的连接
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Tag(MicroBenchmark.TAG)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ChatRequestBodyBenchmarkTest {
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 5_000;
+
+    private static List<Message<?>> history() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 2000) {
+            text.append("会话历史中较长的一段内容 including \"quotes\" and\nnew lines. ");
+        }
+        List<Message<?>> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            switch (i % 3) {
+                case 0:
+                    messages.add(new UserMessage(text.toString()));
+                    break;
+                case 1:
+                    messages.add(toolCall("call_" + i));
+                    break;
+                default:
+                    messages.add(new ToolMessage(text.toString(), "call_" + (i - 1)));
+            }
+        }
+        return messages;
+    }
+
+    private static List<RequestTool> tools() {
+        List<RequestTool> tools = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            RequestTool.Parameter parameter = new RequestTool.Parameter();
+            for (int p = 0; p < 4; p++) {
+                RequestTool.ParameterDesc desc = new RequestTool.ParameterDesc();
+                desc.setType("string");
+                desc.setDescription("参数说明 " + p);
+                parameter.getProperties().put("p" + p, desc);
+                parameter.getRequired().add("p" + p);
+            }
+            tools.add(new RequestTool().setFunction(new RequestTool.Function()
+                    .setName("tool_" + i).setDescription("查询第 " + i + " 类数据的工具").setParameters(parameter)));
+        }
+        return tools;
+    }
+
+    /**
+     * 原先的方式: 构建 JSONObject 后转为字符串 再由字符串创建请求体
+     */
+    private static RequestBody legacy(List<Message<?>> messages, List<RequestTool> tools) {
+        JSONObject body = new JSONObject();
+        body.put("model", "gpt");
+        body.put("max_tokens", 1024);
+        body.put("temperature", 0.7);
+        body.put("stream", false);
+        body.put("messages", messages);
+        body.put("tools", tools);
+        return RequestBody.create(body.toString(), ChatRequestBody.JSON_TYPE);
+    }
+
+    private static ChatRequestBody streaming(List<Message<?>> messages, List<RequestTool> tools) {
+        return new ChatRequestBody("gpt", false, messages, tools)
+                .param("max_tokens", 1024)
+                .param("temperature", 0.7);
+    }
+
+    private static long write(RequestBody body) throws IOException {
+        try (BufferedSink sink = Okio.buffer(Okio.blackhole())) {
+            body.writeTo(sink);
+            return sink.getBuffer().size();
+        }
+    }
+
+    @Test
+    void serializeLargeRequest() throws Exception {
+        List<Message<?>> messages = history();
+        List<RequestTool> tools = tools();
+        assertInstanceOf(AssistantMessage.class, messages.get(1));
+
+        MicroBenchmark.Result before = MicroBenchmark.measure("JSONObject + String (before)", WARMUP, ITERATIONS,
+                () -> write(legacy(messages, tools)));
+        MicroBenchmark.Result after = MicroBenchmark.measure("ChatRequestBody.writeTo (after)", WARMUP, ITERATIONS,
+                () -> write(streaming(messages, tools)));
+        System.out.println(String.format("allocation ratio %.2fx, time ratio %.2fx",
+                before.bytesPerOp / after.bytesPerOp, before.nanosPerOp / after.nanosPerOp));
+        // 不再生成完整的中间字符串与字节数组
+        assertTrue(after.bytesPerOp < before.bytesPerOp / 2);
+    }
+}
@@ -0,0 +1,113 @@
+package top.kloping.core.ai.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.SystemMessage;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.dto.UserMessage;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static top.kloping.core.ai.service.MessageWindowTest.toolCall;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class ChatRequestBodyTest {
+
+    private static List<Message<?>> messages() {
+        return List.of(new SystemMessage("你是助手"), new UserMessage("引号\" 换行\n 与 \\ 反斜杠"),
+                toolCall("call_1"), new ToolMessage("结果", "call_1"));
+    }
+
+    private static RequestTool tool(String name, boolean sideEffect) {
+        return new RequestTool()
+                .setFunction(new RequestTool.Function().setName(name).setDescription("查询")
+                        .setParameters(new RequestTool.Parameter()))
+                .setSideEffect(sideEffect);
+    }
+
+    private static JSONObject write(ChatRequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return JSON.parseObject(buffer.readUtf8());
+    }
+
+    @Test
+    void writesCompleteJson() throws IOException {
+        ChatRequestBody body = new ChatRequestBody("gpt", false, messages(), List.of(tool("weather", false)))
+                .param("temperature", 0.5)
+                .param("max_tokens", 100)
+                .param("seed", null);
+        JSONObject json = write(body);
+
+        assertEquals("gpt", json.getString("model"));
+        assertEquals(0.5, json.getDoubleValue("temperature"), 1e-9);
+        assertEquals(100, json.getIntValue("max_tokens"));
+        assertFalse(json.containsKey("seed"));
+        assertFalse(json.getBooleanValue("stream"));
+        assertFalse(json.containsKey("stream_options"));
+
+        JSONArray messages = json.getJSONArray("messages");
+        assertEquals(4, messages.size());
+        assertEquals("system", messages.getJSONObject(0).getString("role"));
+        assertEquals("引号\" 换行\n 与 \\ 反斜杠", messages.getJSONObject(1).getString("content"));
+        assertEquals("call_1", messages.getJSONObject(2).getJSONArray("tool_calls").getJSONObject(0).getString("id"));
+        assertEquals("call_1", messages.getJSONObject(3).getString("tool_call_id"));
+
+        JSONObject function = json.getJSONArray("tools").getJSONObject(0);
+        assertEquals("function", function.getString("type"));
+        assertEquals("weather", function.getJSONObject("function").getString("name"));
+        assertFalse(function.containsKey("sideEffect"));
+    }
+
+    @Test
+    void streamingRequestsUsage() throws IOException {
+        JSONObject json = write(new ChatRequestBody("gpt", true, messages(), null));
+        assertTrue(json.getBooleanValue("stream"));
+        assertTrue(json.getJSONObject("stream_options").getBooleanValue("include_usage"));
+        assertFalse(json.containsKey("tools"));
+    }
+
+    @Test
+    void canWriteRepeatedly() throws IOException {
+        ChatRequestBody body = new ChatRequestBody("gpt", false, messages(), null);
+        Buffer first = new Buffer();
+        Buffer second = new Buffer();
+        body.writeTo(first);
+        body.writeTo(second);
+        assertEquals(first.readUtf8(), second.readUtf8());
+        assertEquals(-1, body.contentLength());
+        assertEquals("application/json", body.contentType().toString());
+    }
+
+    @Test
+    void canonicalHashDependsOnContent() {
+        String hash = new ChatRequestBody("gpt", false, messages(), null).param("seed", 1).canonicalHash();
+        assertEquals(hash, new ChatRequestBody("gpt", false, messages(), null).param("seed", 1).canonicalHash());
+        assertNotEquals(hash, new ChatRequestBody("gpt", false, messages(), null).param("seed", 2).canonicalHash());
+        assertNotEquals(hash, new ChatRequestBody("other", false, messages(), null).param("seed", 1).canonicalHash());
+    }
+
+    @Test
+    void detectsSideEffectTools() {
+        assertFalse(new ChatRequestBody("gpt", false, messages(), null).hasSideEffectTools());
+        assertFalse(new ChatRequestBody("gpt", false, messages(), List.of(tool("read", false))).hasSideEffectTools());
+        assertTrue(new ChatRequestBody("gpt", false, messages(),
+                List.of(tool("read", false), tool("write", true))).hasSideEffectTools());
+    }
+
+    @Test
+    void estimateIncludesReservedOutput() {
+        ChatRequestBody plain = new ChatRequestBody("gpt", false, messages(), null);
+        ChatRequestBody reserved = new ChatRequestBody("gpt", false, messages(), null).param("max_tokens", 256);
+        assertEquals(plain.estimateTokens() + 256, reserved.estimateTokens());
+    }
+}
@@ -0,0 +1,82 @@
+package top.kloping.core.ai.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.util.MicroBenchmark;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 非流式响应解析的基准 与原先先转字符串 解析为 JSONObject 再逐层转换的方式对比
+ * 响应包含较长的文本与40个工具调用
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+@Tag(MicroBenchmark.TAG)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ChatResponseParseBenchmarkTest {
+    private static final int WARMUP = 5_000;
+    private static final int ITERATIONS = 20_000;
+    private static final int TOOL_CALLS = 40;
+
+    private static byte[] response() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 4000) {
+            content.append("根据查询结果 以下是整理后的回答 with some \\\"escaped\\\" text.\\n");
+        }
+        StringBuilder calls = new StringBuilder();
+        for (int i = 0; i < TOOL_CALLS; i++) {
+            if (i > 0) {
+                calls.append(',');
+            }
+            calls.append("{\"id\":\"call_").append(i).append("\",\"type\":\"function\",\"function\":{\"name\":\"tool_")
+                    .append(i).append("\",\"arguments\":\"{\\\"city\\\":\\\"北京\\\",\\\"day\\\":").append(i)
+                    .append(",\\\"detail\\\":true}\"}}");
+        }
+        String json = "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1758500000,"
+                + "\"model\":\"gpt\",\"system_fingerprint\":\"fp_1\",\"choices\":[{\"index\":0,"
+                + "\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\",\"tool_calls\":[" + calls + "]},"
+                + "\"finish_reason\":\"tool_calls\",\"logprobs\":null}],"
+                + "\"usage\":{\"prompt_tokens\":1200,\"completion_tokens\":800,\"total_tokens\":2000}}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 原先的方式: 字节转字符串 解析为 JSONObject 取出 message 后分别转换为响应与消息
+     */
+    private static AssistantMessage legacy(byte[] bytes) {
+        JSONObject jsonObject = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        JSONObject choiceMessage = jsonObject.getJSONArray("choices").getJSONObject(0).getJSONObject("message");
+        ChatResponse chatResponse = jsonObject.toJavaObject(ChatResponse.class);
+        AssistantMessage assistantMessage = choiceMessage.toJavaObject(AssistantMessage.class);
+        return chatResponse.getUsage() != null ? assistantMessage : null;
+    }
+
+    private static AssistantMessage singlePass(byte[] bytes) {
+        return AiRequestModelImpl.handleChatResponse(bytes).getChoices().get(0).getMessage();
+    }
+
+    @Test
+    void parseLargeResponse() throws Exception {
+        byte[] bytes = response();
+        assertEquals(TOOL_CALLS, legacy(bytes).getTool_calls().size());
+        assertEquals(TOOL_CALLS, singlePass(bytes).getTool_calls().size());
+        assertEquals(legacy(bytes).getContent(), singlePass(bytes).getContent());
+
+        MicroBenchmark.Result before = MicroBenchmark.measure("String + JSONObject (before)", WARMUP, ITERATIONS,
+                () -> legacy(bytes).getTool_calls().size());
+        MicroBenchmark.Result after = MicroBenchmark.measure("single pass from bytes (after)", WARMUP, ITERATIONS,
+                () -> singlePass(bytes).getTool_calls().size());
+        System.out.println(String.format("allocation ratio %.2fx, time ratio %.2fx",
+                before.bytesPerOp / after.bytesPerOp, before.nanosPerOp / after.nanosPerOp));
+        // 不再生成中间字符串与 JSONObject 树
+        assertTrue(after.bytesPerOp < before.bytesPerOp / 2);
+    }
+}
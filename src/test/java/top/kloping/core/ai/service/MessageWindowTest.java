@@ -0,0 +1,129 @@
+package top.kloping.core.ai.service;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.util.TokenEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class MessageWindowTest {
+
+    static AssistantMessage toolCall(String... ids) {
+        AssistantMessage message = new AssistantMessage();
+        message.setContent("");
+        List<AssistantMessage.ToolCall> calls = new ArrayList<>();
+        for (String id : ids) {
+            AssistantMessage.ToolCall call = new AssistantMessage.ToolCall();
+            call.setId(id);
+            call.setType("function");
+            AssistantMessage.ToolCallFunction function = new AssistantMessage.ToolCallFunction();
+            function.setName("tool");
+            function.setArguments("{}");
+            call.setFunction(function);
+            calls.add(call);
+        }
+        message.setTool_calls(calls);
+        return message;
+    }
+
+    private static MessageWindow windowOf(Message<?>... messages) {
+        MessageWindow window = MessageWindow.EMPTY;
+        for (Message<?> message : messages) {
+            window = window.append(message, null);
+        }
+        return window;
+    }
+
+    @Test
+    void snapshotsStayUnchangedAcrossAppendAndDrop() {
+        MessageWindow window = MessageWindow.EMPTY;
+        List<MessageWindow> snapshots = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            window = window.append(new UserMessage("m" + i), 10);
+            if (window.size() > 10) {
+                window = window.dropFirst(window.size() - 10);
+            }
+            snapshots.add(window);
+        }
+        assertEquals(10, window.size());
+        assertEquals("m90", window.get(0).getContent());
+        assertEquals("m99", window.get(9).getContent());
+        for (int i = 0; i < snapshots.size(); i++) {
+            MessageWindow snapshot = snapshots.get(i);
+            // 每个快照以第i条消息结尾 且长度不变
+            assertEquals(Math.min(i + 1, 10), snapshot.size());
+            assertEquals("m" + i, snapshot.get(snapshot.size() - 1).getContent());
+            assertEquals(TokenEstimator.estimate(snapshot), snapshot.tokenCount());
+        }
+    }
+
+    @Test
+    void isReadOnly() {
+        MessageWindow window = windowOf(new UserMessage("a"));
+        assertThrows(UnsupportedOperationException.class, () -> window.add(new UserMessage("b")));
+        assertThrows(UnsupportedOperationException.class, () -> window.remove(0));
+        assertThrows(UnsupportedOperationException.class, window::clear);
+        assertThrows(IndexOutOfBoundsException.class, () -> window.get(1));
+    }
+
+    @Test
+    void leadingGroupKeepsToolCallWithResults() {
+        MessageWindow window = windowOf(toolCall("a", "b"), new ToolMessage("ra", "a"), new ToolMessage("rb", "b"),
+                new UserMessage("next"));
+        assertEquals(3, window.leadingGroupSize());
+        MessageWindow rest = window.dropFirst(window.leadingGroupSize());
+        assertEquals(1, rest.leadingGroupSize());
+        assertEquals(0, MessageWindow.EMPTY.leadingGroupSize());
+
+        // 开头残留的工具结果同样整体淘汰
+        MessageWindow orphan = windowOf(new ToolMessage("r", "x"), new ToolMessage("r", "y"), new UserMessage("u"));
+        assertEquals(2, orphan.leadingGroupSize());
+    }
+
+    @Test
+    void removeIfKeepsTokenCounts() {
+        MessageWindow window = windowOf(new UserMessage("keep"), new ToolMessage("drop", "1"),
+                new UserMessage("也保留"));
+        assertSame(window, window.removeIf(m -> false, null));
+
+        MessageWindow kept = window.removeIf(m -> m instanceof ToolMessage, null);
+        assertEquals(2, kept.size());
+        assertEquals("也保留", kept.get(1).getContent());
+        assertEquals(TokenEstimator.estimate(kept), kept.tokenCount());
+        assertEquals(3, window.size());
+    }
+
+    @Test
+    void replacePrefixSwapsLeadingMessages() {
+        UserMessage last = new UserMessage("last");
+        MessageWindow window = windowOf(new UserMessage("a"), new UserMessage("b"), last);
+        UserMessage summary = new UserMessage("summary of a and b");
+        MessageWindow replaced = window.replacePrefix(2, summary, null);
+
+        assertEquals(2, replaced.size());
+        assertSame(summary, replaced.get(0));
+        assertSame(last, replaced.get(1));
+        assertEquals(TokenEstimator.estimate(replaced), replaced.tokenCount());
+    }
+
+    @Test
+    void applyToolPolicyReturnsSameWindowWhenUnchanged() {
+        MessageWindow window = windowOf(new UserMessage("q"), toolCall("a"), new ToolMessage("r", "a"));
+        assertSame(window, window.applyToolPolicy((message, age) -> message, null));
+
+        MessageWindow cleared = window.applyToolPolicy(ToolResultPolicy.removeAll(), null);
+        assertEquals(Collections.singletonList(window.get(0)), new ArrayList<>(cleared));
+        assertEquals(TokenEstimator.estimate(cleared), cleared.tokenCount());
+    }
+}
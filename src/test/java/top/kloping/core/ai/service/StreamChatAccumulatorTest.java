@@ -0,0 +1,119 @@
+package top.kloping.core.ai.service;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.exception.AiModelException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class StreamChatAccumulatorTest {
+
+    private static String chunk(String delta, String finishReason) {
+        return "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1,\"model\":\"m\","
+                + "\"choices\":[{\"index\":0,\"delta\":" + delta + ",\"finish_reason\":"
+                + (finishReason == null ? "null" : "\"" + finishReason + "\"") + "}]}";
+    }
+
+    @Test
+    void accumulatesContentUntilDone() {
+        StreamChatAccumulator accumulator = new StreamChatAccumulator();
+        List<String> deltas = new ArrayList<>();
+        String[] lines = {
+                ": keep-alive",
+                chunk("{\"role\":\"assistant\",\"content\":\"\"}", null),
+                "",
+                chunk("{\"content\":\"你好\"}", null),
+                chunk("{\"content\":\" world\"}", null),
+                chunk("{}", "stop"),
+                "data: {\"id\":\"chatcmpl-1\",\"choices\":[],\"usage\":"
+                        + "{\"prompt_tokens\":3,\"completion_tokens\":2,\"total_tokens\":5}}",
+                "data: [DONE]",
+        };
+        for (String line : lines) {
+            String delta = accumulator.acceptLine(line);
+            if (delta != null) {
+                deltas.add(delta);
+            }
+        }
+        assertTrue(accumulator.isDone());
+        assertDoesNotThrow(accumulator::ensureComplete);
+        assertEquals(List.of("你好", " world"), deltas);
+
+        AssistantMessage message = accumulator.toAssistantMessage();
+        assertEquals("你好 world", message.getContent());
+        assertNull(message.getTool_calls());
+
+        ChatResponse response = accumulator.toChatResponse(message);
+        assertEquals("chatcmpl-1", response.getId());
+        assertEquals("m", response.getModel());
+        assertEquals("stop", response.getChoices().get(0).getFinish_reason());
+        assertSame(message, response.getChoices().get(0).getMessage());
+        assertEquals(5, response.getUsage().getTotal_tokens());
+    }
+
+    @Test
+    void joinsToolCallArgumentsByIndex() {
+        StreamChatAccumulator accumulator = new StreamChatAccumulator();
+        accumulator.acceptLine(chunk("{\"tool_calls\":[{\"index\":0,\"id\":\"call_a\",\"type\":\"function\","
+                + "\"function\":{\"name\":\"weather\",\"arguments\":\"{\\\"city\\\":\"}}]}", null));
+        accumulator.acceptLine(chunk("{\"tool_calls\":[{\"index\":1,\"id\":\"call_b\","
+                + "\"function\":{\"name\":\"time\",\"arguments\":\"{}\"}}]}", null));
+        accumulator.acceptLine(chunk("{\"tool_calls\":[{\"index\":0,"
+                + "\"function\":{\"arguments\":\"\\\"北京\\\"}\"}}]}", null));
+        accumulator.acceptLine(chunk("{}", "tool_calls"));
+        accumulator.acceptLine("data: [DONE]");
+
+        List<AssistantMessage.ToolCall> calls = accumulator.toAssistantMessage().getTool_calls();
+        assertEquals(2, calls.size());
+        assertEquals("call_a", calls.get(0).getId());
+        assertEquals("weather", calls.get(0).getFunction().getName());
+        assertEquals("{\"city\":\"北京\"}", calls.get(0).getFunction().getArguments());
+        assertEquals("call_b", calls.get(1).getId());
+        // 缺省类型补为 function
+        assertEquals("function", calls.get(1).getType());
+        assertEquals("{}", calls.get(1).getFunction().getArguments());
+    }
+
+    @Test
+    void streamCutBeforeDoneIsIncomplete() {
+        StreamChatAccumulator accumulator = new StreamChatAccumulator();
+        accumulator.acceptLine(chunk("{\"content\":\"半句\"}", null));
+
+        assertFalse(accumulator.isDone());
+        AiModelException e = assertThrows(AiModelException.class, accumulator::ensureComplete);
+        assertEquals(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR, e.getErrorCode());
+    }
+
+    @Test
+    void finishReasonWithoutDoneIsComplete() {
+        StreamChatAccumulator accumulator = new StreamChatAccumulator();
+        accumulator.acceptLine(chunk("{\"content\":\"ok\"}", null));
+        accumulator.acceptLine(chunk("{}", "stop"));
+
+        assertFalse(accumulator.isDone());
+        assertDoesNotThrow(accumulator::ensureComplete);
+        assertEquals("ok", accumulator.toAssistantMessage().getContent());
+    }
+
+    @Test
+    void errorChunkFails() {
+        StreamChatAccumulator accumulator = new StreamChatAccumulator();
+        AiModelException e = assertThrows(AiModelException.class,
+                () -> accumulator.acceptLine("data: {\"error\":{\"message\":\"overloaded\"}}"));
+        assertEquals(AiModelException.ErrorCode.REQUEST_FAILED, e.getErrorCode());
+    }
+
+    @Test
+    void malformedChunkFails() {
+        StreamChatAccumulator accumulator = new StreamChatAccumulator();
+        AiModelException e = assertThrows(AiModelException.class, () -> accumulator.acceptLine("data: {broken"));
+        assertEquals(AiModelException.ErrorCode.RESPONSE_PARSE_ERROR, e.getErrorCode());
+    }
+}
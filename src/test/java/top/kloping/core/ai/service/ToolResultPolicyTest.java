@@ -0,0 +1,118 @@
+package top.kloping.core.ai.service;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.util.TokenEstimator;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static top.kloping.core.ai.service.MessageWindowTest.toolCall;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class ToolResultPolicyTest {
+
+    /**
+     * 三次工具交互 从旧到新依次为 a、b、c
+     */
+    private static ChatContext threeExchanges() {
+        ChatContext context = new ChatContext();
+        for (String id : new String[]{"a", "b", "c"}) {
+            context.addMessage(new UserMessage("q" + id));
+            context.addMessage(toolCall(id));
+            context.addMessage(new ToolMessage("result of " + id + " ".repeat(200), id));
+            context.addMessage(new AssistantMessage());
+        }
+        return context;
+    }
+
+    private static long count(List<Message<?>> messages, Class<?> type) {
+        return messages.stream().filter(type::isInstance).count();
+    }
+
+    @Test
+    void removeAllDropsEveryExchange() {
+        ChatContext context = threeExchanges();
+        context.applyToolPolicy(ToolResultPolicy.removeAll());
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        assertEquals(6, messages.size());
+        assertEquals(0, count(messages, ToolMessage.class));
+        for (Message<?> message : messages) {
+            assertFalse(ToolResultPolicy.isToolExchange(message));
+        }
+    }
+
+    @Test
+    void keepLastKeepsNewestExchanges() {
+        ChatContext context = threeExchanges();
+        context.applyToolPolicy(ToolResultPolicy.keepLast(1));
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        assertEquals(1, count(messages, ToolMessage.class));
+        ToolMessage kept = (ToolMessage) messages.stream().filter(m -> m instanceof ToolMessage).findFirst().get();
+        assertEquals("c", kept.getTool_call_id());
+        // 调用与结果同时保留
+        assertEquals(1, messages.stream().filter(ToolResultPolicy::isToolExchange)
+                .filter(m -> m instanceof AssistantMessage).count());
+    }
+
+    @Test
+    void stubBeforeReplacesOlderResultsOnly() {
+        ChatContext context = threeExchanges();
+        long before = context.getTokenCount();
+        context.applyToolPolicy(ToolResultPolicy.stubBefore(1));
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        assertEquals(12, messages.size());
+        ToolMessage a = (ToolMessage) messages.get(2);
+        ToolMessage c = (ToolMessage) messages.get(10);
+        assertEquals("a", a.getTool_call_id());
+        assertTrue(a.getContent().startsWith("[已省略的工具结果"));
+        assertTrue(c.getContent().startsWith("result of c"));
+        assertTrue(context.getTokenCount() < before);
+        assertEquals(TokenEstimator.estimate(messages), context.getTokenCount());
+    }
+
+    @Test
+    void truncateShortensLongResults() {
+        ToolMessage longResult = new ToolMessage("x".repeat(400), "id");
+        Message<?> truncated = ToolResultPolicy.truncate(10).apply(longResult, 0);
+        assertNotSame(longResult, truncated);
+        assertEquals("id", ((ToolMessage) truncated).getTool_call_id());
+        assertTrue(((ToolMessage) truncated).getContent().contains("[已截断"));
+        assertEquals("x".repeat(400), longResult.getContent());
+
+        ToolMessage shortResult = new ToolMessage("ok", "id");
+        assertSame(shortResult, ToolResultPolicy.truncate(10).apply(shortResult, 0));
+    }
+
+    @Test
+    void andThenSkipsRemovedMessages() {
+        ToolResultPolicy failIfCalled = (message, age) -> {
+            throw new AssertionError("removed message passed on");
+        };
+        assertNull(ToolResultPolicy.removeAll().andThen(failIfCalled).apply(new ToolMessage("r", "a"), 0));
+
+        ToolResultPolicy policy = ToolResultPolicy.keepLast(2).andThen(ToolResultPolicy.stubBefore(1));
+        ChatContext context = threeExchanges();
+        context.applyToolPolicy(policy);
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        assertEquals(2, count(messages, ToolMessage.class));
+        ToolMessage b = (ToolMessage) messages.get(4);
+        assertEquals("b", b.getTool_call_id());
+        assertTrue(b.getContent().startsWith("[已省略的工具结果"));
+    }
+
+    @Test
+    void contextWithoutToolCallsIsUntouched() {
+        ChatContext context = new ChatContext();
+        context.addMessage(new UserMessage("hi"));
+        List<Message<?>> before = context.getMessagesReadOnly();
+        context.applyToolPolicy(ToolResultPolicy.removeAll());
+        assertSame(before, context.getMessagesReadOnly());
+    }
+}
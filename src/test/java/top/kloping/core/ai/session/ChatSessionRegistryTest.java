@@ -0,0 +1,107 @@
+package top.kloping.core.ai.session;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.service.ChatContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class ChatSessionRegistryTest {
+    private final List<String> evicted = new ArrayList<>();
+    private ChatSessionRegistry registry;
+
+    @AfterEach
+    void tearDown() {
+        registry.destroy();
+    }
+
+    private ChatSessionRegistry registry(int maxSessions, Long maxTotalTokens) {
+        AiModelProperties.Session config = new AiModelProperties.Session();
+        config.setMaxSessions(maxSessions);
+        config.setMaxTotalTokens(maxTotalTokens);
+        registry = new ChatSessionRegistry(config, id -> new ChatContext(), id -> {
+            synchronized (evicted) {
+                evicted.add(id);
+            }
+        });
+        return registry;
+    }
+
+    private static void fill(ChatContext context, int messages) {
+        for (int i = 0; i < messages; i++) {
+            context.addMessage(new UserMessage("消息内容 " + i));
+        }
+    }
+
+    /**
+     * 淘汰在后台进行 等待其完成
+     */
+    private void awaitSize(int size) throws InterruptedException {
+        for (int i = 0; i < 200 && registry.size() != size; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, registry.size());
+    }
+
+    @Test
+    void returnsSameContextPerSession() {
+        registry(10, null);
+        ChatContext context = registry.getOrCreate("a");
+        assertSame(context, registry.getOrCreate("a"));
+        assertNotSame(context, registry.getOrCreate("b"));
+        assertSame(context, registry.remove("a"));
+        assertNull(registry.get("a"));
+        // 主动移除不通知淘汰监听
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverCount() throws InterruptedException {
+        registry(10, null);
+        for (int i = 0; i < 10; i++) {
+            registry.getOrCreate("s" + i);
+            Thread.sleep(2);
+        }
+        registry.getOrCreate("s0");
+        registry.getOrCreate("s10");
+        // 超出时淘汰到上限的 90%
+        assertEquals(9, registry.size());
+        assertNotNull(registry.get("s0"));
+        assertNull(registry.get("s1"));
+        assertNull(registry.get("s2"));
+        assertEquals(2, evicted.size());
+    }
+
+    @Test
+    void evictsOverTotalTokens() throws InterruptedException {
+        registry(100, 1200L);
+        // 最旧的会话有进行中的对话
+        ChatContext pinned = registry.getOrCreate("pinned");
+        fill(pinned, 40);
+        pinned.pin();
+        long perSession = pinned.getTokenCount();
+        assertTrue(perSession > 300 && perSession <= 400, "tokens " + perSession);
+        Thread.sleep(2);
+        fill(registry.getOrCreate("old"), 40);
+        Thread.sleep(2);
+        fill(registry.getOrCreate("recent"), 40);
+        assertTrue(registry.totalTokens() <= 1200);
+
+        // 再写入一个会话后超出上限 最旧的未 pin 会话被淘汰
+        fill(registry.getOrCreate("newest"), 40);
+        registry.getOrCreate("newest");
+        awaitSize(3);
+        assertNull(registry.get("old"));
+        assertSame(pinned, registry.get("pinned"));
+        assertEquals(List.of("old"), evicted);
+    }
+}
@@ -0,0 +1,133 @@
+package top.kloping.core.ai.session;
+
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.SummaryMessage;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.service.ChatContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class ContextCompactorTest {
+    /**
+     * 待完成的总结请求 由测试决定何时完成
+     */
+    private final List<CompletableFuture<String>> requests = new ArrayList<>();
+    private final List<String> transcripts = new ArrayList<>();
+
+    private ContextCompactor compactor(int keepRecent) {
+        AiModelProperties.Compaction config = new AiModelProperties.Compaction();
+        config.setEnabled(true);
+        config.setKeepRecent(keepRecent);
+        config.setTriggerRatio(0.8);
+        return new ContextCompactor(config, (prompt, transcript) -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            transcripts.add(transcript);
+            requests.add(future);
+            return future;
+        });
+    }
+
+    private static ChatContext context(int max, int messages) {
+        ChatContext context = new ChatContext();
+        context.setMax(max);
+        for (int i = 0; i < messages; i++) {
+            context.addMessage(new UserMessage("m" + i));
+        }
+        return context;
+    }
+
+    @Test
+    void skipsBelowThreshold() {
+        ContextCompactor compactor = compactor(2);
+        assertFalse(compactor.compactIfNeeded(context(10, 7)));
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    void replacesLeadingMessagesWithSummary() {
+        ContextCompactor compactor = compactor(2);
+        ChatContext context = context(10, 8);
+        assertTrue(compactor.compactIfNeeded(context));
+        // 同一上下文同时只进行一次
+        assertFalse(compactor.compactIfNeeded(context));
+        assertTrue(transcripts.get(0).contains("user: m5"));
+        assertFalse(transcripts.get(0).contains("m6"));
+
+        // 总结期间的新消息不受影响
+        context.addMessage(new UserMessage("m8"));
+        requests.get(0).complete(" 摘要 ");
+
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        assertEquals(4, messages.size());
+        assertInstanceOf(SummaryMessage.class, messages.get(0));
+        assertEquals("m6", messages.get(1).getContent());
+        assertEquals("m8", messages.get(3).getContent());
+        assertTrue(compactor.getStats().contains("compacted: 1"));
+    }
+
+    @Test
+    void discardsSummaryWhenPrefixChanged() {
+        ContextCompactor compactor = compactor(2);
+        ChatContext context = context(10, 8);
+        assertTrue(compactor.compactIfNeeded(context));
+        context.clearMessages();
+        context.addMessage(new UserMessage("new"));
+        requests.get(0).complete("摘要");
+
+        assertEquals(1, context.getMessageCount());
+        assertEquals("new", context.getMessagesReadOnly().get(0).getContent());
+        assertTrue(compactor.getStats().contains("discarded: 1"));
+        // 结束后可以再次发起
+        assertFalse(compactor.getStats().contains("running: 1"));
+    }
+
+    @Test
+    void keepsContextOnFailure() {
+        ContextCompactor compactor = compactor(2);
+        ChatContext context = context(10, 8);
+        List<Message<?>> before = context.getMessagesReadOnly();
+        assertTrue(compactor.compactIfNeeded(context));
+        requests.get(0).completeExceptionally(new IllegalStateException("upstream down"));
+
+        assertSame(before, context.getMessagesReadOnly());
+        assertTrue(compactor.getStats().contains("failed: 1"));
+        assertTrue(compactor.compactIfNeeded(context));
+    }
+
+    @Test
+    void doesNotSplitToolCallFromResults() {
+        ContextCompactor compactor = compactor(2);
+        ChatContext context = context(10, 5);
+        AssistantMessage call = new AssistantMessage();
+        AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall();
+        toolCall.setId("a");
+        AssistantMessage.ToolCallFunction function = new AssistantMessage.ToolCallFunction();
+        function.setName("tool");
+        toolCall.setFunction(function);
+        call.setTool_calls(List.of(toolCall));
+        context.addMessage(call);
+        context.addMessage(new ToolMessage("r1", "a"));
+        context.addMessage(new ToolMessage("r2", "a"));
+        context.addMessage(new UserMessage("last"));
+
+        assertTrue(compactor.compactIfNeeded(context));
+        // 保留最近2条时切点落在工具结果上 向后移过全部工具结果
+        assertTrue(transcripts.get(0).contains("tool: r2"));
+        requests.get(0).complete("摘要");
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        assertInstanceOf(SummaryMessage.class, messages.get(0));
+        assertEquals("last", messages.get(1).getContent());
+    }
+}
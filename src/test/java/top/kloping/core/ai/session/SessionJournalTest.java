@@ -0,0 +1,204 @@
+package top.kloping.core.ai.session;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.kloping.core.ai.AiModelProperties;
+import top.kloping.core.ai.dto.AssistantMessage;
+import top.kloping.core.ai.dto.Message;
+import top.kloping.core.ai.dto.ToolMessage;
+import top.kloping.core.ai.dto.UserMessage;
+import top.kloping.core.ai.service.ChatContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author github kloping
+ * @since 2025/9/22
+ */
+class SessionJournalTest {
+    private Path dir;
+    private final List<SessionJournal> journals = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("session-journal");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        journals.forEach(SessionJournal::destroy);
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private SessionJournal open(int snapshotInterval) {
+        AiModelProperties.Journal config = new AiModelProperties.Journal();
+        config.setEnabled(true);
+        config.setDir(dir.toString());
+        config.setFsyncInterval(0);
+        config.setSnapshotInterval(snapshotInterval);
+        SessionJournal journal = new SessionJournal(config);
+        journals.add(journal);
+        return journal;
+    }
+
+    /**
+     * 写入若干条消息后关闭日志 返回写入的消息
+     */
+    private List<Message<?>> write(String sessionId, int snapshotInterval, int count) {
+        SessionJournal journal = open(snapshotInterval);
+        ChatContext context = new ChatContext();
+        context.setChangeListener(journal.listener(sessionId));
+        for (int i = 0; i < count; i++) {
+            context.addMessage(new UserMessage("消息 " + i));
+        }
+        List<Message<?>> messages = context.getMessagesReadOnly();
+        journal.destroy();
+        return messages;
+    }
+
+    private static AssistantMessage toolCall(String id, String name) {
+        AssistantMessage.ToolCallFunction function = new AssistantMessage.ToolCallFunction();
+        function.setName(name);
+        function.setArguments("{}");
+        AssistantMessage.ToolCall call = new AssistantMessage.ToolCall();
+        call.setId(id);
+        call.setType("function");
+        call.setFunction(function);
+        AssistantMessage message = new AssistantMessage();
+        message.setTool_calls(List.of(call));
+        return message;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<Object> contents(List<Message<?>> messages) {
+        return messages.stream().map(Message::getContent).collect(Collectors.toList());
+    }
+
+    @Test
+    void restoresWrittenMessages() {
+        SessionJournal journal = open(200);
+        ChatContext context = new ChatContext();
+        context.setChangeListener(journal.listener("user:1/会话"));
+        context.addMessage(new UserMessage("天气如何"));
+        AssistantMessage call = toolCall("call_1", "weather");
+        context.addMessage(call);
+        context.addMessage(new ToolMessage("晴", "call_1"));
+        journal.destroy();
+
+        List<Message<?>> restored = open(200).restore("user:1/会话");
+        assertEquals(3, restored.size());
+        assertEquals("天气如何", restored.get(0).getContent());
+        AssistantMessage restoredCall = (AssistantMessage) restored.get(1);
+        assertEquals("call_1", restoredCall.getTool_calls().get(0).getId());
+        assertEquals("weather", restoredCall.getTool_calls().get(0).getFunction().getName());
+        assertEquals("call_1", ((ToolMessage) restored.get(2)).getTool_call_id());
+    }
+
+    @Test
+    void restoresOwnPendingWrites() {
+        SessionJournal journal = open(200);
+        ChatContext context = new ChatContext();
+        context.setChangeListener(journal.listener("s"));
+        for (int i = 0; i < 50; i++) {
+            context.addMessage(new UserMessage("m" + i));
+        }
+        // 恢复会等待排队中的写入
+        assertEquals(contents(context.getMessagesReadOnly()), contents(journal.restore("s")));
+    }
+
+    @Test
+    void unknownSessionRestoresEmpty() {
+        assertTrue(open(200).restore("missing").isEmpty());
+    }
+
+    @Test
+    void ignoresTornTail() throws IOException {
+        List<Message<?>> written = write("s", 200, 5);
+        Path segment = segments().get(0);
+        // 模拟写到一半宕机 最后一行不完整
+        Files.write(segment, "1a2b3c\t{\"t\":\"a\",\"m\":{\"role\":\"us".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        assertEquals(contents(written), contents(open(200).restore("s")));
+    }
+
+    @Test
+    void stopsAtChecksumMismatch() throws IOException {
+        write("s", 200, 5);
+        Path segment = segments().get(0);
+        List<String> lines = Files.readAllLines(segment, StandardCharsets.UTF_8);
+        // 首行为包含 消息 0 的快照 之后每行追加一条消息 篡改 消息 3 所在行
+        assertEquals(5, lines.size());
+        lines.set(3, lines.get(3).replace("消息 3", "消息 X"));
+        Files.write(segment, lines, StandardCharsets.UTF_8);
+
+        List<Message<?>> restored = open(200).restore("s");
+        assertEquals(List.of("消息 0", "消息 1", "消息 2"), contents(restored));
+    }
+
+    @Test
+    void invalidSnapshotRestoresEmpty() throws IOException {
+        write("s", 200, 3);
+        Path segment = segments().get(0);
+        List<String> lines = Files.readAllLines(segment, StandardCharsets.UTF_8);
+        lines.set(0, "0\t" + lines.get(0).substring(lines.get(0).indexOf('\t') + 1));
+        Files.write(segment, lines, StandardCharsets.UTF_8);
+
+        assertTrue(open(200).restore("s").isEmpty());
+    }
+
+    @Test
+    void snapshotReplacesOlderSegments() throws IOException {
+        List<Message<?>> written = write("s", 3, 10);
+        assertEquals(1, segments().size());
+        assertEquals(contents(written), contents(open(3).restore("s")));
+    }
+
+    @Test
+    void deleteRemovesSession() {
+        write("s", 200, 3);
+        SessionJournal journal = open(200);
+        journal.delete("s");
+        assertTrue(journal.restore("s").isEmpty());
+    }
+
+    @Test
+    void releaseKeepsLogAndReopensOnNextWrite() {
+        SessionJournal journal = open(200);
+        ChatContext context = new ChatContext();
+        context.setChangeListener(journal.listener("s"));
+        context.addMessage(new UserMessage("m0"));
+        context.addMessage(new UserMessage("m1"));
+        context.setChangeListener(null);
+        journal.release("s");
+        assertEquals(List.of("m0", "m1"), contents(journal.restore("s")));
+
+        // 淘汰后再次访问 从日志恢复并继续写入
+        ChatContext reloaded = new ChatContext();
+        journal.restore("s").forEach(reloaded::addMessage);
+        reloaded.setChangeListener(journal.listener("s"));
+        reloaded.addMessage(new UserMessage("m2"));
+        assertEquals(List.of("m0", "m1", "m2"), contents(journal.restore("s")));
+    }
+}
@@ -0,0 +1,122 @@
+package top.kloping.core.ai.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 测试用的简易基准工具
+ * 单线程测量每次操作的耗时与分配字节数 多线程测量固定时长内的吞吐量
+ * 基准测试标记为 benchmark 默认跳过 以 {@code mvn test -Dbenchmark=true -Dgroups=benchmark} 运行
+ *
+ * @author github kloping
+ * @since 2025/9/22
+ */
+public final class MicroBenchmark {
+    public static final String TAG = "benchmark";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    /**
+     * 接收被测操作的返回值 防止被优化掉
+     */
+    private static volatile long blackhole;
+
+    private MicroBenchmark() {
+    }
+
+    /**
+     * 单线程测量结果
+     */
+    public static final class Result {
+        public final String name;
+        public final double nanosPerOp;
+        public final double bytesPerOp;
+
+        private Result(String name, double nanosPerOp, double bytesPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %12.0f ns/op %14.0f B/op", name, nanosPerOp, bytesPerOp);
+        }
+    }
+
+    /**
+     * 预热后在当前线程上执行指定次数
+     */
+    public static Result measure(String name, int warmup, int iterations, Op op) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < warmup; i++) {
+            sink += op.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+        Result result = new Result(name, (double) elapsed / iterations, (double) allocated / iterations);
+        blackhole = sink;
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * 多个线程同时执行 统计固定时长内完成的操作数
+     *
+     * @return 每秒操作数
+     */
+    public static double throughput(String name, long millis, List<Op> ops) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder count = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(ops.size());
+        List<Thread> threads = new ArrayList<>();
+        for (Op op : ops) {
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                long done = 0;
+                try {
+                    long sink = 0;
+                    while (running.get()) {
+                        sink += op.run();
+                        done++;
+                    }
+                    blackhole = sink;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    count.add(done);
+                }
+            });
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double perSecond = count.sum() * 1000.0 / millis;
+        System.out.println(String.format("%-40s %12.0f ops/s (%d threads)", name, perSecond, ops.size()));
+        return perSecond;
+    }
+
+    /**
+     * 被测操作 返回值参与累加 防止被优化掉
+     */
+    @FunctionalInterface
+    public interface Op {
+        long run() throws Exception;
+    }
+}